@@ -0,0 +1,206 @@
+package io.vproxy.jdkman.bench;
+
+import io.vproxy.jdkman.entity.JDKInfo;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// runs a scripted sequence of `cd`s in bash on an isolated home directory, with:
+//   baseline: the previous `cdjh`, which runs `jdkman which` and reassigns JAVA_HOME on every `cd`
+//   token:    the `cdjh` printed by `jdkman init sh`, which uses `jdkman which --token`
+// most `cd`s move between directories of the same project, so the governing .java-version is not changed.
+// the JAVA_HOME after every `cd` must be the same in both runs
+// usage:
+//   CdSequenceMeasurement [--cds <n>] [jvm <java> <jdkman.jar>] [native <jdkman-binary>]
+public class CdSequenceMeasurement {
+    private static final int DEFAULT_CDS = 1000;
+    private static final int PROJECTS = 10;
+    private static final int MODULES = 10;
+    private static final String[] VERSIONS = {"17", "21", "11"};
+
+    public static void main(String[] args) throws Exception {
+        var cds = DEFAULT_CDS;
+        var measured = false;
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "--cds" -> {
+                    if (i + 1 >= args.length) {
+                        usage();
+                    }
+                    cds = Integer.parseInt(args[++i]);
+                }
+                case "jvm" -> {
+                    if (i + 2 >= args.length) {
+                        usage();
+                    }
+                    var java = args[++i];
+                    var jar = args[++i];
+                    measure(home -> List.of(java, "--enable-preview", STR."-Duser.home=\{home}", "-jar", jar), cds);
+                    measured = true;
+                }
+                case "native" -> {
+                    if (i + 1 >= args.length) {
+                        usage();
+                    }
+                    var bin = args[++i];
+                    measure(home -> List.of(bin, STR."-Duser.home=\{home}"), cds);
+                    measured = true;
+                }
+                default -> usage();
+            }
+        }
+        if (!measured) {
+            usage();
+        }
+    }
+
+    private static void usage() {
+        System.out.println("usage: CdSequenceMeasurement [--cds <n>] [jvm <java> <jdkman.jar>] [native <jdkman-binary>]");
+        System.exit(1);
+    }
+
+    private interface Command {
+        List<String> of(Path home);
+    }
+
+    private static void measure(Command command, int cds) throws Exception {
+        var home = Files.createTempDirectory("jdkman-cd");
+        try {
+            measure(home, command.of(home), cds);
+        } finally {
+            Fixtures.deleteRecursively(home);
+        }
+    }
+
+    private static void measure(Path home, List<String> command, int cds) throws Exception {
+        // `jdkman` on PATH, recording the exit code of every call
+        var bin = home.resolve("bin");
+        Files.createDirectories(bin);
+        var calls = home.resolve("calls.log");
+        var quoted = new StringBuilder();
+        for (var c : command) {
+            quoted.append('\'').append(c.replace("'", "'\\''")).append("' ");
+        }
+        var wrapper = bin.resolve("jdkman");
+        Files.writeString(wrapper, STR."""
+            #!/bin/bash
+            \{quoted}"$@"
+            rc=$?
+            echo $rc >> '\{calls}'
+            exit $rc
+            """);
+        //noinspection ResultOfMethodCallIgnored
+        wrapper.toFile().setExecutable(true);
+
+        for (int i = 0; i < VERSIONS.length; ++i) {
+            var jdk = new JDKInfo();
+            jdk.setMajorVersion(Integer.parseInt(VERSIONS[i]));
+            jdk.setMinorVersion(0);
+            jdk.setPatchVersion(1);
+            jdk.setBuildVersion("1");
+            jdk.setFullVersion(STR."\{VERSIONS[i]}.0.1+1");
+            jdk.setImplementor("Bench");
+            var p = home.resolve("jdks").resolve(STR."jdk-\{VERSIONS[i]}");
+            Fixtures.fakeJDKHome(p, jdk);
+            run(home, List.of(wrapper.toString(), "add", p.toString()));
+        }
+
+        // projects/p{i}/m{j}/src, with .java-version in every project
+        var projects = home.resolve("projects");
+        var dirs = new ArrayList<List<Path>>();
+        for (int i = 0; i < PROJECTS; ++i) {
+            var project = projects.resolve(STR."p\{i}");
+            var ls = new ArrayList<Path>();
+            ls.add(project);
+            for (int j = 0; j < MODULES; ++j) {
+                var module = project.resolve(STR."m\{j}");
+                ls.add(module);
+                ls.add(Files.createDirectories(module.resolve("src")));
+            }
+            Fixtures.writeVersionFile(project, VERSIONS[i % VERSIONS.length], StandardCharsets.UTF_8, false);
+            dirs.add(ls);
+        }
+        // 90% within the current project, 10% to another project
+        var rnd = new Random(42);
+        var sequence = new StringBuilder();
+        var project = 0;
+        for (int i = 0; i < cds; ++i) {
+            if (rnd.nextInt(10) == 0) {
+                project = rnd.nextInt(PROJECTS);
+            }
+            var ls = dirs.get(project);
+            sequence.append(ls.get(rnd.nextInt(ls.size()))).append('\n');
+        }
+        var sequenceFile = home.resolve("cds.txt");
+        Files.writeString(sequenceFile, sequence);
+
+        var loop = STR."""
+            while IFS= read -r d; do
+                cdjh "$d"
+                echo "$JAVA_HOME" >> "$OUT"
+            done < '\{sequenceFile}'
+            """;
+        var baseline = home.resolve("baseline.sh");
+        Files.writeString(baseline, STR."""
+            function cdjh() {
+                builtin cd "$@"
+                export JAVA_HOME="`jdkman which`"
+            }
+            \{loop}
+            """);
+        var token = home.resolve("token.sh");
+        Files.writeString(token, STR."""
+            eval "$(jdkman init sh)"
+            \{loop}
+            """);
+
+        var baselineResult = runScript(home, bin, baseline, calls);
+        var tokenResult = runScript(home, bin, token, calls);
+        System.out.println(STR."command: \{String.join(" ", command)}");
+        System.out.println(STR."cds: \{cds}");
+        System.out.println(STR."baseline: \{baselineResult}");
+        System.out.println(STR."token:    \{tokenResult}");
+        if (!baselineResult.output.equals(tokenResult.output)) {
+            System.out.println("FAILED: JAVA_HOME differs");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private record Result(long nanos, int calls, int unchanged, List<String> output) {
+        @Override
+        public String toString() {
+            return STR."\{String.format("%.1f", nanos / 1_000_000.0)}ms, \{String.format("%.2f", nanos / 1_000_000.0 / output.size())}ms/cd, \{calls} jdkman calls, \{unchanged} unchanged";
+        }
+    }
+
+    private static Result runScript(Path home, Path bin, Path script, Path calls) throws Exception {
+        var out = home.resolve(STR."\{script.getFileName()}.out");
+        Files.deleteIfExists(calls);
+        var pb = new ProcessBuilder("bash", script.toString()).directory(home.toFile()).inheritIO();
+        pb.environment().put("PATH", STR."\{bin}:\{System.getenv("PATH")}");
+        pb.environment().put("OUT", out.toString());
+        var start = System.nanoTime();
+        var exitCode = pb.start().waitFor();
+        var nanos = System.nanoTime() - start;
+        if (exitCode != 0) {
+            throw new IOException(STR."\{script} exited with \{exitCode}");
+        }
+        var codes = Files.readAllLines(calls);
+        var unchanged = (int) codes.stream().filter(c -> c.trim().equals("3")).count();
+        return new Result(nanos, codes.size(), unchanged, Files.readAllLines(out));
+    }
+
+    private static void run(Path home, List<String> cmd) throws Exception {
+        var process = new ProcessBuilder(cmd).directory(home.toFile()).redirectErrorStream(true).start();
+        var output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        if (process.waitFor() != 0) {
+            throw new IOException(STR."\{cmd} failed: \{output}");
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package io.vproxy.jdkman.bench;
+
+import io.vproxy.jdkman.entity.JDKInfo;
+import io.vproxy.jdkman.util.Utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// runs many jdkman processes concurrently against one isolated home directory:
+//   phase 1: every writer adds its own jdks, while readers keep running `which`
+//   phase 2: every writer removes half of its jdks, while readers keep running `which`
+// then checks that no update is lost and no reader ever failed
+// usage:
+//   ConcurrencyStress <java> <jdkman.jar> [writers] [jdks-per-writer] [readers]
+public class ConcurrencyStress {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("usage: ConcurrencyStress <java> <jdkman.jar> [writers] [jdks-per-writer] [readers]");
+            System.exit(1);
+            return;
+        }
+        var java = args[0];
+        var jar = args[1];
+        var writers = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        var perWriter = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        var readers = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+
+        var home = Files.createTempDirectory("jdkman-stress");
+        // must be set before the config file path is retrieved
+        System.setProperty("user.home", home.toString());
+        var configFile = Utils.jdkmanConfigFile();
+        var command = List.of(java, "--enable-preview", STR."-Duser.home=\{home}", "-jar", jar);
+
+        var homes = new ArrayList<List<String>>();
+        var allHomes = new HashSet<String>();
+        for (int w = 0; w < writers; ++w) {
+            var ls = new ArrayList<String>();
+            for (int i = 0; i < perWriter; ++i) {
+                var jdk = new JDKInfo();
+                jdk.setMajorVersion(17 + (i % 5));
+                jdk.setMinorVersion(0);
+                jdk.setPatchVersion(w);
+                jdk.setBuildVersion(String.valueOf(i + 1));
+                jdk.setFullVersion(STR."\{jdk.getMajorVersion()}.0.\{w}+\{i + 1}");
+                jdk.setImplementor("Stress");
+                var p = home.resolve("jdks").resolve(STR."jdk-\{w}-\{i}");
+                Fixtures.fakeJDKHome(p, jdk);
+                ls.add(p.toString());
+                allHomes.add(p.toString());
+            }
+            homes.add(ls);
+        }
+        Fixtures.projectTree(home.resolve("project"), 2, "19", StandardCharsets.UTF_8);
+
+        var failures = new ConcurrentLinkedQueue<String>();
+        var readerStop = new AtomicBoolean(false);
+        var whichCount = new AtomicInteger();
+        var readerThreads = new ArrayList<Thread>();
+        for (int r = 0; r < readers; ++r) {
+            readerThreads.add(Thread.ofPlatform().start(() -> {
+                while (!readerStop.get()) {
+                    var res = run(command, List.of("which"), home.resolve("project").resolve("d1").resolve("d2"));
+                    whichCount.incrementAndGet();
+                    var out = res.stdout().trim();
+                    if (res.exitCode() != 0 || (!out.isEmpty() && !allHomes.contains(out))) {
+                        failures.add(STR."which: exit=\{res.exitCode()} output=\{res.stdout()}");
+                    }
+                }
+            }));
+        }
+
+        // phase 1
+        var start = System.nanoTime();
+        runWriters(homes, failures, h -> run(command, List.of("add", h), home));
+        var addNanos = System.nanoTime() - start;
+        var added = writers * perWriter;
+
+        // retrieve ids
+        var ids = new ConcurrentHashMap<String, String>();
+        for (var jdk : Utils.readConfig(configFile).getJdks()) {
+            ids.put(jdk.getHome(), jdk.getId());
+        }
+        var toRemove = new ArrayList<List<String>>();
+        var expected = new HashSet<>(allHomes);
+        for (var ls : homes) {
+            var rm = new ArrayList<String>();
+            for (int i = 0; i < ls.size(); i += 2) {
+                rm.add(ls.get(i));
+                expected.remove(ls.get(i));
+            }
+            toRemove.add(rm);
+        }
+
+        // phase 2
+        start = System.nanoTime();
+        runWriters(toRemove, failures, h -> {
+            var id = ids.get(h);
+            if (id == null) {
+                return new Utils.ProcessResult(1, "", STR."\{h} is missing after phase 1");
+            }
+            return run(command, List.of("remove", id), home);
+        });
+        var removeNanos = System.nanoTime() - start;
+        var removed = toRemove.stream().mapToInt(List::size).sum();
+
+        readerStop.set(true);
+        for (var t : readerThreads) {
+            t.join();
+        }
+
+        // final consistency
+        var config = Utils.readConfig(configFile);
+        var finalHomes = new HashSet<String>();
+        var finalIds = new HashSet<String>();
+        for (var jdk : config.getJdks()) {
+            if (!finalHomes.add(jdk.getHome())) {
+                failures.add(STR."duplicated home: \{jdk.getHome()}");
+            }
+            if (!finalIds.add(jdk.getId())) {
+                failures.add(STR."duplicated id: \{jdk.getId()}");
+            }
+        }
+        if (!finalHomes.equals(expected)) {
+            var lost = new HashSet<>(expected);
+            lost.removeAll(finalHomes);
+            var extra = new HashSet<>(finalHomes);
+            extra.removeAll(expected);
+            failures.add(STR."final registry mismatch: lost=\{lost} extra=\{extra}");
+        }
+        if (config.getDefaultJDK() != null && !finalIds.contains(config.getDefaultJDK())) {
+            failures.add(STR."default jdk \{config.getDefaultJDK()} does not exist");
+        }
+
+        System.out.println(STR."add:    \{added} in \{millis(addNanos)}ms, \{rate(added, addNanos)}/s");
+        System.out.println(STR."remove: \{removed} in \{millis(removeNanos)}ms, \{rate(removed, removeNanos)}/s");
+        System.out.println(STR."which:  \{whichCount.get()} calls by \{readers} readers");
+        System.out.println(STR."final:  \{finalHomes.size()} jdks, expecting \{expected.size()}");
+        if (failures.isEmpty()) {
+            System.out.println("OK");
+            Fixtures.deleteRecursively(home);
+        } else {
+            System.out.println(STR."FAILED: \{failures.size()} failure(s), files are kept in \{home}");
+            failures.stream().limit(20).forEach(f -> System.out.println("  " + f));
+            System.exit(1);
+        }
+    }
+
+    private interface Op {
+        Utils.ProcessResult run(String home) throws Exception;
+    }
+
+    // every writer runs its operations one by one, writers run concurrently
+    private static void runWriters(List<List<String>> homes, Queue<String> failures, Op op) {
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (var ls : homes) {
+                executor.submit(() -> {
+                    for (var h : ls) {
+                        try {
+                            var res = op.run(h);
+                            if (res.exitCode() != 0) {
+                                failures.add(STR."\{h}: exit=\{res.exitCode()} output=\{res.stdout()}\{res.stderr()}");
+                            }
+                        } catch (Exception e) {
+                            failures.add(STR."\{h}: \{e}");
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private static Utils.ProcessResult run(List<String> command, List<String> args, Path cwd) {
+        var cmd = new ArrayList<>(command);
+        cmd.addAll(args);
+        try {
+            var process = new ProcessBuilder(cmd).directory(cwd.toFile()).redirectErrorStream(true).start();
+            var output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            return new Utils.ProcessResult(process.waitFor(), output, "");
+        } catch (IOException | InterruptedException e) {
+            return new Utils.ProcessResult(-1, "", e.toString());
+        }
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1_000_000;
+    }
+
+    private static String rate(int n, long nanos) {
+        return String.format("%.1f", n * 1_000_000_000.0 / nanos);
+    }
+}
@@ -0,0 +1,32 @@
+package io.vproxy.jdkman.bench;
+
+import io.vproxy.jdkman.entity.JDKManConfig;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import vjson.JSON;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConfigDeserializeBenchmark {
+    @Param({"10", "100", "1000"})
+    public int registrySize;
+
+    private String json;
+
+    @Setup
+    public void setup() {
+        json = Fixtures.registry(registrySize, 42, Path.of("/nonexistent"), false).toJson().pretty();
+    }
+
+    @Benchmark
+    public void deserialize(Blackhole bh) {
+        bh.consume(JSON.deserialize(json, JDKManConfig.rule));
+    }
+}
@@ -0,0 +1,49 @@
+package io.vproxy.jdkman.bench;
+
+import io.vproxy.jdkman.util.Utils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Utils.currentVersion() always starts from the working directory,
+// so the same walk is done from a directory `depth` levels below the .java-version file
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CurrentVersionBenchmark {
+    @Param({"0", "3", "10", "30"})
+    public int depth;
+
+    private Path root;
+    private File dir;
+
+    @Setup
+    public void setup() throws Exception {
+        root = Files.createTempDirectory("jdkman-bench");
+        dir = Fixtures.projectTree(root, depth, "21", StandardCharsets.UTF_8).toFile();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Fixtures.deleteRecursively(root);
+    }
+
+    @Benchmark
+    public void findAndRead(Blackhole bh) {
+        var file = Utils.findVersionFile(dir, null);
+        bh.consume(file == null ? null : Utils.readVersionFile(file));
+    }
+
+    @Benchmark
+    public void findOnly(Blackhole bh) {
+        bh.consume(Utils.findVersionFile(dir, null));
+    }
+}
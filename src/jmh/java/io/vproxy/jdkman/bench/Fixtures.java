@@ -0,0 +1,178 @@
+package io.vproxy.jdkman.bench;
+
+import io.vproxy.jdkman.entity.JDKInfo;
+import io.vproxy.jdkman.entity.JDKManConfig;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// generates fake jdk homes, registries and project directory trees for benchmarks
+// run `main` to generate them on disk for manual testing:
+//   java -cp ... io.vproxy.jdkman.bench.Fixtures <dir> <jdk-count>
+public class Fixtures {
+    private static final String[] IMPLEMENTORS = {
+        "Eclipse Adoptium", "Oracle Corporation", "Azul Systems, Inc.", "Amazon.com Inc.", "BellSoft", null,
+    };
+    private static final int[] MAJORS = {8, 11, 17, 21, 22, 23};
+
+    public static final List<String> VERSION_STRINGS = List.of(
+        "21",
+        "17.0.9",
+        "1.8",
+        "1.8.0_392",
+        "1.8.0_392-b08",
+        "11.0.21+9",
+        "21.0.1+12-LTS",
+        "Oracle Corporation:21.0.1+12-29",
+        "Eclipse Adoptium:17.0.9+9");
+
+    private Fixtures() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("usage: Fixtures <dir> <jdk-count>");
+            System.exit(1);
+            return;
+        }
+        var dir = Path.of(args[0]);
+        var count = Integer.parseInt(args[1]);
+        var config = registry(count, 0, dir.resolve("jdks"), true);
+        Files.writeString(dir.resolve("jdkman"), config.toJson().pretty());
+        projectTree(dir.resolve("projects"), 5, "17", StandardCharsets.UTF_8);
+        System.out.println(STR."generated \{count} jdks in \{dir}");
+    }
+
+    // generates a registry with `count` jdks, sorted the same way as `jdkman add` does
+    // when createHomes is true, fake jdk homes are created under homesRoot
+    public static JDKManConfig registry(int count, long seed, Path homesRoot, boolean createHomes) {
+        var rand = new Random(seed);
+        var config = new JDKManConfig();
+        var jdks = new ArrayList<JDKInfo>(count);
+        for (int i = 0; i < count; ++i) {
+            var jdk = new JDKInfo();
+            var major = MAJORS[rand.nextInt(MAJORS.length)];
+            var patch = rand.nextInt(30);
+            var build = String.valueOf(1 + rand.nextInt(40));
+            jdk.setId(STR."jdk-\{i}");
+            if (major == 8) {
+                jdk.setMajorVersion(1);
+                jdk.setMinorVersion(8);
+                jdk.setPatchVersion(0);
+                jdk.setBuildVersion(STR."\{100 + patch * 10}-b\{build}");
+                jdk.setFullVersion(STR."1.8.0_\{jdk.getBuildVersion()}");
+            } else {
+                jdk.setMajorVersion(major);
+                jdk.setMinorVersion(0);
+                jdk.setPatchVersion(patch);
+                jdk.setBuildVersion(build);
+                jdk.setFullVersion(STR."\{major}.0.\{patch}+\{build}");
+            }
+            jdk.setImplementor(IMPLEMENTORS[rand.nextInt(IMPLEMENTORS.length)]);
+            var home = homesRoot.resolve(STR."jdk-\{i}");
+            jdk.setHome(home.toString());
+            if (createHomes) {
+                fakeJDKHome(home, jdk);
+            }
+            jdks.add(jdk);
+        }
+        jdks.sort(Comparator.reverseOrder());
+        config.setJdks(jdks);
+        if (!jdks.isEmpty()) {
+            config.setDefaultJDK(jdks.getFirst().getId());
+        }
+        return config;
+    }
+
+    // bin/java is a shell script printing the same output as `java -version`
+    public static void fakeJDKHome(Path home, JDKInfo jdk) {
+        String version;
+        String runtimeVersion;
+        if (jdk.getMajorVersion() == 1) {
+            version = jdk.getFullVersion().substring(0, jdk.getFullVersion().lastIndexOf('-'));
+            runtimeVersion = jdk.getFullVersion();
+        } else {
+            version = STR."\{jdk.getMajorVersion()}.\{jdk.getMinorVersion()}.\{jdk.getPatchVersion()}";
+            runtimeVersion = jdk.getFullVersion();
+        }
+        try {
+            Files.createDirectories(home.resolve("bin"));
+            var release = new StringBuilder();
+            if (jdk.getImplementor() != null) {
+                release.append(STR."IMPLEMENTOR=\"\{jdk.getImplementor()}\"\n");
+            }
+            release.append(STR."JAVA_VERSION=\"\{version}\"\n");
+            if (jdk.getMajorVersion() != 1) {
+                release.append(STR."JAVA_RUNTIME_VERSION=\"\{runtimeVersion}\"\n");
+            }
+            release.append("OS_NAME=\"").append(System.getProperty("os.name")).append("\"\n");
+            release.append("OS_ARCH=\"").append(System.getProperty("os.arch")).append("\"\n");
+            Files.writeString(home.resolve("release"), release.toString());
+
+            var java = home.resolve("bin").resolve("java");
+            Files.writeString(java, STR."""
+                #!/bin/sh
+                echo 'openjdk version "\{version}"' >&2
+                echo 'OpenJDK Runtime Environment (build \{runtimeVersion})' >&2
+                echo 'OpenJDK 64-Bit Server VM (build \{runtimeVersion}, mixed mode)' >&2
+                """);
+            //noinspection ResultOfMethodCallIgnored
+            java.toFile().setExecutable(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // creates root/d1/d2/.../d{depth}, with .java-version placed in root
+    // returns the deepest directory
+    public static Path projectTree(Path root, int depth, String version, Charset charset) throws IOException {
+        Files.createDirectories(root);
+        writeVersionFile(root, version, charset, false);
+        var dir = root;
+        for (int i = 1; i <= depth; ++i) {
+            dir = dir.resolve(STR."d\{i}");
+        }
+        Files.createDirectories(dir);
+        return dir;
+    }
+
+    public static Path writeVersionFile(Path dir, String version, Charset charset, boolean bom) throws IOException {
+        var content = version.getBytes(charset);
+        byte[] prefix = new byte[0];
+        if (bom) {
+            if (charset.equals(StandardCharsets.UTF_16LE)) {
+                prefix = new byte[]{(byte) 0xFF, (byte) 0xFE};
+            } else if (charset.equals(StandardCharsets.UTF_16BE)) {
+                prefix = new byte[]{(byte) 0xFE, (byte) 0xFF};
+            } else {
+                prefix = new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+            }
+        }
+        var bytes = new byte[prefix.length + content.length];
+        System.arraycopy(prefix, 0, bytes, 0, prefix.length);
+        System.arraycopy(content, 0, bytes, prefix.length, content.length);
+        var file = dir.resolve(".java-version");
+        Files.write(file, bytes);
+        return file;
+    }
+
+    public static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(path)) {
+            for (var p : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package io.vproxy.jdkman.bench;
+
+import io.vproxy.jdkman.entity.*;
+import io.vproxy.jdkman.util.Utils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MatchBenchmark {
+    private static final List<MatchOptions> TIERS = List.of(
+        new MatchOptions(),
+        new MatchOptions().setMatchBuildVersion(false),
+        new MatchOptions().setMatchBuildVersion(false).setMatchImplementor(false),
+        new MatchOptions(false));
+
+    @Param({"10", "100", "1000", "10000"})
+    public int registrySize;
+
+    @Param({"21", "17.0.9", "1.8", "Eclipse Adoptium:21.0.3+9", "25"})
+    public String query;
+
+    private JDKManConfig config;
+    private JDKIndex index;
+    private JDKInfoMatcher matcher;
+    private Path dir;
+    private RegistrySnapshot snapshot;
+    private RegistrySnapshot systemSnapshot;
+
+    @Setup
+    public void setup() throws Exception {
+        config = Fixtures.registry(registrySize, 42, Path.of("/nonexistent"), false);
+        index = JDKIndex.of(config);
+        matcher = Utils.parseVersion(query);
+
+        dir = Files.createTempDirectory("jdkman-bench");
+        var configFile = dir.resolve("jdkman").toFile();
+        Files.writeString(configFile.toPath(), config.toJson().pretty());
+        RegistrySnapshot.update(configFile, config);
+        snapshot = RegistrySnapshot.openMapped(configFile);
+
+        // a system registry of the same size layered under the user one
+        var system = Fixtures.registry(registrySize, 7, Path.of("/system"), false);
+        system.getJdks().forEach(jdk -> jdk.setId(STR."system-\{jdk.getId()}"));
+        system.setDefaultJDK(system.getJdks().getFirst().getId());
+        var systemFile = dir.resolve("system").toFile();
+        Files.writeString(systemFile.toPath(), system.toJson().pretty());
+        RegistrySnapshot.update(systemFile, system);
+        systemSnapshot = RegistrySnapshot.openReadOnly(systemFile);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Fixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void matchOne(Blackhole bh) {
+        bh.consume(matcher.match(config.getJdks().getFirst(), TIERS.getFirst()));
+    }
+
+    // what a single `which` does: build the index and resolve once
+    @Benchmark
+    public void buildIndexAndResolve(Blackhole bh) {
+        bh.consume(JDKIndex.of(config).resolve(matcher));
+    }
+
+    // what `serve` does for each request after the index is built
+    @Benchmark
+    public void resolveWithIndex(Blackhole bh) {
+        bh.consume(index.resolve(matcher));
+    }
+
+    // what the `which` fast path does
+    @Benchmark
+    public void resolveWithSnapshot(Blackhole bh) {
+        bh.consume(snapshot.resolve(matcher));
+    }
+
+    // the `which` fast path when a system registry exists
+    @Benchmark
+    public void resolveWithLayeredSnapshots(Blackhole bh) {
+        bh.consume(RegistrySnapshot.resolve(snapshot, systemSnapshot, matcher));
+    }
+
+    // the algorithm used before JDKIndex, kept here as the baseline
+    @Benchmark
+    public void linearScanBaseline(Blackhole bh) {
+        var ls = new ArrayList<JDKInfo>();
+        for (var opts : TIERS) {
+            for (var jdk : config.getJdks()) {
+                if (matcher.match(jdk, opts)) {
+                    ls.add(jdk);
+                }
+            }
+            if (!ls.isEmpty()) {
+                ls.sort(JDKInfo::compareTo);
+                bh.consume(ls.getFirst());
+                return;
+            }
+        }
+        bh.consume(null);
+    }
+}
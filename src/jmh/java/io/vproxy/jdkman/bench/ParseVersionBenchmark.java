@@ -0,0 +1,37 @@
+package io.vproxy.jdkman.bench;
+
+import io.vproxy.jdkman.ex.ErrorResult;
+import io.vproxy.jdkman.util.LegacyVersionParser;
+import io.vproxy.jdkman.util.Utils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// run with `-prof gc` to compare the allocation rate with the legacy parser
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParseVersionBenchmark {
+    @Param({
+        "21",
+        "17.0.9",
+        "1.8.0_392-b08",
+        "21.0.1+12-LTS",
+        "Oracle Corporation:21.0.1+12-29",
+    })
+    public String version;
+
+    @Benchmark
+    public void parseVersion(Blackhole bh) throws ErrorResult {
+        bh.consume(Utils.parseVersion(version));
+    }
+
+    @Benchmark
+    public void legacyParseVersion(Blackhole bh) throws ErrorResult {
+        bh.consume(LegacyVersionParser.parseVersion(version));
+    }
+}
@@ -0,0 +1,105 @@
+package io.vproxy.jdkman.bench;
+
+import io.vproxy.jdkman.util.ShimSync;
+import io.vproxy.jdkman.util.Utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// compares the wall time of `java -version` in the current directory, with the current jdkman config:
+//   direct:  $JAVA_HOME/bin/java, no shim
+//   script:  the bash script shim, which runs `jdkman which` then execs the tool
+//   symlink: the symlink to the native jdkman binary, which resolves the jdk in-process then execs the tool
+// the shims are generated into a temporary directory, the jdkman-scripts directory is not touched
+// usage:
+//   ShimModeMeasurement [--runs <n>] <jdkman-native-binary>
+public class ShimModeMeasurement {
+    private static final int DEFAULT_RUNS = 20;
+
+    public static void main(String[] args) throws Exception {
+        var runs = DEFAULT_RUNS;
+        String binary = null;
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("--runs") && i + 1 < args.length) {
+                runs = Integer.parseInt(args[++i]);
+            } else if (binary == null) {
+                binary = Path.of(args[i]).toAbsolutePath().toString();
+            } else {
+                usage();
+            }
+        }
+        if (binary == null) {
+            usage();
+        }
+
+        var config = Utils.readConfig(Utils.jdkmanConfigFile());
+        var jdk = Utils.currentVersion(config);
+        if (jdk == null) {
+            System.out.println("no jdk resolved in the current directory");
+            System.exit(1);
+            return;
+        }
+
+        var tmp = Files.createTempDirectory("jdkman-shims");
+        try {
+            // the script shims run `jdkman which`, so the binary must be found in PATH
+            var pathDir = Files.createDirectories(tmp.resolve("path"));
+            Files.createSymbolicLink(pathDir.resolve("jdkman"), Path.of(binary));
+            var scripts = Files.createDirectories(tmp.resolve("scripts"));
+            new ShimSync(scripts.toFile(), null).sync(config);
+            var links = Files.createDirectories(tmp.resolve("links"));
+            new ShimSync(links.toFile(), binary).sync(config);
+
+            var path = STR."\{pathDir}:\{System.getenv("PATH")}";
+            measure("direct ", List.of(Path.of(jdk.getHome(), "bin", "java").toString(), "-version"), path, runs);
+            measure("script ", List.of(scripts.resolve("java").toString(), "-version"), path, runs);
+            measure("symlink", List.of(links.resolve("java").toString(), "-version"), path, runs);
+        } finally {
+            Fixtures.deleteRecursively(tmp);
+        }
+    }
+
+    private static void usage() {
+        System.out.println("usage: ShimModeMeasurement [--runs <n>] <jdkman-native-binary>");
+        System.exit(1);
+    }
+
+    private static void measure(String name, List<String> command, String path, int runs) throws Exception {
+        // warm up the file system cache
+        run(command, path);
+
+        var nanos = new long[runs];
+        for (int i = 0; i < runs; ++i) {
+            nanos[i] = run(command, path);
+        }
+        Arrays.sort(nanos);
+        var ls = new ArrayList<String>();
+        ls.add(STR."min=\{millis(nanos[0])}");
+        ls.add(STR."p50=\{millis(nanos[nanos.length / 2])}");
+        ls.add(STR."p90=\{millis(nanos[(int) (nanos.length * 0.9)])}");
+        ls.add(STR."max=\{millis(nanos[nanos.length - 1])}");
+        System.out.println(STR."\{name} \{String.join(" ", ls)}");
+    }
+
+    private static long run(List<String> command, String path) throws IOException, InterruptedException {
+        var pb = new ProcessBuilder(command)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.DISCARD);
+        pb.environment().put("PATH", path);
+        var start = System.nanoTime();
+        var exitCode = pb.start().waitFor();
+        var nanos = System.nanoTime() - start;
+        if (exitCode != 0) {
+            throw new IOException(STR."\{String.join(" ", command)} exited with \{exitCode}");
+        }
+        return nanos;
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2fms", nanos / 1_000_000.0);
+    }
+}
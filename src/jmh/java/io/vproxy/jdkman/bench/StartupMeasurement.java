@@ -0,0 +1,130 @@
+package io.vproxy.jdkman.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// measures the startup of `jdkman which` in the current directory, with the current jdkman config
+// usage:
+//   StartupMeasurement [--runs <n>] [jvm <java> <jdkman.jar>] [native <jdkman-binary>]
+// for the jvm build, the number of loaded classes is retrieved with -Xlog:class+load
+// for the native build, classes are initialized at build time, so only the time is measured
+public class StartupMeasurement {
+    private static final int DEFAULT_RUNS = 20;
+
+    public static void main(String[] args) throws Exception {
+        var runs = DEFAULT_RUNS;
+        var measured = false;
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "--runs" -> {
+                    if (i + 1 >= args.length) {
+                        usage();
+                    }
+                    runs = Integer.parseInt(args[++i]);
+                }
+                case "jvm" -> {
+                    if (i + 2 >= args.length) {
+                        usage();
+                    }
+                    var java = args[++i];
+                    var jar = args[++i];
+                    measure(List.of(java, "--enable-preview", "-jar", jar, "which"), runs);
+                    System.out.println(STR."loaded classes: \{countClasses(java, jar)}");
+                    measured = true;
+                }
+                case "native" -> {
+                    if (i + 1 >= args.length) {
+                        usage();
+                    }
+                    measure(List.of(args[++i], "which"), runs);
+                    measured = true;
+                }
+                default -> usage();
+            }
+        }
+        if (!measured) {
+            usage();
+        }
+    }
+
+    private static void measure(List<String> command, int runs) throws Exception {
+        // warm up the file system cache
+        run(command);
+
+        var firstOutput = new long[runs];
+        var total = new long[runs];
+        for (int i = 0; i < runs; ++i) {
+            var r = run(command);
+            firstOutput[i] = r[0];
+            total[i] = r[1];
+        }
+        System.out.println(STR."command: \{String.join(" ", command)}");
+        System.out.println(STR."runs: \{runs}");
+        System.out.println(STR."time to first output: \{summary(firstOutput)}");
+        System.out.println(STR."time to exit:         \{summary(total)}");
+    }
+
+    private static void usage() {
+        System.out.println("usage: StartupMeasurement [--runs <n>] [jvm <java> <jdkman.jar>] [native <jdkman-binary>]");
+        System.exit(1);
+    }
+
+    // returns {nanos to the first stdout byte, nanos to exit}
+    private static long[] run(List<String> command) throws IOException, InterruptedException {
+        var start = System.nanoTime();
+        var process = new ProcessBuilder(command)
+            .redirectError(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        long first = -1;
+        try (InputStream input = process.getInputStream()) {
+            if (input.read() != -1) {
+                first = System.nanoTime() - start;
+            }
+            input.transferTo(OutputStream.nullOutputStream());
+        }
+        process.waitFor();
+        var end = System.nanoTime() - start;
+        if (first == -1) {
+            // nothing printed, e.g. no jdk registered
+            first = end;
+        }
+        return new long[]{first, end};
+    }
+
+    private static int countClasses(String java, String jar) throws IOException, InterruptedException {
+        var log = Files.createTempFile("jdkman-class-load", ".log");
+        try {
+            var process = new ProcessBuilder(java, "--enable-preview",
+                STR."-Xlog:class+load=info:file=\{log}", "-jar", jar, "which")
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+            process.waitFor();
+            try (var lines = Files.lines(log)) {
+                return (int) lines.count();
+            }
+        } finally {
+            Files.deleteIfExists(log);
+        }
+    }
+
+    private static String summary(long[] nanos) {
+        var sorted = nanos.clone();
+        Arrays.sort(sorted);
+        var ls = new ArrayList<String>();
+        ls.add(STR."min=\{millis(sorted[0])}");
+        ls.add(STR."p50=\{millis(sorted[sorted.length / 2])}");
+        ls.add(STR."p90=\{millis(sorted[(int) (sorted.length * 0.9)])}");
+        ls.add(STR."max=\{millis(sorted[sorted.length - 1])}");
+        return String.join(" ", ls);
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2fms", nanos / 1_000_000.0);
+    }
+}
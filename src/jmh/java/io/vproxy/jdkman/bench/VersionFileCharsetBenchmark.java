@@ -0,0 +1,67 @@
+package io.vproxy.jdkman.bench;
+
+import io.vproxy.jdkman.util.LegacyVersionParser;
+import io.vproxy.jdkman.util.Utils;
+import io.vproxy.jdkman.util.VersionParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// the .java-version file might be written by different editors/shells,
+// e.g. powershell `echo 21 > .java-version` writes UTF-16LE with BOM
+// the decode* benchmarks exclude the file reading, run with `-prof gc` to compare the allocation rate
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VersionFileCharsetBenchmark {
+    @Param({"UTF-8", "UTF-8-BOM", "UTF-16LE-BOM", "UTF-16BE-BOM", "UTF-16LE"})
+    public String encoding;
+
+    private Path dir;
+    private File file;
+    private byte[] content;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("jdkman-bench");
+        var version = "Eclipse Adoptium:21.0.1+12-LTS\n";
+        var path = switch (encoding) {
+            case "UTF-8" -> Fixtures.writeVersionFile(dir, version, StandardCharsets.UTF_8, false);
+            case "UTF-8-BOM" -> Fixtures.writeVersionFile(dir, version, StandardCharsets.UTF_8, true);
+            case "UTF-16LE-BOM" -> Fixtures.writeVersionFile(dir, version, StandardCharsets.UTF_16LE, true);
+            case "UTF-16BE-BOM" -> Fixtures.writeVersionFile(dir, version, StandardCharsets.UTF_16BE, true);
+            case "UTF-16LE" -> Fixtures.writeVersionFile(dir, version, StandardCharsets.UTF_16LE, false);
+            default -> throw new IllegalArgumentException(encoding);
+        };
+        file = path.toFile();
+        content = Files.readAllBytes(path);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Fixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void readVersionFile(Blackhole bh) {
+        bh.consume(Utils.readVersionFile(file));
+    }
+
+    @Benchmark
+    public void decodeVersionFile(Blackhole bh) {
+        bh.consume(VersionParser.decodeVersionFile(content));
+    }
+
+    @Benchmark
+    public void legacyDecodeVersionFile(Blackhole bh) {
+        bh.consume(LegacyVersionParser.decodeVersionFile(content));
+    }
+}
@@ -0,0 +1,74 @@
+package io.vproxy.jdkman.bench;
+
+import io.vproxy.jdkman.action.ServeAction;
+import io.vproxy.jdkman.util.Utils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// compares `which` answered by `jdkman serve` with the in-process cold path
+// (read and deserialize the config, walk the directories, resolve)
+// the process spawn itself is not included in the cold path
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WhichLatencyBenchmark {
+    @Param({"10", "100"})
+    public int registrySize;
+
+    private Path root;
+    private File configFile;
+    private Path socket;
+    private File dir;
+
+    @Setup
+    public void setup() throws Exception {
+        root = Files.createTempDirectory("jdkman-bench");
+        var config = Fixtures.registry(registrySize, 42, root.resolve("jdks"), false);
+        configFile = root.resolve("jdkman").toFile();
+        Files.writeString(configFile.toPath(), config.toJson().pretty());
+        dir = Fixtures.projectTree(root.resolve("project"), 3, "17", StandardCharsets.UTF_8).toFile();
+
+        socket = root.resolve("jdkman.sock");
+        var thread = new Thread(() -> {
+            try {
+                new ServeAction().serve(configFile, config, socket);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        for (int i = 0; i < 100 && ServeAction.query(socket, dir) == null; ++i) {
+            //noinspection BusyWait
+            Thread.sleep(50);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(socket);
+        Fixtures.deleteRecursively(root);
+    }
+
+    @Benchmark
+    public void serve(Blackhole bh) {
+        bh.consume(ServeAction.query(socket, dir));
+    }
+
+    @Benchmark
+    public void coldPath(Blackhole bh) throws Exception {
+        var config = Utils.readConfig(configFile);
+        var versionFile = Utils.findVersionFile(dir, null);
+        var matcher = versionFile == null ? null : Utils.readVersionFile(versionFile);
+        bh.consume(Utils.resolve(config, matcher));
+    }
+}
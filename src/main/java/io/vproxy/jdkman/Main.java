@@ -1,17 +1,24 @@
 package io.vproxy.jdkman;
 
-import io.vproxy.base.Config;
 import io.vproxy.base.util.LogType;
 import io.vproxy.base.util.Logger;
-import io.vproxy.commons.util.IOUtils;
+import io.vproxy.base.util.log.LogHandler;
 import io.vproxy.jdkman.action.*;
 import io.vproxy.jdkman.entity.JDKManConfig;
+import io.vproxy.jdkman.entity.RegistrySnapshot;
 import io.vproxy.jdkman.ex.ErrorResult;
+import io.vproxy.jdkman.trace.Trace;
 import io.vproxy.jdkman.util.CommentLogHandler;
+import io.vproxy.jdkman.util.ResolutionCache;
+import io.vproxy.jdkman.util.ShimSync;
+import io.vproxy.jdkman.util.StatsRecorder;
+import io.vproxy.jdkman.util.SystemRegistry;
+import io.vproxy.jdkman.util.Utils;
 import vjson.JSON;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.util.*;
 
@@ -19,36 +26,135 @@ public class Main {
     public static final String VERSION = "1.0.4";
     private static final String HELP_STR = """
         Usage:
-            jdkman [action] [options]
+            jdkman [--trace] [--system] [action] [options]
+        Options:
+            --trace                       Print the time spent in each phase to stderr,
+                                          or set JDKMAN_TRACE=1
+            --system                      Operate on the system registry shared by all users
+                                          (list, add, discover, install, dedup, remove, default,
+                                          refresh)
         Actions:
             help                          Show this page
             version                       Show version
             list [verbose]                Show registered jdk list
             add <JAVA_HOME>               Add a new jdk
+            discover [roots...]           Find and add jdks under the roots
+                    [--dry-run] [--depth <n>]
+                    [--parallelism <n>]
+                    [--timeout <seconds>]
+            install <archives...>         Extract .tar.gz/.zip jdk archives (or all archives in
+                                          the directories) and add them, the sha-256 is verified
+                                          against <archive>.sha256 or SHA256SUMS next to it
+                    [--root <dir>] [--sha256 <hex>]
+                    [--store <dir>]       or unpack into the shared store (or set JDKMAN_STORE),
+                                          `sha256:<hex>` installs an archive kept in the store
+                    [--parallelism <n>]
+                    [--timeout <seconds>]
+            dedup [--dry-run]             Replace identical files in the registered jdks with hard links
+                    [--parallelism <n>]
             remove <id>                   Remove an existing jdk
             default <id>                  Set default jdk
-            refresh                       Update jdk info and remove invalid ones
-            which                         Print current JAVA_HOME
+            refresh [--force]             Update changed jdk info and remove invalid ones
+                    [--parallelism <n>]
+                    [--timeout <seconds>]
+            which [--batch [file]]        Print current JAVA_HOME, or print `<dir><TAB><JAVA_HOME>`
+                                          for each directory read from the file (or stdin)
+            which --token <prev>          Print `<token> <JAVA_HOME>`, or exit with 3 and print nothing
+                                          if the token is the same as <prev>
+            which --tool <name>           Print JAVA_HOME, then the options the shims pass to the tool
+                                          (cds archives, and the profile in .java-options), one per line
+            cache <stats|clear>           Show or clear the which-resolution cache
+            store [list|gc]               Show the archive store, or evict the least recently used
+                    [--store <dir>]       entries until it's below JDKMAN_STORE_MAX_SIZE (10g)
+                    [--max-size <size>]
+            cds [list|clear]              Show or remove the class data sharing archives used by the shims
+            cds build                     Dump a base archive for each jdk which doesn't ship one
+                    [--parallelism <n>]
+                    [--timeout <seconds>]
+            cds train [--] <java args>    Run java in the current directory and archive the loaded classes,
+                                          `java` launched by the shims in the directory uses the archive
+            stats [clear]                 Show or clear the local invocation statistics
+            serve                         Run a resident resolver for `which` on a unix domain socket
             init [sh|pwsh]                Print shell script to eval
+                    [--shims script|symlink]
         """.trim();
-    private static final Map<String, Action> ACTIONS = new HashMap<>() {{
-        var ls = new ListAction();
-        put("list", ls);
-        put("ls", ls);
-        put("add", new AddAction());
-        var rm = new RemoveAction();
-        put("remove", rm);
-        put("rm", rm);
-        put("default", new DefaultAction());
-        put("refresh", new RefreshAction());
-        put("which", new WhichAction());
-        put("init", new InitAction());
-    }};
+    // actions are created on demand, so that only the classes of the executed action are loaded
+    private static final Set<String> SYSTEM_ACTIONS = Set.of(
+        "list", "ls", "add", "discover", "install", "dedup", "remove", "rm", "default", "refresh");
+
+    private static Action getAction(String action) {
+        return switch (action) {
+            case "list", "ls" -> new ListAction();
+            case "add" -> new AddAction();
+            case "discover" -> new DiscoverAction();
+            case "install" -> new InstallAction();
+            case "dedup" -> new DedupAction();
+            case "remove", "rm" -> new RemoveAction();
+            case "default" -> new DefaultAction();
+            case "refresh" -> new RefreshAction();
+            case "which" -> new WhichAction();
+            case "cache" -> new CacheAction();
+            case "store" -> new StoreAction();
+            case "cds" -> new CdsAction();
+            case "stats" -> new StatsAction();
+            case "serve" -> new ServeAction();
+            case "init" -> new InitAction();
+            default -> null;
+        };
+    }
 
     public static void main(String[] args) {
+        StatsRecorder.start();
+        // shims cannot pass options to jdkman, so the env variable can be used as well
+        if ("1".equals(System.getenv("JDKMAN_TRACE"))) {
+            Trace.enablePrinting();
+        }
+        var tool = ToolLauncher.invokedTool();
+        if (tool != null) {
+            silenceLogs();
+            StatsRecorder.action(STR."exec:\{tool}");
+            var exitCode = ToolLauncher.launch(tool, args);
+            exit(exitCode);
+            return;
+        }
+        if (args.length != 0 && args[0].equals("--trace")) {
+            Trace.enablePrinting();
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        if (args.length != 0 && args[0].equals("--system")) {
+            SystemRegistry.setEditing();
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        if (args.length != 0 && args[0].equals("which") && !SystemRegistry.isEditing()) {
+            silenceLogs();
+            StatsRecorder.action("which");
+            var exitCode = WhichAction.fastPath(Arrays.copyOfRange(args, 1, args.length));
+            if (exitCode != -1) {
+                exit(exitCode);
+                return;
+            }
+            Logger.logDispatcher.removeLogHandler(SILENT_LOG_HANDLER);
+        }
         Logger.logDispatcher.removeLogHandler(Logger.stdoutLogHandler);
         Logger.logDispatcher.addLogHandler(CommentLogHandler.get());
+        StatsRecorder.action(args.length == 0 ? "help" : args[0]);
         var exitCode = main0(args);
+        exit(exitCode);
+    }
+
+    // the stdout of the fast paths is read by the shells and the shims (JAVA_HOME, the token and the tool options),
+    // so the logs are dropped there, the normal path reports the problems if the fast path gives up
+    private static final LogHandler SILENT_LOG_HANDLER = _ -> {
+    };
+
+    private static void silenceLogs() {
+        Logger.logDispatcher.removeLogHandler(Logger.stdoutLogHandler);
+        Logger.logDispatcher.addLogHandler(SILENT_LOG_HANDLER);
+    }
+
+    private static void exit(int exitCode) {
+        StatsRecorder.finish(exitCode);
+        Trace.print();
         System.exit(exitCode);
     }
 
@@ -68,48 +174,95 @@ public class Main {
                 return version(options);
         }
 
-        var jdkmanFile = new File(Config.workingDirectoryFile("jdkman"));
-        JDKManConfig config;
-        if (jdkmanFile.exists()) {
-            String str;
-            try {
-                str = Files.readString(jdkmanFile.toPath());
-            } catch (IOException e) {
-                Logger.error(LogType.FILE_ERROR, "failed to read jdkman config file", e);
-                return 1;
-            }
-            try {
-                config = JSON.deserialize(str, JDKManConfig.rule);
-            } catch (Exception e) {
-                Logger.error(LogType.INVALID_EXTERNAL_DATA, "invalid jdkman config file", e);
-                return 1;
-            }
-        } else {
-            config = new JDKManConfig();
-            Logger.logDispatcher.removeLogHandler(CommentLogHandler.get());
-            try {
-                try {
-                    IOUtils.writeFileWithBackup(jdkmanFile.getAbsolutePath(), config.toJson().pretty());
-                } finally {
-                    Logger.logDispatcher.addLogHandler(CommentLogHandler.get());
-                }
-            } catch (Exception e) {
-                Logger.error(LogType.FILE_ERROR, "failed to create jdkman config file", e);
-                return 1;
-            }
-        }
-
-        var act = ACTIONS.get(action);
+        var act = getAction(action);
         if (act == null) {
             System.out.println(STR."unknown action `\{action}`");
             return 1;
         }
+        if (SystemRegistry.isEditing() && !SYSTEM_ACTIONS.contains(action)) {
+            System.out.println(STR."`\{action}` cannot be used with --system");
+            return 1;
+        }
         var err = act.validate(options);
         if (err != null) {
             System.out.println(err);
             return 1;
         }
+
+        var jdkmanFile = SystemRegistry.isEditing() ? SystemRegistry.configFile() : Utils.jdkmanConfigFile();
+        FileChannel lock = null;
+        try {
+            // the config file is created while holding the lock as well,
+            // otherwise it might overwrite a config which is just persisted by another process
+            if (act.modifiesConfig() || !jdkmanFile.exists()) {
+                var phase = Trace.begin("config.lock");
+                try {
+                    lock = Utils.lockConfig(jdkmanFile);
+                } catch (IOException e) {
+                    Logger.error(LogType.FILE_ERROR, "failed to lock jdkman config file", e);
+                    return 1;
+                }
+                phase.end();
+            }
+            var config = readOrCreateConfig(jdkmanFile);
+            if (config == null) {
+                return 1;
+            }
+            if (!act.modifiesConfig() && lock != null) {
+                unlock(lock);
+                lock = null;
+            }
+            return execute(jdkmanFile, config, act, action, options);
+        } finally {
+            if (lock != null) {
+                unlock(lock);
+            }
+        }
+    }
+
+    private static void unlock(FileChannel lock) {
+        try {
+            lock.close();
+        } catch (IOException e) {
+            Logger.warn(LogType.FILE_ERROR, "failed to release jdkman config lock", e);
+        }
+    }
+
+    private static JDKManConfig readOrCreateConfig(File jdkmanFile) {
+        if (!jdkmanFile.exists()) {
+            var config = new JDKManConfig();
+            try {
+                Utils.writeConfig(jdkmanFile, config);
+            } catch (IOException e) {
+                Logger.error(LogType.FILE_ERROR, "failed to create jdkman config file", e);
+                return null;
+            }
+            return config;
+        }
+        String str;
+        var phase = Trace.begin("config.read");
+        try {
+            str = Files.readString(jdkmanFile.toPath());
+        } catch (IOException e) {
+            Logger.error(LogType.FILE_ERROR, "failed to read jdkman config file", e);
+            return null;
+        }
+        phase.end();
+        phase = Trace.begin("config.deserialize");
+        JDKManConfig config;
+        try {
+            config = JSON.deserialize(str, JDKManConfig.rule);
+        } catch (Exception e) {
+            Logger.error(LogType.INVALID_EXTERNAL_DATA, "invalid jdkman config file", e);
+            return null;
+        }
+        phase.end();
+        return config;
+    }
+
+    private static int execute(File jdkmanFile, JDKManConfig config, Action act, String action, String[] options) {
         boolean isModified;
+        var phase = Trace.begin(STR."execute \{action}");
         try {
             isModified = act.execute(config, options);
         } catch (ErrorResult e) {
@@ -119,19 +272,36 @@ public class Main {
             Logger.error(LogType.SYS_ERROR, STR."failed to execute \{action} \{Arrays.toString(options)}", e);
             return 1;
         }
+        phase.end();
 
         if (isModified) {
-            Logger.logDispatcher.removeLogHandler(CommentLogHandler.get());
+            phase = Trace.begin("config.write");
             try {
-                try {
-                    IOUtils.writeFileWithBackup(jdkmanFile.getAbsolutePath(), config.toJson().pretty());
-                } finally {
-                    Logger.logDispatcher.addLogHandler(CommentLogHandler.get());
-                }
-            } catch (Exception e) {
+                Utils.writeConfig(jdkmanFile, config);
+            } catch (IOException e) {
                 Logger.error(LogType.FILE_ERROR, "failed to persist jdkman config", e);
                 return 1;
             }
+            phase.end();
+            // for the system registry, this is the prebuilt index mapped by all users
+            phase = Trace.begin("snapshot.update");
+            RegistrySnapshot.update(jdkmanFile, config);
+            phase.end();
+            if (SystemRegistry.isEditing()) {
+                // shims are per-user, `init` syncs them when it finds the system registry changed, see ShimSync
+                SystemRegistry.makeReadable(jdkmanFile);
+            } else {
+                phase = Trace.begin("shims.sync");
+                ShimSync.syncIfInitialized(config);
+                phase.end();
+            }
+            try {
+                // the fingerprint of the config file is checked as well,
+                // but it might not change if two writes happen within the mtime granularity
+                ResolutionCache.get().clear();
+            } catch (IOException e) {
+                Logger.warn(LogType.FILE_ERROR, "failed to clear resolution cache", e);
+            }
         }
         return 0;
     }
@@ -0,0 +1,108 @@
+package io.vproxy.jdkman;
+
+import io.vproxy.jdkman.action.WhichAction;
+import io.vproxy.jdkman.entity.RegistrySnapshot;
+import io.vproxy.jdkman.trace.Trace;
+import io.vproxy.jdkman.util.StatsRecorder;
+import io.vproxy.jdkman.util.Utils;
+import org.graalvm.nativeimage.ProcessProperties;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+// multi-call mode: the native jdkman binary is linked as `java`, `javac`, ... in jdkman-scripts (see ShimSync).
+// it's dispatched by argv[0], resolves the jdk in-process, then replaces itself with the tool by execve,
+// so neither a shell nor a nested `jdkman which` process is started
+public class ToolLauncher {
+    private ToolLauncher() {
+    }
+
+    // argv[0] is only available in the native image, and the jar cannot be linked as a tool anyway.
+    // the graalvm classes are not on the classpath of the jar, so they must not be touched when running on jvm
+    private static boolean isNativeImage() {
+        return "runtime".equals(System.getProperty("org.graalvm.nativeimage.imagecode"));
+    }
+
+    // returns the path of the running native binary, or null if not running as a native image
+    public static String nativeExecutable() {
+        if (!isNativeImage()) {
+            return null;
+        }
+        return ProcessHandle.current().info().command().orElse(null);
+    }
+
+    // returns the tool name if invoked through a shim symlink, otherwise null
+    public static String invokedTool() {
+        if (!isNativeImage()) {
+            return null;
+        }
+        var argv0 = ProcessProperties.getArgumentVectorProgramName();
+        if (argv0 == null || argv0.isEmpty()) {
+            return null;
+        }
+        var name = Path.of(argv0).getFileName();
+        if (name == null || name.toString().startsWith("jdkman")) {
+            return null;
+        }
+        // the executable is resolved through the links, so it's invoked directly if the names are the same
+        var self = nativeExecutable();
+        if (self != null && Path.of(self).getFileName().toString().equals(name.toString())) {
+            return null;
+        }
+        return name.toString();
+    }
+
+    // only returns on failure
+    public static int launch(String tool, String[] args) {
+        File dir;
+        try {
+            dir = Utils.currentDirectory();
+        } catch (IOException e) {
+            System.err.println(STR."jdkman: failed to retrieve current directory: \{e}");
+            return 1;
+        }
+        var configFile = Utils.jdkmanConfigFile();
+        var resolution = WhichAction.resolveSilently(dir, configFile, tool);
+        if (resolution == null && RegistrySnapshot.refresh(configFile)) {
+            // the snapshot was outdated, e.g. the config is edited by hand
+            resolution = WhichAction.resolveSilently(dir, configFile, tool);
+        }
+        if (resolution == null) {
+            System.err.println(STR."jdkman: failed to resolve JAVA_HOME in \{dir}, run `jdkman which` for details");
+            return 1;
+        }
+        var home = resolution.home();
+        if (home.isEmpty()) {
+            System.err.println(STR."jdkman: no jdk found for `\{tool}` in \{dir}");
+            return 127;
+        }
+        var executable = Path.of(home, "bin", tool);
+        if (!Files.isExecutable(executable)) {
+            System.err.println(STR."jdkman: \{executable} is not executable");
+            return 127;
+        }
+
+        // the cds archives of the jdk and the project profile, see CdsCache and ToolOptions
+        var options = WhichAction.toolArguments(home, tool, dir, resolution.toolOptions());
+        var argv = new String[1 + options.size() + args.length];
+        argv[0] = executable.toString();
+        for (int i = 0; i < options.size(); ++i) {
+            argv[1 + i] = options.get(i);
+        }
+        System.arraycopy(args, 0, argv, 1 + options.size(), args.length);
+        var env = new HashMap<>(System.getenv());
+        env.put("JAVA_HOME", home);
+        // nothing runs after execve, so the record is written before it
+        StatsRecorder.finish(0);
+        Trace.print();
+        try {
+            ProcessProperties.exec(executable, argv, env);
+        } catch (RuntimeException e) {
+            System.err.println(STR."jdkman: failed to execute \{executable}: \{e.getMessage()}");
+        }
+        return 126;
+    }
+}
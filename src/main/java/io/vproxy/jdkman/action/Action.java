@@ -6,4 +6,10 @@ public interface Action {
     String validate(String[] options);
 
     boolean execute(JDKManConfig config, String[] options) throws Exception;
+
+    // actions which might modify the config are executed while holding the config lock,
+    // from reading the config to persisting it, so that concurrent modifications are not lost
+    default boolean modifiesConfig() {
+        return false;
+    }
 }
@@ -0,0 +1,73 @@
+package io.vproxy.jdkman.action;
+
+import io.vproxy.jdkman.entity.JDKManConfig;
+import io.vproxy.jdkman.util.ResolutionCache;
+import io.vproxy.jdkman.util.Utils;
+
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+import java.util.Set;
+
+public class CacheAction implements Action {
+    @Override
+    public String validate(String[] options) {
+        if (options.length == 0) {
+            return "missing sub-action for `cache`: stats|clear";
+        }
+        if (options.length > 1) {
+            return STR."unknown options for `cache`: \{Arrays.toString(options)}";
+        }
+        if (!Set.of("stats", "clear").contains(options[0])) {
+            return STR."the first option must be 'stats|clear': \{options[0]}";
+        }
+        return null;
+    }
+
+    @Override
+    public boolean execute(JDKManConfig config, String[] options) throws Exception {
+        var cache = ResolutionCache.get();
+        if (options[0].equals("clear")) {
+            cache.clear();
+            System.out.println("resolution cache cleared");
+            return false;
+        }
+
+        var configFile = Utils.jdkmanConfigFile();
+        var entries = cache.load();
+        int valid = 0;
+        long oldest = Long.MAX_VALUE;
+        long newest = 0;
+        for (var e : entries.values()) {
+            if (e.isValid(configFile)) {
+                ++valid;
+            }
+            oldest = Math.min(oldest, e.lastUsed);
+            newest = Math.max(newest, e.lastUsed);
+        }
+        long size = 0;
+        if (Files.isDirectory(cache.getDir())) {
+            try (var stream = Files.newDirectoryStream(cache.getDir())) {
+                for (var f : stream) {
+                    try {
+                        size += Files.size(f);
+                    } catch (NoSuchFileException _) {
+                        // evicted concurrently
+                    }
+                }
+            }
+        }
+        System.out.println(STR."dir:      \{cache.getDir().toAbsolutePath()}");
+        System.out.println(STR."size:     \{size} bytes");
+        System.out.println(STR."capacity: \{cache.getCapacity()}");
+        System.out.println(STR."entries:  \{entries.size()}");
+        System.out.println(STR."valid:    \{valid}");
+        System.out.println(STR."stale:    \{entries.size() - valid}");
+        if (!entries.isEmpty()) {
+            var now = System.currentTimeMillis();
+            System.out.println(STR."oldest:   \{(now - oldest) / 1000}s ago");
+            System.out.println(STR."newest:   \{(now - newest) / 1000}s ago");
+        }
+        return false;
+    }
+}
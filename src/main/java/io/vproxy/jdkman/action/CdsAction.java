@@ -0,0 +1,301 @@
+package io.vproxy.jdkman.action;
+
+import io.vproxy.base.util.LogType;
+import io.vproxy.base.util.Logger;
+import io.vproxy.base.util.display.TableBuilder;
+import io.vproxy.jdkman.entity.JDKInfo;
+import io.vproxy.jdkman.entity.JDKManConfig;
+import io.vproxy.jdkman.ex.ErrorResult;
+import io.vproxy.jdkman.probe.ProberChain;
+import io.vproxy.jdkman.util.CdsCache;
+import io.vproxy.jdkman.util.SystemRegistry;
+import io.vproxy.jdkman.util.Utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+// `cds list`: show the archives of the registered jdks
+// `cds build`: dump a base archive for each jdk without a default one, and remove the outdated archives
+// `cds train <java args...>`: run java in the current directory and archive the loaded classes for it
+// `cds clear`: remove all archives
+public class CdsAction implements Action {
+    private static final long DEFAULT_DUMP_TIMEOUT_MILLIS = 120_000;
+
+    private static class Options {
+        String command = "list";
+        int parallelism = ProberChain.DEFAULT_PARALLELISM;
+        long timeoutMillis = DEFAULT_DUMP_TIMEOUT_MILLIS;
+        final List<String> javaArgs = new ArrayList<>();
+
+        String parse(String[] options) {
+            if (options.length == 0) {
+                return null;
+            }
+            command = options[0];
+            switch (command) {
+                case "list", "clear" -> {
+                    if (options.length != 1) {
+                        return STR."unknown options for `cds \{command}`: \{Arrays.toString(options)}";
+                    }
+                    return null;
+                }
+                case "train" -> {
+                    var from = options.length > 1 && options[1].equals("--") ? 2 : 1;
+                    javaArgs.addAll(Arrays.asList(options).subList(from, options.length));
+                    if (javaArgs.isEmpty()) {
+                        return "missing java arguments for `cds train`, e.g. `cds train -jar app.jar`";
+                    }
+                    return null;
+                }
+                case "build" -> {
+                }
+                default -> {
+                    return STR."unknown options for `cds`: \{command}";
+                }
+            }
+            for (int i = 1; i < options.length; ++i) {
+                var o = options[i];
+                if (!o.equals("--parallelism") && !o.equals("--timeout")) {
+                    return STR."unknown options for `cds build`: \{o}";
+                }
+                if (i + 1 >= options.length) {
+                    return STR."missing value for \{o}";
+                }
+                var v = options[++i];
+                if (!Utils.isNonNegativeInteger(v) || Integer.parseInt(v) == 0) {
+                    return STR."invalid value for \{o}: \{v}, expecting a positive integer";
+                }
+                var n = Integer.parseInt(v);
+                if (o.equals("--parallelism")) {
+                    parallelism = n;
+                } else {
+                    timeoutMillis = n * 1000L;
+                }
+            }
+            return null;
+        }
+    }
+
+    @Override
+    public String validate(String[] options) {
+        return new Options().parse(options);
+    }
+
+    @Override
+    public boolean execute(JDKManConfig config, String[] options) throws Exception {
+        var opts = new Options();
+        opts.parse(options);
+        switch (opts.command) {
+            case "build" -> build(jdks(config), opts);
+            case "train" -> train(config, opts.javaArgs);
+            case "clear" -> {
+                Utils.deleteRecursively(CdsCache.dir());
+                System.out.println("cds archives cleared");
+            }
+            default -> list(jdks(config));
+        }
+        return false;
+    }
+
+    // users may build archives for the system jdks as well, they are stored in the user's own directory
+    private static List<JDKInfo> jdks(JDKManConfig config) {
+        var jdks = new ArrayList<>(config.getJdks());
+        var system = SystemRegistry.config();
+        if (system != null) {
+            jdks.addAll(system.getJdks());
+        }
+        return jdks;
+    }
+
+    private static String baseState(JDKInfo jdk) {
+        if (CdsCache.hasDefaultArchive(jdk.getHome())) {
+            return "default";
+        }
+        if (Files.isRegularFile(CdsCache.buildDir(jdk.getHome()).resolve(CdsCache.BASE_ARCHIVE))) {
+            return "built";
+        }
+        if (jdk.getMajorVersion() < CdsCache.MIN_BASE_VERSION) {
+            return "unsupported";
+        }
+        return "missing";
+    }
+
+    private static void list(List<JDKInfo> jdks) throws IOException {
+        var table = new TableBuilder();
+        table.tr().td("id").td("version").td("base archive").td("project archives").td("size");
+        for (var jdk : jdks) {
+            var build = CdsCache.buildDir(jdk.getHome());
+            var projects = new ArrayList<Path>();
+            var projectsDir = build.resolve(CdsCache.PROJECTS);
+            if (Files.isDirectory(projectsDir)) {
+                try (var stream = Files.newDirectoryStream(projectsDir, "*.jsa")) {
+                    stream.forEach(projects::add);
+                }
+            }
+            long size = 0;
+            var base = build.resolve(CdsCache.BASE_ARCHIVE);
+            if (Files.isRegularFile(base)) {
+                size += Files.size(base);
+            }
+            for (var p : projects) {
+                size += Files.size(p);
+            }
+            table.tr().td(jdk.getId()).td(jdk.getFullVersion()).td(baseState(jdk))
+                .td("" + projects.size()).td(String.format("%.1fMiB", size / 1024.0 / 1024.0));
+        }
+        System.out.println(table.toString().trim());
+    }
+
+    private static void build(List<JDKInfo> jdks, Options opts) throws Exception {
+        removeOutdated(jdks);
+
+        var toBuild = new ArrayList<JDKInfo>();
+        for (var jdk : jdks) {
+            if (baseState(jdk).equals("missing")) {
+                toBuild.add(jdk);
+            }
+        }
+        var errors = new Exception[toBuild.size()];
+        var semaphore = new Semaphore(opts.parallelism);
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < toBuild.size(); ++i) {
+                final int idx = i;
+                var jdk = toBuild.get(i);
+                executor.submit(() -> {
+                    try {
+                        semaphore.acquire();
+                    } catch (InterruptedException e) {
+                        errors[idx] = e;
+                        return;
+                    }
+                    try {
+                        dump(jdk, opts.timeoutMillis);
+                    } catch (Exception e) {
+                        errors[idx] = e;
+                    } finally {
+                        semaphore.release();
+                    }
+                });
+            }
+        }
+        var failed = 0;
+        for (int i = 0; i < toBuild.size(); ++i) {
+            var jdk = toBuild.get(i);
+            if (errors[i] == null) {
+                Logger.alert(STR."cds archive is built for \{jdk.getId()} (\{jdk.getHome()})");
+                continue;
+            }
+            ++failed;
+            Logger.error(LogType.ALERT, STR."failed to build cds archive for \{jdk.getId()} (\{jdk.getHome()})", errors[i]);
+        }
+        list(jdks);
+        if (failed != 0) {
+            throw new ErrorResult(STR."\{failed} of \{toBuild.size()} archive(s) failed to build");
+        }
+    }
+
+    // archives of the unregistered homes, and of the previous content of the homes
+    private static void removeOutdated(List<JDKInfo> jdks) throws IOException {
+        var root = CdsCache.dir();
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        var current = new HashMap<Path, Path>();
+        for (var jdk : jdks) {
+            current.put(CdsCache.jdkDir(jdk.getHome()), CdsCache.buildDir(jdk.getHome()));
+        }
+        try (var stream = Files.newDirectoryStream(root)) {
+            for (var jdkDir : stream) {
+                var build = current.get(jdkDir);
+                if (build == null) {
+                    assert Logger.lowLevelDebug(STR."removing cds archives of unregistered jdk: \{jdkDir}");
+                    Utils.deleteRecursively(jdkDir);
+                    continue;
+                }
+                try (var builds = Files.newDirectoryStream(jdkDir, Files::isDirectory)) {
+                    for (var b : builds) {
+                        if (!b.equals(build)) {
+                            assert Logger.lowLevelDebug(STR."removing outdated cds archives: \{b}");
+                            Utils.deleteRecursively(b);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void dump(JDKInfo jdk, long timeoutMillis) throws Exception {
+        var build = prepare(jdk);
+        var tmp = build.resolve(STR.".\{CdsCache.BASE_ARCHIVE}.\{ProcessHandle.current().pid()}.tmp");
+        try {
+            var result = Utils.execute(List.of(Path.of(jdk.getHome(), "bin", "java").toString(),
+                "-Xshare:dump", STR."-XX:SharedArchiveFile=\{tmp}", "-version"), timeoutMillis);
+            if (result.exitCode() != 0 || !Files.isRegularFile(tmp)) {
+                throw new ErrorResult(STR."""
+                    -Xshare:dump exited with \{result.exitCode()}
+                    stdout:
+                    \{result.stdout()}
+                    stderr:
+                    \{result.stderr()}""");
+            }
+            Files.move(tmp, build.resolve(CdsCache.BASE_ARCHIVE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static Path prepare(JDKInfo jdk) throws IOException {
+        var build = CdsCache.buildDir(jdk.getHome());
+        Files.createDirectories(build);
+        Utils.writeFileAtomically(CdsCache.jdkDir(jdk.getHome()).resolve("jdk"),
+            STR."\{jdk.getId()} \{jdk.getHome()}\n".getBytes(StandardCharsets.UTF_8));
+        return build;
+    }
+
+    // the training run inherits stdio, so it's the same as running the program itself
+    private static void train(JDKManConfig config, List<String> javaArgs) throws Exception {
+        var dir = Utils.currentDirectory();
+        var jdk = Utils.currentVersion(config);
+        if (jdk == null) {
+            throw new ErrorResult(STR."no jdk found for \{dir}");
+        }
+        if (jdk.getMajorVersion() < CdsCache.MIN_DYNAMIC_VERSION) {
+            throw new ErrorResult(STR."\{jdk.getId()} does not support dynamic cds archives, jdk \{CdsCache.MIN_DYNAMIC_VERSION}+ is required");
+        }
+        var build = prepare(jdk);
+        var archive = CdsCache.projectArchive(build, dir);
+        Files.createDirectories(archive.getParent());
+        var tmp = archive.resolveSibling(STR.".\{archive.getFileName()}.\{ProcessHandle.current().pid()}.tmp");
+
+        var command = new ArrayList<String>();
+        command.add(Path.of(jdk.getHome(), "bin", "java").toString());
+        var base = build.resolve(CdsCache.BASE_ARCHIVE);
+        if (Files.isRegularFile(base)) {
+            command.add(STR."-XX:SharedArchiveFile=\{base}");
+        }
+        command.add(STR."-XX:ArchiveClassesAtExit=\{tmp}");
+        command.addAll(javaArgs);
+        try {
+            var exitCode = new ProcessBuilder(command).inheritIO().start().waitFor();
+            if (exitCode != 0) {
+                throw new ErrorResult(STR."the training run exited with \{exitCode}, no archive is created");
+            }
+            if (!Files.isRegularFile(tmp)) {
+                throw new ErrorResult("the training run did not create an archive, run it with -Xlog:cds for details");
+            }
+            Files.move(tmp, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        Utils.writeFileAtomically(archive.resolveSibling(archive.getFileName().toString().replace(".jsa", ".txt")),
+            STR."\{dir.getAbsolutePath()}\n\{String.join(" ", javaArgs)}\n".getBytes(StandardCharsets.UTF_8));
+        System.out.println(STR."cds archive for \{dir} is created: \{archive} (\{Files.size(archive) / 1024}KiB)");
+        System.out.println("`java` launched by the jdkman shims in the directory uses it automatically");
+    }
+}
@@ -0,0 +1,107 @@
+package io.vproxy.jdkman.action;
+
+import io.vproxy.base.util.display.TableBuilder;
+import io.vproxy.jdkman.entity.JDKManConfig;
+import io.vproxy.jdkman.ex.ErrorResult;
+import io.vproxy.jdkman.probe.ProberChain;
+import io.vproxy.jdkman.util.Dedup;
+import io.vproxy.jdkman.util.SystemRegistry;
+import io.vproxy.jdkman.util.Utils;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+public class DedupAction implements Action {
+    private static class Options {
+        boolean dryRun = false;
+        int parallelism = ProberChain.DEFAULT_PARALLELISM;
+
+        String parse(String[] options) {
+            for (int i = 0; i < options.length; ++i) {
+                var o = options[i];
+                if (o.equals("--dry-run")) {
+                    dryRun = true;
+                    continue;
+                }
+                if (!o.equals("--parallelism")) {
+                    return STR."unknown options for `dedup`: \{o}";
+                }
+                if (i + 1 >= options.length) {
+                    return STR."missing value for \{o}";
+                }
+                var v = options[++i];
+                if (!Utils.isNonNegativeInteger(v) || Integer.parseInt(v) == 0) {
+                    return STR."invalid value for \{o}: \{v}, expecting a positive integer";
+                }
+                parallelism = Integer.parseInt(v);
+            }
+            return null;
+        }
+    }
+
+    @Override
+    public String validate(String[] options) {
+        return new Options().parse(options);
+    }
+
+    @SuppressWarnings("StringTemplateMigration")
+    @Override
+    public boolean execute(JDKManConfig config, String[] options) throws Exception {
+        var opts = new Options();
+        opts.parse(options);
+
+        var homes = new ArrayList<String>();
+        for (var jdk : config.getJdks()) {
+            homes.add(jdk.getHome());
+        }
+        if (homes.isEmpty()) {
+            System.out.println("no jdk registered");
+            return false;
+        }
+        // the manifest is kept next to the registry, so the system one is used with --system
+        var configFile = SystemRegistry.isEditing() ? SystemRegistry.configFile() : Utils.jdkmanConfigFile();
+        var manifest = new File(configFile.getParentFile(), "jdkman-dedup");
+        Dedup.Report report;
+        try (var channel = FileChannel.open(new File(configFile.getParentFile(), "jdkman-dedup.lock").toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (channel.tryLock() == null) {
+                throw new ErrorResult("another `jdkman dedup` is running");
+            }
+            report = new Dedup(opts.parallelism, opts.dryRun).run(homes, manifest);
+        }
+
+        var table = new TableBuilder();
+        table.tr().td("home").td("files").td(opts.dryRun ? "duplicates" : "linked")
+            .td(opts.dryRun ? "reclaimable" : "reclaimed").td("");
+        long total = 0;
+        var failed = 0;
+        for (var h : report.homes()) {
+            total += h.reclaimed;
+            failed += h.failed;
+            String note;
+            if (h.error != null) {
+                note = STR."failed: \{h.error}";
+            } else if (h.failed != 0) {
+                note = STR."\{h.failed} file(s) not linked";
+            } else {
+                note = h.cached ? "unchanged" : "";
+            }
+            table.tr().td(h.home).td("" + h.files).td("" + h.linked).td(mib(h.reclaimed)).td(note);
+        }
+        System.out.println(table.toString().trim());
+        System.out.println();
+        System.out.println(STR."hashed:         \{report.hashed()} file(s)");
+        System.out.println(STR."already shared: \{mib(report.shared())}");
+        System.out.println(STR."\{opts.dryRun ? "reclaimable:    " : "reclaimed:      "}\{mib(total)}");
+        if (failed != 0) {
+            throw new ErrorResult(STR."\{failed} file(s) could not be linked, see the warnings above");
+        }
+        return false;
+    }
+
+    private static String mib(long bytes) {
+        return String.format("%.1fMiB", bytes / 1024.0 / 1024.0);
+    }
+}
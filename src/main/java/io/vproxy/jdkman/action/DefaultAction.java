@@ -2,10 +2,16 @@ package io.vproxy.jdkman.action;
 
 import io.vproxy.jdkman.entity.JDKManConfig;
 import io.vproxy.jdkman.ex.ErrorResult;
+import io.vproxy.jdkman.util.SystemRegistry;
 
 import java.util.Arrays;
 
 public class DefaultAction implements Action {
+    @Override
+    public boolean modifiesConfig() {
+        return true;
+    }
+
     @Override
     public String validate(String[] options) {
         if (options.length == 0) {
@@ -26,6 +32,11 @@ public class DefaultAction implements Action {
                 return true;
             }
         }
+        // the user's default may refer to a system jdk, the system registry is not modified
+        if (SystemRegistry.find(uuid) != null) {
+            config.setDefaultJDK(uuid);
+            return true;
+        }
         throw new ErrorResult(STR."unable to find jdk with id \{uuid}");
     }
 }
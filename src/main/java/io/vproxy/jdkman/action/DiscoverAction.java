@@ -0,0 +1,220 @@
+package io.vproxy.jdkman.action;
+
+import io.vproxy.base.util.LogType;
+import io.vproxy.base.util.Logger;
+import io.vproxy.base.util.OS;
+import io.vproxy.base.util.display.TableBuilder;
+import io.vproxy.jdkman.entity.JDKInfo;
+import io.vproxy.jdkman.entity.JDKManConfig;
+import io.vproxy.jdkman.probe.ProberChain;
+import io.vproxy.jdkman.util.SystemRegistry;
+import io.vproxy.jdkman.util.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+
+public class DiscoverAction implements Action {
+    private static final int DEFAULT_DEPTH = 3;
+
+    private static class Options {
+        boolean dryRun = false;
+        int depth = DEFAULT_DEPTH;
+        int parallelism = ProberChain.DEFAULT_PARALLELISM;
+        long timeoutMillis = AddAction.DEFAULT_PROBE_TIMEOUT_MILLIS;
+        final List<String> roots = new ArrayList<>();
+
+        String parse(String[] options) {
+            for (int i = 0; i < options.length; ++i) {
+                var o = options[i];
+                if (o.equals("--dry-run")) {
+                    dryRun = true;
+                    continue;
+                }
+                if (!o.startsWith("--")) {
+                    roots.add(o);
+                    continue;
+                }
+                if (!o.equals("--depth") && !o.equals("--parallelism") && !o.equals("--timeout")) {
+                    return STR."unknown options for `discover`: \{o}";
+                }
+                if (i + 1 >= options.length) {
+                    return STR."missing value for \{o}";
+                }
+                var v = options[++i];
+                if (!Utils.isNonNegativeInteger(v)) {
+                    return STR."invalid value for \{o}: \{v}, expecting a non-negative integer";
+                }
+                var n = Integer.parseInt(v);
+                if (n == 0 && !o.equals("--depth")) {
+                    return STR."invalid value for \{o}: \{v}, expecting a positive integer";
+                }
+                switch (o) {
+                    case "--depth" -> depth = n;
+                    case "--parallelism" -> parallelism = n;
+                    default -> timeoutMillis = n * 1000L;
+                }
+            }
+            if (roots.isEmpty()) {
+                roots.addAll(defaultRoots());
+            }
+            return null;
+        }
+    }
+
+    private static List<String> defaultRoots() {
+        var home = io.vproxy.base.util.Utils.homedir();
+        if (OS.isWindows()) {
+            return List.of(
+                "C:\\Program Files\\Java",
+                "C:\\Program Files\\Eclipse Adoptium",
+                Path.of(home, ".jdks").toString());
+        }
+        if (OS.isMac()) {
+            return List.of(
+                "/Library/Java/JavaVirtualMachines",
+                Path.of(home, "Library", "Java", "JavaVirtualMachines").toString(),
+                Path.of(home, ".sdkman", "candidates", "java").toString(),
+                Path.of(home, ".jdks").toString());
+        }
+        return List.of(
+            "/usr/lib/jvm",
+            "/opt",
+            Path.of(home, ".sdkman", "candidates", "java").toString(),
+            Path.of(home, ".jdks").toString());
+    }
+
+    @Override
+    public boolean modifiesConfig() {
+        return true;
+    }
+
+    @Override
+    public String validate(String[] options) {
+        return new Options().parse(options);
+    }
+
+    @Override
+    public boolean execute(JDKManConfig config, String[] options) throws Exception {
+        var opts = new Options();
+        opts.parse(options);
+
+        var registered = new HashSet<String>();
+        for (var jdk : config.getJdks()) {
+            registered.add(jdk.getHome());
+        }
+        // system jdks are never probed again by users
+        var system = SystemRegistry.config();
+        if (system != null) {
+            for (var jdk : system.getJdks()) {
+                registered.add(jdk.getHome());
+            }
+        }
+
+        // walk the roots in parallel, the same root given twice (e.g. through a symlink) is walked once.
+        // every root has its own visited set, so what a walk finds doesn't depend on the timing of the others.
+        // homes are collected by canonical path so that symlinks like /usr/lib/jvm/default-java are not added twice,
+        // and the set is sorted to keep the result deterministic
+        var roots = new TreeSet<String>();
+        for (var root : opts.roots) {
+            try {
+                roots.add(new File(root).getCanonicalPath());
+            } catch (IOException e) {
+                assert Logger.lowLevelDebug(STR."failed to retrieve canonical path of \{root}: \{e}");
+            }
+        }
+        var found = new ConcurrentSkipListSet<String>();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (var root : roots) {
+                executor.submit(() -> walk(new File(root), opts.depth, new HashSet<>(), found));
+            }
+        }
+        var homes = new ArrayList<String>();
+        for (var home : found) {
+            if (registered.contains(home)) {
+                assert Logger.lowLevelDebug(STR."\{home} is already registered");
+                continue;
+            }
+            homes.add(home);
+        }
+        if (homes.isEmpty()) {
+            System.out.println("no new jdk found");
+            return false;
+        }
+
+        var outcomes = ProberChain.get().probeAll(homes, opts.parallelism, opts.timeoutMillis);
+        var added = new ArrayList<JDKInfo>();
+        for (var outcome : outcomes) {
+            if (outcome.result() == null) {
+                Logger.error(LogType.ALERT, STR."failed to probe jdk: \{outcome.javaHome()}", outcome.error());
+                continue;
+            }
+            added.add(outcome.result().jdk());
+        }
+
+        if (opts.dryRun) {
+            var table = new TableBuilder();
+            table.tr().td("home").td("version").td("vendor").td("prober");
+            for (var outcome : outcomes) {
+                if (outcome.result() == null) {
+                    continue;
+                }
+                var jdk = outcome.result().jdk();
+                table.tr().td(jdk.getHome()).td(jdk.getFullVersion())
+                    .td(jdk.getImplementor() == null ? "" : jdk.getImplementor())
+                    .td(outcome.result().prober());
+            }
+            System.out.println(table.toString().trim());
+            return false;
+        }
+
+        AddAction.register(config, added);
+        for (var outcome : outcomes) {
+            if (outcome.result() != null) {
+                Logger.alert(STR."jdk \{outcome.javaHome()} is added (probed by \{outcome.result().prober()})");
+            }
+        }
+        return !added.isEmpty();
+    }
+
+    private static void walk(File dir, int depth, Set<String> visited, Set<String> found) {
+        String canonical;
+        try {
+            canonical = dir.getCanonicalPath();
+        } catch (IOException e) {
+            assert Logger.lowLevelDebug(STR."failed to retrieve canonical path of \{dir}: \{e}");
+            return;
+        }
+        if (!visited.add(canonical)) {
+            return;
+        }
+        if (!dir.isDirectory()) {
+            return;
+        }
+        if (isJavaHome(dir)) {
+            found.add(canonical);
+            // no need to go into a java home
+            return;
+        }
+        if (depth == 0) {
+            return;
+        }
+        var children = dir.listFiles(File::isDirectory);
+        if (children == null) {
+            return;
+        }
+        for (var child : children) {
+            walk(child, depth - 1, visited, found);
+        }
+    }
+
+    private static boolean isJavaHome(File dir) {
+        if (!new File(dir, "release").isFile()) {
+            return false;
+        }
+        return Utils.validateJavaHome(dir.getAbsolutePath()) == null;
+    }
+}
@@ -3,59 +3,40 @@ package io.vproxy.jdkman.action;
 import io.vproxy.base.util.LogType;
 import io.vproxy.base.util.Logger;
 import io.vproxy.base.util.OS;
-import io.vproxy.base.util.Utils;
 import io.vproxy.jdkman.Main;
+import io.vproxy.jdkman.ToolLauncher;
 import io.vproxy.jdkman.entity.JDKManConfig;
 import io.vproxy.jdkman.ex.ErrorResult;
-import io.vproxy.jdkman.res.ResConsts;
+import io.vproxy.jdkman.util.ShimSync;
+import io.vproxy.jdkman.util.Utils;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.Set;
 
 public class InitAction implements Action {
-    private static final Set<String> EXECUTABLES = new HashSet<>() {{
-        addAll(Arrays.asList(
-            "jar", "jarsigner", "java", "javac",
-            "javadoc", "javap", "jcmd", "jconsole",
-            "jdb", "jdeprscan", "jdeps", "jfr",
-            "jhsdb", "jimage", "jinfo", "jlink",
-            "jmap", "jmod", "jpackage", "jps",
-            "jrunscript", "jshell", "jstack",
-            "jstat", "jstatd", "jwebserver",
-            "keytool", "rmiregistry", "serialver"));
-        addAll(Arrays.asList(
-            "jaotc", "jpackager"
-        ));
-        addAll(Arrays.asList(
-            "appletviewer", "extcheck", "idlj",
-            "javafxpackager", "javah", "javapackager",
-            "jhat", "jjs", "jmc", "jsadebugd",
-            "jvisualvm", "native2ascii", "orbd",
-            "pack200", "policytool", "rmic", "rmid",
-            "schemagen", "servertool", "tnameserv",
-            "unpack200", "wsgen", "wsimport", "xjc"));
-        addAll(Arrays.asList(
-            "javaws", "jcontrol", "jweblauncher"
-        ));
-        addAll(Arrays.asList(
-            "jabswitch", "jaccessinspector", "jaccesswalker",
-            "javaw", "kinit", "klist", "ktab"
-        ));
-    }};
     private static final String VERSION_FILE = "version.txt";
+    private static final String INIT_SCRIPT_PREFIX = "init-";
 
     @Override
     public String validate(String[] options) {
-        if (options.length != 0 && options.length != 1) {
-            return STR."unknown options for `init`: \{Arrays.toString(options)}";
-        }
-        if (options.length > 0 && !Set.of("sh", "pwsh").contains(options[0])) {
-            return STR."the first option must be 'sh|pwsh': \{options[0]}";
+        for (int i = 0; i < options.length; ++i) {
+            switch (options[i]) {
+                case "sh", "pwsh" -> {
+                }
+                case "--shims" -> {
+                    if (i + 1 >= options.length || !Set.of("script", "symlink").contains(options[i + 1])) {
+                        return "--shims must be followed by 'script|symlink'";
+                    }
+                    ++i;
+                }
+                default -> {
+                    return STR."unknown options for `init`: \{Arrays.toString(options)}";
+                }
+            }
         }
         return null;
     }
@@ -68,10 +49,12 @@ public class InitAction implements Action {
     @Override
     public boolean execute(JDKManConfig config, String[] options) throws Exception {
         var shellType = OS.isWindows() ? ShellType.pwsh : ShellType.shell;
-        for (var o : options) {
-            switch (o) {
+        String shimMode = null;
+        for (int i = 0; i < options.length; ++i) {
+            switch (options[i]) {
                 case "sh" -> shellType = ShellType.shell;
                 case "pwsh" -> shellType = ShellType.pwsh;
+                case "--shims" -> shimMode = options[++i];
             }
         }
 
@@ -84,63 +67,51 @@ public class InitAction implements Action {
                 versionMatches = true;
             }
         }
+        if (shimMode != null) {
+            ShimSync.saveMode(jdkmanScriptDir, symlinkTarget(shimMode));
+        }
+        // init runs on every shell startup, the shims are only checked when jdkman is upgraded, the mode is switched,
+        // or the system registry is modified, otherwise they are synced when the user registry is modified, see ShimSync
+        if (!versionMatches || shimMode != null || ShimSync.systemRegistryChanged(jdkmanScriptDir)) {
+            syncShims(jdkmanScriptDir);
+            Files.writeString(versionFilePath, Main.VERSION);
+        }
 
-        for (var exe : EXECUTABLES) {
-            var suffix = "";
-            if (OS.isWindows()) {
-                suffix = ".exe"; // use jdkman-proxy binary
-            }
-            var path = Path.of(jdkmanScriptDir.getAbsolutePath(), exe + suffix);
-            var file = path.toFile();
-            if (file.exists()) {
-                if (!file.isFile()) {
-                    Logger.error(LogType.INVALID_EXTERNAL_DATA, STR."\{file} is not a valid file");
-                    continue;
-                }
-                if (versionMatches) {
-                    // no need to release the file because version matches
-                    continue;
-                }
-                if (OS.isWindows()) {
-                    // check file md5 for windows, because windows doesn't allow files to be deleted while they are running
-                    var md5 = io.vproxy.jdkman.util.Utils.fileMD5(file);
-                    if (md5.equals(ResConsts.MD5_JDKMAN_PROXY_WINDOWS_X86_64)) {
-                        // the file is the latest, no need to release it again
-                        continue;
-                    }
-                }
-                var ok = file.delete();
-                if (!ok) {
-                    Logger.error(LogType.FILE_ERROR, STR."failed to delete file: \{file}");
-                    continue;
-                }
-            }
-            var ok = file.createNewFile();
-            if (!ok) {
-                Logger.error(LogType.INVALID_EXTERNAL_DATA, STR."failed to create file: \{file}");
-                continue;
-            }
-
-            var scriptContent = getScriptContent(exe);
-            try (scriptContent; var fos = new FileOutputStream(file)) {
-                scriptContent.transferTo(fos);
-                //noinspection ResultOfMethodCallIgnored
-                file.setExecutable(true);
-            } catch (IOException e) {
-                Logger.error(LogType.FILE_ERROR, STR."failed to create file \{path}", e);
-            }
+        var initScript = initScript(jdkmanScriptDir, shellType);
+        if (shellType == ShellType.pwsh) {
+            System.out.println(STR.". '\{initScript.toString().replace("'", "''")}'");
+        } else {
+            System.out.println(STR."source '\{initScript.toString().replace("'", "'\\''")}'");
         }
 
-        Files.writeString(versionFilePath, Main.VERSION);
+        return false;
+    }
 
-        var scriptToEval = getScriptToEval(jdkmanScriptDir, shellType);
-        System.out.println(scriptToEval.trim());
+    // the symlinks are dispatched by argv[0], which only works with the native binary, see ToolLauncher
+    private static String symlinkTarget(String shimMode) throws ErrorResult {
+        if (!shimMode.equals("symlink")) {
+            return null;
+        }
+        if (OS.isWindows()) {
+            throw new ErrorResult("symlink shims are not supported on windows");
+        }
+        var target = ToolLauncher.nativeExecutable();
+        if (target == null) {
+            throw new ErrorResult("symlink shims require the native jdkman binary");
+        }
+        return target;
+    }
 
-        return false;
+    // the config might be modified by other processes after it's read, so read it again under the lock
+    private static void syncShims(File jdkmanScriptDir) throws IOException {
+        var configFile = Utils.jdkmanConfigFile();
+        try (var _ = Utils.lockConfig(configFile)) {
+            ShimSync.load(jdkmanScriptDir).sync(Utils.readConfig(configFile));
+        }
     }
 
     private File jdkmanScriptPathFile() throws ErrorResult {
-        var jdkmanScriptDir = Path.of(Utils.homedir(), "jdkman-scripts").toFile();
+        var jdkmanScriptDir = ShimSync.scriptDir();
         if (jdkmanScriptDir.exists()) {
             if (!jdkmanScriptDir.isDirectory()) {
                 throw new ErrorResult(STR."\{jdkmanScriptDir} is not a directory");
@@ -154,100 +125,116 @@ public class InitAction implements Action {
         return jdkmanScriptDir;
     }
 
-    private static InputStream getScriptContent(String exe) {
-        if (OS.isWindows()) {
-            // use jdkman-proxy
-            return InitAction.class.getResourceAsStream("/io/vproxy/jdkman/res/jdkman_proxy-windows-x86_64.exe");
-        } else {
-            // use shell scripts
-            return new ByteArrayInputStream(STR."""
-                    #!/bin/bash
-                    set -e
-                    export JAVA_HOME=`jdkman which`
-                    exec "$JAVA_HOME/bin/\{exe}" "$@"
-                    """.getBytes(StandardCharsets.UTF_8));
-        }
-    }
-
-    private static String getScriptToEval(File jdkmanScriptDir, ShellType shellType) throws ErrorResult {
+    // the script is generated into the script dir, named by the jdkman version and the content hash,
+    // so that it's only written when something changes, and the shell only needs to source it
+    private static Path initScript(File jdkmanScriptDir, ShellType shellType) throws ErrorResult {
+        String content;
+        String suffix;
         if (shellType == ShellType.pwsh) {
-            return buildPowershellEval(jdkmanScriptDir);
+            content = buildPowershellEval(jdkmanScriptDir);
+            suffix = ".ps1";
         } else {
-            return buildBashEval(jdkmanScriptDir);
+            content = buildBashEval(jdkmanScriptDir);
+            suffix = ".sh";
+        }
+        var bytes = content.getBytes(StandardCharsets.UTF_8);
+        var name = STR."\{INIT_SCRIPT_PREFIX}\{Main.VERSION}-\{Utils.md5(bytes).substring(0, 16)}\{suffix}";
+        var path = Path.of(jdkmanScriptDir.getAbsolutePath(), name);
+        if (Files.isRegularFile(path)) {
+            return path;
         }
-    }
-
-    private static String writeJDKManScriptDirPathToTmpFile(File jdkmanScriptDir) throws ErrorResult {
         try {
-            var file = File.createTempFile("jdkman-script-dir-path", ".txt");
-            Files.writeString(file.toPath(), jdkmanScriptDir.getAbsolutePath());
-            return file.getAbsolutePath();
+            Utils.writeFileAtomically(path, bytes);
         } catch (IOException e) {
-            throw new ErrorResult("failed to create temporary file for jdkman-script path", e);
+            Logger.error(LogType.FILE_ERROR, STR."failed to write \{path}", e);
+            throw new ErrorResult(STR."failed to write init script \{path}");
         }
+
+        // remove scripts generated by other versions or with other contents
+        var files = jdkmanScriptDir.listFiles();
+        if (files != null) {
+            for (var f : files) {
+                if (f.getName().startsWith(INIT_SCRIPT_PREFIX) && f.getName().endsWith(suffix) && !f.getName().equals(name)) {
+                    if (!f.delete()) {
+                        Logger.warn(LogType.FILE_ERROR, STR."failed to delete stale init script \{f}");
+                    }
+                }
+            }
+        }
+        return path;
     }
 
-    private static String buildBashEval(File jdkmanScriptDir) throws ErrorResult {
-        var jdkmanScriptDirPathTmpFile = writeJDKManScriptDirPathToTmpFile(jdkmanScriptDir);
+    private static String buildBashEval(File jdkmanScriptDir) {
         return STR."""
-                JDKMAN_SCRIPT_PATH=`cat \{jdkmanScriptDirPathTmpFile}`
+                JDKMAN_SCRIPT_PATH='\{jdkmanScriptDir.getAbsolutePath().replace("'", "'\\''")}'
                 export PATH="$JDKMAN_SCRIPT_PATH:$PATH"
+                JDKMAN_TOKEN=-
+                function jdkman_refresh_java_home() {
+                    local out
+                    out="`jdkman which --token "$JDKMAN_TOKEN"`"
+                    case $? in
+                        0)
+                            out="${out##*$'\\n'}"
+                            JDKMAN_TOKEN="${out%% *}"
+                            export JAVA_HOME="${out#* }"
+                            ;;
+                        \{WhichAction.TOKEN_UNCHANGED_EXIT_CODE})
+                            ;;
+                        *)
+                            JDKMAN_TOKEN=-
+                            export JAVA_HOME=""
+                            ;;
+                    esac
+                }
                 function cdjh() {
                     builtin cd "$@"
-                    export JAVA_HOME="`jdkman which`"
+                    jdkman_refresh_java_home
                 }
                 alias cd=cdjh
-                export JAVA_HOME="`jdkman which`"
-                rm -f \{jdkmanScriptDirPathTmpFile}
+                jdkman_refresh_java_home
                 """;
     }
 
-    private static String buildPowershellEval(File jdkmanScriptDir) throws ErrorResult {
-        var jdkmanScriptDirPathTmpFile = writeJDKManScriptDirPathToTmpFile(jdkmanScriptDir);
-        Path initPs1File;
-        try {
-            initPs1File = Files.createTempFile("jdkman-init", ".ps1");
-        } catch (IOException e) {
-            Logger.error(LogType.FILE_ERROR, "failed to create jdkman-init.ps1 tmp file", e);
-            throw new ErrorResult("failed to create jdkman-init.ps1 file");
-        }
-
+    private static String buildPowershellEval(File jdkmanScriptDir) {
         var sb = new StringBuilder();
-        for (var exe : EXECUTABLES) {
+        // the same as the script shims: JAVA_HOME, then the cds and .java-options arguments one per line
+        for (var exe : ShimSync.WELL_KNOWN_EXECUTABLES) {
             sb.append("function ").append(exe).append(" {\n");
-            sb.append("    $JAVA_HOME = jdkman which\n");
-            sb.append("    $env:JAVA_HOME = $JAVA_HOME\n");
-            sb.append("    & \"$JAVA_HOME\\bin\\").append(exe);
+            sb.append("    $out = @(jdkman which --tool ").append(exe).append(")\n");
+            sb.append("    $env:JAVA_HOME = $out[0]\n");
+            sb.append("    $toolArgs = @($out | Select-Object -Skip 1)\n");
+            sb.append("    & \"$($out[0])\\bin\\").append(exe);
             if (OS.isWindows()) {
                 sb.append(".exe");
             }
-            sb.append("\" $args");
+            sb.append("\" @toolArgs $args");
             sb.append("\n");
             sb.append("}\n");
         }
-        sb.append("$JDKMAN_SCRIPT_PATH = (Get-Content ")
-            .append(jdkmanScriptDirPathTmpFile)
-            .append(")\n");
+        sb.append("$JDKMAN_SCRIPT_PATH = '")
+            .append(jdkmanScriptDir.getAbsolutePath().replace("'", "''"))
+            .append("'\n");
         sb.append(STR."""
             $env:PATH = "$JDKMAN_SCRIPT_PATH\{pathSeparatorInPSStr()}${env:PATH}"
-            $env:JAVA_HOME = jdkman which
+            $global:JDKMAN_TOKEN = "-"
+            function jdkman_refresh_java_home {
+                $out = @(jdkman which --token $global:JDKMAN_TOKEN)
+                if ($LASTEXITCODE -eq 0) {
+                    $global:JDKMAN_TOKEN, $env:JAVA_HOME = "$($out[-1])".Split(" ", 2)
+                } elseif ($LASTEXITCODE -ne \{WhichAction.TOKEN_UNCHANGED_EXIT_CODE}) {
+                    $global:JDKMAN_TOKEN = "-"
+                    $env:JAVA_HOME = ""
+                }
+            }
+            jdkman_refresh_java_home
             function cdjh {
               param([string]$path)
                 Set-Location $path
-                $env:JAVA_HOME = jdkman which
+                jdkman_refresh_java_home
             }
             Set-Alias -Name cd -Value cdjh -Option AllScope
-            Remove-Item \{initPs1File}
-            Remove-Item \{jdkmanScriptDirPathTmpFile}
             """);
-
-        try {
-            Files.writeString(initPs1File, sb.toString());
-        } catch (IOException e) {
-            Logger.error(LogType.FILE_ERROR, "failed to release jdkman-init.ps1 tmp file", e);
-            throw new ErrorResult("failed to release jdkman-init.ps1 file");
-        }
-        return STR.". \{initPs1File}";
+        return sb.toString();
     }
 
     private static String pathSeparatorInPSStr() {
@@ -0,0 +1,425 @@
+package io.vproxy.jdkman.action;
+
+import io.vproxy.base.util.LogType;
+import io.vproxy.base.util.Logger;
+import io.vproxy.base.util.display.TableBuilder;
+import io.vproxy.jdkman.entity.JDKInfo;
+import io.vproxy.jdkman.entity.JDKManConfig;
+import io.vproxy.jdkman.ex.ErrorResult;
+import io.vproxy.jdkman.install.ArchiveExtractor;
+import io.vproxy.jdkman.install.ArchiveStore;
+import io.vproxy.jdkman.probe.ProberChain;
+import io.vproxy.jdkman.util.SystemRegistry;
+import io.vproxy.jdkman.util.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+// installs jdks from local .tar.gz/.zip archives, e.g. a directory mirroring the vendor downloads:
+// the archives are extracted concurrently into the install root, each one is extracted into a temporary directory
+// and renamed to <root>/<archive name> only after the checksum is verified,
+// then the homes are probed and registered the same as `discover`.
+// with a store (--store or JDKMAN_STORE), the archives are unpacked into the shared ArchiveStore instead,
+// and `sha256:<hex>` installs an archive kept in the store
+public class InstallAction implements Action {
+    private static final String SHA256SUMS = "SHA256SUMS";
+    private static final String STORED_PREFIX = "sha256:";
+
+    private static class Options {
+        String root;
+        String store;
+        String sha256;
+        int parallelism = ProberChain.DEFAULT_PARALLELISM;
+        long timeoutMillis = AddAction.DEFAULT_PROBE_TIMEOUT_MILLIS;
+        final List<String> archives = new ArrayList<>();
+
+        String parse(String[] options) {
+            for (int i = 0; i < options.length; ++i) {
+                var o = options[i];
+                if (!o.startsWith("--")) {
+                    archives.add(o);
+                    continue;
+                }
+                if (!o.equals("--root") && !o.equals("--store") && !o.equals("--sha256")
+                    && !o.equals("--parallelism") && !o.equals("--timeout")) {
+                    return STR."unknown options for `install`: \{o}";
+                }
+                if (i + 1 >= options.length) {
+                    return STR."missing value for \{o}";
+                }
+                var v = options[++i];
+                if (o.equals("--root")) {
+                    root = v;
+                    continue;
+                }
+                if (o.equals("--store")) {
+                    store = v;
+                    continue;
+                }
+                if (o.equals("--sha256")) {
+                    if (!v.matches("[0-9a-fA-F]{64}")) {
+                        return STR."invalid value for \{o}: \{v}, expecting 64 hex characters";
+                    }
+                    sha256 = v.toLowerCase();
+                    continue;
+                }
+                if (!Utils.isNonNegativeInteger(v) || Integer.parseInt(v) == 0) {
+                    return STR."invalid value for \{o}: \{v}, expecting a positive integer";
+                }
+                var n = Integer.parseInt(v);
+                if (o.equals("--parallelism")) {
+                    parallelism = n;
+                } else {
+                    timeoutMillis = n * 1000L;
+                }
+            }
+            if (archives.isEmpty()) {
+                return "missing archive for `install`";
+            }
+            if (sha256 != null && (archives.size() > 1 || new File(archives.getFirst()).isDirectory())) {
+                return "--sha256 can only be used when installing one archive";
+            }
+            if (root != null && store() != null) {
+                return "--root cannot be used with the store";
+            }
+            return null;
+        }
+
+        ArchiveStore store() {
+            return store == null ? ArchiveStore.fromEnv() : new ArchiveStore(Path.of(store));
+        }
+    }
+
+    // the system jdks are installed next to the system config, so that they are readable by all users
+    private static Path defaultRoot() {
+        if (SystemRegistry.isEditing()) {
+            return SystemRegistry.configFile().getAbsoluteFile().toPath().resolveSibling("jdks");
+        }
+        return Path.of(io.vproxy.base.util.Utils.homedir(), "jdkman-jdks");
+    }
+
+    @Override
+    public boolean modifiesConfig() {
+        return true;
+    }
+
+    @Override
+    public String validate(String[] options) {
+        var opts = new Options();
+        var err = opts.parse(options);
+        if (err != null) {
+            return err;
+        }
+        for (var a : opts.archives) {
+            if (a.startsWith(STORED_PREFIX)) {
+                if (!a.substring(STORED_PREFIX.length()).matches("[0-9a-f]{64}")) {
+                    return STR."invalid archive \{a}, expecting sha256: followed by 64 lowercase hex characters";
+                }
+                if (opts.store() == null) {
+                    return STR."\{a} requires --store or JDKMAN_STORE";
+                }
+                continue;
+            }
+            var f = new File(a);
+            if (f.isDirectory()) {
+                continue;
+            }
+            if (!f.isFile()) {
+                return STR."\{a} does not exist";
+            }
+            if (!ArchiveExtractor.isSupported(f.getName())) {
+                return STR."\{a} is not a .tar.gz, .tgz or .zip archive";
+            }
+        }
+        return null;
+    }
+
+    // archive is null for the archives in the store
+    private record Source(Path archive, String sha256) {
+        String name() {
+            return archive == null ? STORED_PREFIX + sha256 : archive.getFileName().toString();
+        }
+    }
+
+    private record Installed(Source source, String home, String sha256, boolean verified, boolean extracted) {
+    }
+
+    @Override
+    public boolean execute(JDKManConfig config, String[] options) throws Exception {
+        var opts = new Options();
+        opts.parse(options);
+
+        var archives = new ArrayList<Source>();
+        for (var a : opts.archives) {
+            if (a.startsWith(STORED_PREFIX)) {
+                archives.add(new Source(null, a.substring(STORED_PREFIX.length())));
+                continue;
+            }
+            var f = new File(a);
+            if (!f.isDirectory()) {
+                archives.add(new Source(f.getAbsoluteFile().toPath(), opts.sha256));
+                continue;
+            }
+            var files = f.listFiles(c -> c.isFile() && ArchiveExtractor.isSupported(c.getName()));
+            if (files == null) {
+                throw new ErrorResult(STR."failed to list \{a}");
+            }
+            Arrays.sort(files);
+            for (var c : files) {
+                archives.add(new Source(c.getAbsoluteFile().toPath(), null));
+            }
+        }
+        if (archives.isEmpty()) {
+            System.out.println("no archive found");
+            return false;
+        }
+        var store = opts.store();
+        var root = opts.root == null ? defaultRoot() : Path.of(opts.root).toAbsolutePath();
+        if (store == null) {
+            Files.createDirectories(root);
+        }
+
+        // extraction is cpu bound (inflating), so the parallelism is bounded the same as probing
+        var results = new Installed[archives.size()];
+        var errors = new Exception[archives.size()];
+        var semaphore = new Semaphore(opts.parallelism);
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < archives.size(); ++i) {
+                final int idx = i;
+                var source = archives.get(i);
+                executor.submit(() -> {
+                    try {
+                        semaphore.acquire();
+                    } catch (InterruptedException e) {
+                        errors[idx] = e;
+                        return;
+                    }
+                    try {
+                        results[idx] = store == null ? install(source, root) : install(source, store);
+                    } catch (Exception e) {
+                        errors[idx] = e;
+                    } finally {
+                        semaphore.release();
+                    }
+                });
+            }
+        }
+
+        var failed = 0;
+        for (int i = 0; i < archives.size(); ++i) {
+            if (errors[i] == null) {
+                continue;
+            }
+            ++failed;
+            if (errors[i] instanceof ErrorResult) {
+                Logger.error(LogType.ALERT, STR."failed to install \{archives.get(i)}: \{errors[i].getMessage()}");
+            } else {
+                Logger.error(LogType.ALERT, STR."failed to install \{archives.get(i)}", errors[i]);
+            }
+        }
+        if (failed != 0) {
+            // the installed directories are kept, running it again only extracts the failed ones and registers all
+            throw new ErrorResult(STR."\{failed} of \{archives.size()} archive(s) failed to install, nothing is registered");
+        }
+
+        var registered = new HashSet<String>();
+        for (var jdk : config.getJdks()) {
+            registered.add(jdk.getHome());
+        }
+        var homes = new ArrayList<String>();
+        for (var r : results) {
+            var home = r.home();
+            if (registered.contains(home) || SystemRegistry.findByHome(home) != null || homes.contains(home)) {
+                assert Logger.lowLevelDebug(STR."\{home} is already registered");
+                continue;
+            }
+            homes.add(home);
+        }
+
+        var added = new ArrayList<JDKInfo>();
+        var probed = new HashMap<String, ProberChain.Outcome>();
+        if (!homes.isEmpty()) {
+            for (var outcome : ProberChain.get().probeAll(homes, opts.parallelism, opts.timeoutMillis)) {
+                probed.put(outcome.javaHome(), outcome);
+                if (outcome.result() == null) {
+                    Logger.error(LogType.ALERT, STR."failed to probe jdk: \{outcome.javaHome()}", outcome.error());
+                    continue;
+                }
+                added.add(outcome.result().jdk());
+            }
+            AddAction.register(config, added);
+        }
+
+        var table = new TableBuilder();
+        table.tr().td("archive").td("sha256").td("home").td("status");
+        for (var r : results) {
+            var outcome = probed.get(r.home());
+            String status;
+            if (outcome == null) {
+                status = r.extracted() ? "extracted, already registered" : "already installed";
+            } else if (outcome.result() == null) {
+                status = "extracted, probing failed";
+            } else {
+                status = STR."installed \{outcome.result().jdk().getFullVersion()}";
+            }
+            table.tr().td(r.source().name())
+                .td(r.sha256() == null ? "-" : r.sha256() + (r.verified() ? " (verified)" : " (unverified)"))
+                .td(r.home()).td(status);
+        }
+        System.out.println(table.toString().trim());
+
+        if (store != null) {
+            reference(config, store, results);
+        }
+        return !added.isEmpty();
+    }
+
+    // the trees of the registered homes are never evicted, and the store is trimmed after installing
+    private static void reference(JDKManConfig config, ArchiveStore store, Installed[] results) throws ErrorResult {
+        var configFile = SystemRegistry.isEditing() ? SystemRegistry.configFile() : Utils.jdkmanConfigFile();
+        var homes = new ArrayList<String>();
+        for (var jdk : config.getJdks()) {
+            homes.add(jdk.getHome());
+        }
+        var system = SystemRegistry.config();
+        if (system != null) {
+            for (var jdk : system.getJdks()) {
+                homes.add(jdk.getHome());
+            }
+        }
+        for (var r : results) {
+            if (!homes.contains(r.home())) {
+                continue;
+            }
+            try {
+                store.reference(r.sha256(), configFile);
+            } catch (IOException e) {
+                Logger.warn(LogType.FILE_ERROR, STR."failed to record the reference to \{r.home()} in \{store.dir()}", e);
+            }
+        }
+        ArchiveStore.GCResult gc;
+        try {
+            gc = store.gc(ArchiveStore.maxSizeFromEnv(), homes);
+        } catch (IOException e) {
+            Logger.warn(LogType.FILE_ERROR, STR."failed to evict entries from \{store.dir()}", e);
+            return;
+        }
+        if (gc != null && gc.evicted() != 0) {
+            Logger.alert(STR."\{gc.evicted()} entries evicted from \{store.dir()}, \{gc.freed() / 1024 / 1024}MiB freed");
+        }
+    }
+
+    private static Installed install(Source source, ArchiveStore store) throws Exception {
+        ArchiveStore.Unpacked unpacked;
+        var verified = true;
+        if (source.archive() == null) {
+            unpacked = store.unpack(source.sha256());
+        } else {
+            var expected = source.sha256() != null ? source.sha256() : expectedSha256(source.archive());
+            // without the expected checksum, the archive is hashed first to look up the store
+            verified = expected != null;
+            unpacked = store.unpack(source.archive(), expected);
+        }
+        var home = findJavaHome(unpacked.tree());
+        if (home == null) {
+            throw new ErrorResult("no jdk found in the archive");
+        }
+        return new Installed(source, home.toFile().getCanonicalPath(), unpacked.sha256(), verified, unpacked.extracted());
+    }
+
+    private static Installed install(Source source, Path root) throws Exception {
+        var archive = source.archive();
+        var name = ArchiveExtractor.baseName(archive.getFileName().toString());
+        var dest = root.resolve(name);
+        if (Files.exists(dest)) {
+            // installing the same directory of archives again only registers what's missing
+            var home = findJavaHome(dest);
+            if (home == null) {
+                throw new ErrorResult(STR."\{dest} already exists but does not contain a jdk");
+            }
+            return new Installed(source, home.toFile().getCanonicalPath(), null, false, false);
+        }
+        var expected = source.sha256() != null ? source.sha256() : expectedSha256(archive);
+
+        // named after the archive, `x.zip` and `x.tar.gz` may be extracted at the same time
+        var tmp = root.resolve(STR.".\{archive.getFileName()}.\{ProcessHandle.current().pid()}.tmp");
+        Utils.deleteRecursively(tmp);
+        Files.createDirectory(tmp);
+        try {
+            var result = ArchiveExtractor.extract(archive, tmp);
+            assert Logger.lowLevelDebug(STR."\{result.entries()} entries extracted from \{archive}");
+            if (expected != null && !expected.equals(result.sha256())) {
+                throw new ErrorResult(STR."checksum mismatch: expecting \{expected}, but got \{result.sha256()}");
+            }
+            var home = findJavaHome(tmp);
+            if (home == null) {
+                throw new ErrorResult("no jdk found in the archive");
+            }
+            var rel = tmp.relativize(home);
+            Files.move(tmp, dest, StandardCopyOption.ATOMIC_MOVE);
+            return new Installed(source, dest.resolve(rel).toFile().getCanonicalPath(),
+                result.sha256(), expected != null, true);
+        } finally {
+            Utils.deleteRecursively(tmp);
+        }
+    }
+
+    // the home is either the extracted directory, or the top level directory in it,
+    // or Contents/Home for the macOS bundles
+    private static Path findJavaHome(Path dir) {
+        var candidates = new ArrayList<Path>();
+        candidates.add(dir);
+        var children = dir.toFile().listFiles(File::isDirectory);
+        if (children != null) {
+            Arrays.sort(children);
+            for (var c : children) {
+                candidates.add(c.toPath());
+                candidates.add(c.toPath().resolve("Contents").resolve("Home"));
+            }
+        }
+        for (var c : candidates) {
+            if (Utils.validateJavaHome(c.toString()) == null) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    // <archive>.sha256 or <archive>.sha256.txt (`<hex>` or `<hex>  <file>`), or SHA256SUMS in the same directory
+    private static String expectedSha256(Path archive) throws IOException, ErrorResult {
+        var fileName = archive.getFileName().toString();
+        for (var suffix : new String[]{".sha256", ".sha256.txt"}) {
+            var f = archive.resolveSibling(fileName + suffix);
+            if (!Files.isRegularFile(f)) {
+                continue;
+            }
+            var content = Files.readString(f).trim();
+            var hex = content.split("\\s+")[0].toLowerCase();
+            if (!hex.matches("[0-9a-f]{64}")) {
+                throw new ErrorResult(STR."invalid checksum file \{f}");
+            }
+            return hex;
+        }
+        var sums = archive.resolveSibling(SHA256SUMS);
+        if (!Files.isRegularFile(sums)) {
+            return null;
+        }
+        for (var line : Files.readAllLines(sums)) {
+            var split = line.trim().split("\\s+", 2);
+            if (split.length != 2) {
+                continue;
+            }
+            var file = split[1].startsWith("*") ? split[1].substring(1) : split[1];
+            if (file.equals(fileName) || file.endsWith("/" + fileName)) {
+                return split[0].toLowerCase();
+            }
+        }
+        return null;
+    }
+}
@@ -2,9 +2,12 @@ package io.vproxy.jdkman.action;
 
 import io.vproxy.base.util.OS;
 import io.vproxy.base.util.display.TableBuilder;
+import io.vproxy.jdkman.entity.JDKInfo;
 import io.vproxy.jdkman.entity.JDKManConfig;
+import io.vproxy.jdkman.util.SystemRegistry;
 import io.vproxy.jdkman.util.Utils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 
 public class ListAction implements Action {
@@ -28,14 +31,24 @@ public class ListAction implements Action {
         var tr = table.tr();
         tr.td("id").td("version").td("build").td("full").td("vendor")
             .td("default").td("current");
+        var system = SystemRegistry.config();
+        if (system != null) {
+            tr.td("registry");
+        }
         var isVerbose = Arrays.asList(options).contains("verbose");
         if (isVerbose) {
             tr.td("home");
         }
 
         var current = Utils.currentVersion(config);
+        // the user's default may refer to a system jdk, and the system default is used if the user has none
+        var defaultJDK = Utils.resolve(config, null);
 
-        for (var jdk : config.getJdks()) {
+        var jdks = new ArrayList<JDKInfo>(config.getJdks());
+        if (system != null) {
+            jdks.addAll(system.getJdks());
+        }
+        for (var jdk : jdks) {
             tr = table.tr();
             tr.td(jdk.getId());
 
@@ -67,7 +80,7 @@ public class ListAction implements Action {
                 tr.td(jdk.getImplementor());
             }
 
-            if (jdk.getId().equals(config.getDefaultJDK())) {
+            if (defaultJDK == jdk) {
                 if (OS.isWindows()) {
                     tr.td("   *");
                 } else {
@@ -87,6 +100,10 @@ public class ListAction implements Action {
                 tr.td("");
             }
 
+            if (system != null) {
+                tr.td(system.getJdks().contains(jdk) ? "system" : "user");
+            }
+
             if (isVerbose) {
                 tr.td(jdk.getHome());
             }
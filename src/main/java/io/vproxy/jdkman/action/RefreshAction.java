@@ -4,53 +4,108 @@ import io.vproxy.base.util.LogType;
 import io.vproxy.base.util.Logger;
 import io.vproxy.jdkman.entity.JDKInfo;
 import io.vproxy.jdkman.entity.JDKManConfig;
+import io.vproxy.jdkman.probe.ProberChain;
+import io.vproxy.jdkman.util.SystemRegistry;
+import io.vproxy.jdkman.util.Utils;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 
 public class RefreshAction implements Action {
-    @Override
-    public String validate(String[] options) {
-        if (options.length == 0) {
+    private static class Options {
+        int parallelism = ProberChain.DEFAULT_PARALLELISM;
+        long timeoutMillis = AddAction.DEFAULT_PROBE_TIMEOUT_MILLIS;
+        boolean force = false;
+
+        String parse(String[] options) {
+            for (int i = 0; i < options.length; ++i) {
+                var o = options[i];
+                if (o.equals("--force")) {
+                    force = true;
+                    continue;
+                }
+                if (!o.equals("--parallelism") && !o.equals("--timeout")) {
+                    return STR."unknown options for `refresh`: \{Arrays.toString(options)}";
+                }
+                if (i + 1 >= options.length) {
+                    return STR."missing value for \{o}";
+                }
+                var v = options[++i];
+                if (!Utils.isNonNegativeInteger(v) || Integer.parseInt(v) == 0) {
+                    return STR."invalid value for \{o}: \{v}, expecting a positive integer";
+                }
+                if (o.equals("--parallelism")) {
+                    parallelism = Integer.parseInt(v);
+                } else {
+                    timeoutMillis = Integer.parseInt(v) * 1000L;
+                }
+            }
             return null;
         }
-        return STR."unknown options for `refresh`: \{Arrays.toString(options)}";
     }
 
     @Override
-    public boolean execute(JDKManConfig config, String[] options) {
-        var homes = new ArrayList<String>();
-        JDKInfo oldDefault = null;
+    public boolean modifiesConfig() {
+        return true;
+    }
+
+    @Override
+    public String validate(String[] options) {
+        return new Options().parse(options);
+    }
+
+    @Override
+    public boolean execute(JDKManConfig config, String[] options) throws Exception {
+        var opts = new Options();
+        opts.parse(options);
+
+        // only re-probe jdks whose fingerprint changed, others are kept as is (including the id)
+        var kept = new ArrayList<JDKInfo>();
+        var toProbe = new ArrayList<JDKInfo>();
         for (var jdk : config.getJdks()) {
-            if (new File(jdk.getHome()).exists()) {
-                homes.add(jdk.getHome());
-                if (jdk.getId().equals(config.getDefaultJDK())) {
-                    oldDefault = jdk;
-                }
-            } else {
+            if (!new File(jdk.getHome()).exists()) {
                 Logger.info(LogType.ALERT, STR."jdk \{jdk} is removed");
+                continue;
+            }
+            if (!opts.force && jdk.getFingerprint() != null
+                && jdk.getFingerprint().equals(Utils.homeFingerprint(jdk.getHome()))) {
+                kept.add(jdk);
+            } else {
+                toProbe.add(jdk);
             }
         }
 
+        var outcomes = ProberChain.get().probeAll(
+            toProbe.stream().map(JDKInfo::getHome).toList(), opts.parallelism, opts.timeoutMillis);
+
+        var oldDefault = config.getDefaultJDK();
         config.setDefaultJDK(null);
         config.setJdks(new ArrayList<>());
-        var addAction = new AddAction();
-        for (var home : homes) {
-            try {
-                addAction.execute(config, new String[]{home});
-                Logger.alert(STR."jdk \{home} is re-added");
-            } catch (Exception e) {
-                Logger.error(LogType.ALERT, STR."failed to re-add jdk: \{home}", e);
+        var added = new ArrayList<>(kept);
+        for (int i = 0; i < toProbe.size(); ++i) {
+            var outcome = outcomes.get(i);
+            if (outcome.result() == null) {
+                Logger.error(LogType.ALERT, STR."failed to re-add jdk: \{outcome.javaHome()}", outcome.error());
+                continue;
             }
+            var jdk = outcome.result().jdk();
+            jdk.setId(toProbe.get(i).getId());
+            added.add(jdk);
+            Logger.alert(STR."jdk \{outcome.javaHome()} is re-added (probed by \{outcome.result().prober()})");
+        }
+        if (!kept.isEmpty()) {
+            Logger.alert(STR."\{kept.size()} jdk(s) unchanged");
         }
+        AddAction.register(config, added);
 
+        // register() picks the first re-added jdk as the default, the previous one is kept if it still exists,
+        // either re-added, or a system jdk chosen by the user (the system registry is not the one being refreshed)
         if (oldDefault != null) {
-            for (var jdk : config.getJdks()) {
-                if (oldDefault.getHome().equals(jdk.getHome())) {
-                    config.setDefaultJDK(jdk.getId());
-                    break;
-                }
+            var exists = config.getJdks().stream().anyMatch(jdk -> jdk.getId().equals(oldDefault))
+                || SystemRegistry.find(oldDefault) != null;
+            if (exists) {
+                config.setDefaultJDK(oldDefault);
             }
         }
 
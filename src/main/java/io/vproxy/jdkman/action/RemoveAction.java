@@ -2,10 +2,16 @@ package io.vproxy.jdkman.action;
 
 import io.vproxy.jdkman.entity.JDKManConfig;
 import io.vproxy.jdkman.ex.ErrorResult;
+import io.vproxy.jdkman.util.SystemRegistry;
 
 import java.util.Arrays;
 
 public class RemoveAction implements Action {
+    @Override
+    public boolean modifiesConfig() {
+        return true;
+    }
+
     @Override
     public String validate(String[] options) {
         if (options.length == 0) {
@@ -22,11 +28,16 @@ public class RemoveAction implements Action {
         var uuid = options[0];
         var removed = config.getJdks().removeIf(e -> uuid.equals(e.getId()));
         if (!removed) {
+            if (SystemRegistry.find(uuid) != null) {
+                throw new ErrorResult(STR."\{uuid} is in the system registry \{SystemRegistry.configFile()}, " +
+                                      STR."use `jdkman --system remove \{uuid}` with the permission to modify it");
+            }
             throw new ErrorResult(STR."\{options[0]} not found");
         }
 
         if (uuid.equals(config.getDefaultJDK())) {
             if (config.getJdks().isEmpty()) {
+                // the system default is used if any
                 config.setDefaultJDK(null);
             } else {
                 config.setDefaultJDK(config.getJdks().getFirst().getId());
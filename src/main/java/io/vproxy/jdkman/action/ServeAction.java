@@ -0,0 +1,300 @@
+package io.vproxy.jdkman.action;
+
+import io.vproxy.base.Config;
+import io.vproxy.base.util.LogType;
+import io.vproxy.base.util.Logger;
+import io.vproxy.jdkman.entity.JDKIndex;
+import io.vproxy.jdkman.entity.JDKInfoMatcher;
+import io.vproxy.jdkman.entity.JDKManConfig;
+import io.vproxy.jdkman.ex.ErrorResult;
+import io.vproxy.jdkman.util.ResolutionCache;
+import io.vproxy.jdkman.util.SystemRegistry;
+import io.vproxy.jdkman.util.Utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+// a resident resolver which keeps the config and resolution results in memory
+// protocol: client sends `<directory>\n`, server responds `<JAVA_HOME>\n` (empty line if no jdk found).
+// for the shims, client sends `<directory>\t<tool>\n`, server responds `<JAVA_HOME>\t<option>\t<option>...\n`
+// with the .java-options profile of the tool, the tab after JAVA_HOME is always present,
+// so that a response from a server of an older version is recognized and ignored.
+// the connection is closed without a response if the .java-version cannot be parsed, or the project files
+// cannot be read (e.g. .java-options), then the client resolves by itself and reports the problem,
+// the same as without the server
+public class ServeAction implements Action {
+    private static final long CLIENT_TIMEOUT_MILLIS = 1000;
+    // a client which connects but doesn't send the request must not hold the connection (and the thread) forever
+    private static final long REQUEST_TIMEOUT_MILLIS = 1000;
+    private static final int MAX_REQUEST_LENGTH = 64 * 1024;
+
+    private final ConcurrentHashMap<String, ResolutionCache.Entry> resolutions = new ConcurrentHashMap<>();
+    private File configFile;
+    private ResolutionCache.Fingerprint configFingerprint;
+    private ResolutionCache.Fingerprint systemConfigFingerprint;
+    private JDKIndex jdkIndex;
+
+    public static Path socketPath() {
+        return Path.of(Config.workingDirectoryFile("jdkman.sock"));
+    }
+
+    @Override
+    public String validate(String[] options) {
+        if (options.length == 0) {
+            return null;
+        }
+        return STR."unknown options for `serve`: \{Arrays.toString(options)}";
+    }
+
+    @Override
+    public boolean execute(JDKManConfig config, String[] options) throws Exception {
+        serve(Utils.jdkmanConfigFile(), config, socketPath());
+        return false;
+    }
+
+    // blocks until the process exits
+    public void serve(File configFile, JDKManConfig config, Path path) throws Exception {
+        this.configFile = configFile;
+        this.configFingerprint = ResolutionCache.Fingerprint.of(configFile);
+        this.systemConfigFingerprint = ResolutionCache.Fingerprint.of(SystemRegistry.configFile());
+        this.jdkIndex = JDKIndex.of(config, SystemRegistry.config());
+
+        if (Files.exists(path)) {
+            if (isServing(path)) {
+                throw new ErrorResult(STR."jdkman is already serving on \{path}");
+            }
+            // stale socket file left by a previous server
+            Files.delete(path);
+        }
+
+        var address = UnixDomainSocketAddress.of(path);
+        try (var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            server.bind(address);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException _) {
+                }
+            }));
+            Logger.alert(STR."jdkman is serving on \{path}");
+            //noinspection InfiniteLoopStatement
+            while (true) {
+                var client = server.accept();
+                executor.submit(() -> handle(client));
+            }
+        }
+    }
+
+    // a stale socket file refuses connections.
+    // a query is not used, since it's not answered when the .java-version in the current directory is broken
+    private static boolean isServing(Path path) {
+        try (var channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(path));
+            return true;
+        } catch (IOException _) {
+            return false;
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try (client) {
+            String line;
+            client.configureBlocking(false);
+            try (var selector = Selector.open()) {
+                line = readLine(client, selector, REQUEST_TIMEOUT_MILLIS);
+            }
+            if (line == null) {
+                return;
+            }
+            // the selector is closed, so the channel is deregistered
+            client.configureBlocking(true);
+            String tool = null;
+            var tab = line.lastIndexOf('\t');
+            if (tab != -1) {
+                tool = line.substring(tab + 1);
+                line = line.substring(0, tab);
+            }
+            ResolutionCache.Entry entry;
+            try {
+                entry = resolve(new File(line));
+            } catch (ErrorResult e) {
+                assert Logger.lowLevelDebug(STR."which request for \{line} is not answered: \{e.getMessage()}");
+                return;
+            }
+            var resp = new StringBuilder(entry == null ? "" : entry.home);
+            if (tool != null) {
+                resp.append('\t');
+                if (entry != null) {
+                    resp.append(String.join("\t", entry.toolOptions(tool)));
+                }
+            }
+            resp.append('\n');
+            var buf = ByteBuffer.wrap(resp.toString().getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) {
+                client.write(buf);
+            }
+        } catch (IOException e) {
+            Logger.warn(LogType.CONN_ERROR, "failed to handle which request", e);
+        }
+    }
+
+    // the channel must be non-blocking.
+    // returns null if the line is not complete before the deadline, the peer closes the connection, or the line is too long
+    private static String readLine(SocketChannel channel, Selector selector, long timeoutMillis) throws IOException {
+        var key = channel.register(selector, SelectionKey.OP_READ);
+        var bytes = new ByteArrayOutputStream();
+        var buf = ByteBuffer.allocate(1024);
+        var deadline = System.currentTimeMillis() + timeoutMillis;
+        while (bytes.size() < MAX_REQUEST_LENGTH) {
+            var remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            selector.select(remaining);
+            if (!key.isReadable()) {
+                continue;
+            }
+            selector.selectedKeys().clear();
+            buf.clear();
+            var n = channel.read(buf);
+            if (n == -1) {
+                return null;
+            }
+            for (int i = 0; i < n; ++i) {
+                var b = buf.get(i);
+                if (b == '\n') {
+                    return bytes.toString(StandardCharsets.UTF_8);
+                }
+                bytes.write(b);
+            }
+        }
+        return null;
+    }
+
+    private synchronized JDKIndex currentJDKIndex() {
+        var fingerprint = ResolutionCache.Fingerprint.of(configFile);
+        if (fingerprint == null) {
+            return jdkIndex;
+        }
+        var systemFile = SystemRegistry.configFile();
+        var systemFingerprint = ResolutionCache.Fingerprint.of(systemFile);
+        if (sameFingerprint(fingerprint, configFingerprint) && sameFingerprint(systemFingerprint, systemConfigFingerprint)) {
+            return jdkIndex;
+        }
+        try {
+            jdkIndex = JDKIndex.of(Utils.readConfig(configFile),
+                systemFingerprint == null ? null : Utils.readConfig(systemFile));
+        } catch (Exception e) {
+            Logger.error(LogType.INVALID_EXTERNAL_DATA, "failed to reload jdkman config file, keep using the old one", e);
+            return jdkIndex;
+        } finally {
+            configFingerprint = fingerprint;
+            systemConfigFingerprint = systemFingerprint;
+        }
+        resolutions.clear();
+        Logger.alert("jdkman config reloaded");
+        return jdkIndex;
+    }
+
+    private static boolean sameFingerprint(ResolutionCache.Fingerprint a, ResolutionCache.Fingerprint b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.mtime == b.mtime && a.size == b.size;
+    }
+
+    // returns null if no jdk found.
+    // throws if the .java-version cannot be parsed, or if the entry cannot be created (e.g. .java-options is not readable),
+    // then the client resolves by itself, so that a found jdk is never reported as none
+    private ResolutionCache.Entry resolve(File dir) throws ErrorResult {
+        var jdkIndex = currentJDKIndex();
+        var key = dir.getAbsolutePath();
+        var entry = resolutions.get(key);
+        if (entry != null && entry.isValid(configFile)) {
+            return entry;
+        }
+
+        var walkedDirs = new ArrayList<File>();
+        var files = Utils.findProjectFiles(dir, walkedDirs);
+        JDKInfoMatcher matcher = null;
+        if (files.versionFile() != null) {
+            matcher = Utils.readVersionFile(files.versionFile(), null);
+            if (matcher == null) {
+                resolutions.remove(key);
+                throw new ErrorResult(STR."failed to parse \{files.versionFile()}");
+            }
+        }
+        var jdk = jdkIndex.resolve(matcher);
+        if (jdk == null) {
+            resolutions.remove(key);
+            return null;
+        }
+        entry = ResolutionCache.Entry.create(dir, configFile, files, walkedDirs, jdk);
+        if (entry == null) {
+            resolutions.remove(key);
+            throw new ErrorResult(STR."failed to create the resolution entry for \{dir}");
+        }
+        resolutions.put(key, entry);
+        return entry;
+    }
+
+    // returns null if the server is not available, or empty string if no jdk found
+    public static String query(Path path, File dir) {
+        var resolution = query(path, dir, null);
+        return resolution == null ? null : resolution.home();
+    }
+
+    // tool is nullable, returns null if the server is not available
+    public static WhichAction.Resolution query(Path path, File dir, String tool) {
+        var line = request(path, tool == null ? dir.getAbsolutePath() : STR."\{dir.getAbsolutePath()}\t\{tool}");
+        if (line == null) {
+            return null;
+        }
+        if (tool == null) {
+            return new WhichAction.Resolution(line, List.of());
+        }
+        var tab = line.indexOf('\t');
+        if (tab == -1) {
+            // server of an older version
+            return null;
+        }
+        var options = line.substring(tab + 1);
+        return new WhichAction.Resolution(line.substring(0, tab), options.isEmpty() ? List.of() : List.of(options.split("\t")));
+    }
+
+    private static String request(Path path, String request) {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (var channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+             var selector = Selector.open()) {
+            channel.connect(UnixDomainSocketAddress.of(path));
+            channel.configureBlocking(false);
+            var req = ByteBuffer.wrap((request + "\n").getBytes(StandardCharsets.UTF_8));
+            while (req.hasRemaining()) {
+                channel.write(req);
+            }
+
+            return readLine(channel, selector, CLIENT_TIMEOUT_MILLIS);
+        } catch (IOException _) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package io.vproxy.jdkman.action;
+
+import io.vproxy.base.util.display.TableBuilder;
+import io.vproxy.jdkman.entity.JDKInfo;
+import io.vproxy.jdkman.entity.JDKManConfig;
+import io.vproxy.jdkman.util.StatsRecorder;
+import io.vproxy.jdkman.util.SystemRegistry;
+
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+public class StatsAction implements Action {
+    private static final String[] SOURCES = {"none", "serve", "cache", "snapshot", "config", "token-unchanged"};
+
+    @Override
+    public String validate(String[] options) {
+        if (options.length == 0) {
+            return null;
+        }
+        if (options.length == 1 && options[0].equals("clear")) {
+            return null;
+        }
+        return STR."unknown options for `stats`: \{Arrays.toString(options)}";
+    }
+
+    @SuppressWarnings("StringTemplateMigration")
+    @Override
+    public boolean execute(JDKManConfig config, String[] options) throws Exception {
+        if (options.length != 0) {
+            StatsRecorder.clear();
+            System.out.println("statistics cleared");
+            return false;
+        }
+
+        var records = StatsRecorder.readAll();
+        System.out.println(STR."file:     \{StatsRecorder.file().toAbsolutePath()}");
+        System.out.println(STR."capacity: \{StatsRecorder.CAPACITY}");
+        System.out.println(STR."enabled:  \{StatsRecorder.ENABLED}");
+        System.out.println(STR."records:  \{records.size()}");
+        if (records.isEmpty()) {
+            return false;
+        }
+
+        // the ring buffer is bounded, so the percentiles are calculated from all samples
+        var byAction = new TreeMap<String, List<StatsRecorder.Record>>();
+        var sources = new int[SOURCES.length];
+        for (var r : records) {
+            byAction.computeIfAbsent(r.action(), _ -> new ArrayList<>()).add(r);
+            if (r.source() >= 0 && r.source() < SOURCES.length) {
+                ++sources[r.source()];
+            }
+        }
+        System.out.println();
+        var table = new TableBuilder();
+        table.tr().td("action").td("count").td("failed").td("p50").td("p90").td("p99").td("max")
+            .td("walk p50").td("resolve p50").td("depth p50");
+        for (var entry : byAction.entrySet()) {
+            var ls = entry.getValue();
+            var total = sorted(ls, StatsRecorder.Record::totalMicros);
+            var failed = 0;
+            for (var r : ls) {
+                if (r.exitCode() != 0) {
+                    ++failed;
+                }
+            }
+            table.tr().td(entry.getKey()).td("" + ls.size()).td("" + failed)
+                .td(micros(percentile(total, 50))).td(micros(percentile(total, 90)))
+                .td(micros(percentile(total, 99))).td(micros(total[total.length - 1]))
+                .td(micros(percentile(sorted(ls, StatsRecorder.Record::walkMicros), 50)))
+                .td(micros(percentile(sorted(ls, StatsRecorder.Record::resolveMicros), 50)))
+                .td(count(percentile(sorted(ls, StatsRecorder.Record::walkDepth), 50)));
+        }
+        System.out.println(table.toString().trim());
+
+        System.out.println();
+        table = new TableBuilder();
+        table.tr().td("source").td("count");
+        for (int i = 0; i < SOURCES.length; ++i) {
+            if (sources[i] != 0) {
+                table.tr().td(SOURCES[i]).td("" + sources[i]);
+            }
+        }
+        System.out.println(table.toString().trim());
+
+        printJDKUsage(config, records);
+        return false;
+    }
+
+    // records written from the cache or the resident resolver only know the home
+    private static void printJDKUsage(JDKManConfig config, List<StatsRecorder.Record> records) {
+        var byHome = new HashMap<Long, JDKInfo>();
+        var byId = new HashMap<String, JDKInfo>();
+        var jdks = new ArrayList<>(config.getJdks());
+        var system = SystemRegistry.config();
+        if (system != null) {
+            jdks.addAll(system.getJdks());
+        }
+        for (var jdk : jdks) {
+            byHome.put(StatsRecorder.homeHash(jdk.getHome()), jdk);
+            byId.put(jdk.getId(), jdk);
+        }
+        var counts = new LinkedHashMap<String, int[]>();
+        var lastUsed = new HashMap<String, Long>();
+        for (var r : records) {
+            String id;
+            if (!r.jdkId().isEmpty()) {
+                id = r.jdkId();
+            } else if (r.homeHash() != 0) {
+                var jdk = byHome.get(r.homeHash());
+                id = jdk == null ? "(unknown)" : jdk.getId();
+            } else {
+                continue;
+            }
+            counts.computeIfAbsent(id, _ -> new int[1])[0]++;
+            lastUsed.merge(id, r.epochMillis(), Math::max);
+        }
+        if (counts.isEmpty()) {
+            return;
+        }
+        var ids = new ArrayList<>(counts.keySet());
+        ids.sort(Comparator.comparingInt((String id) -> counts.get(id)[0]).reversed());
+
+        System.out.println();
+        var now = System.currentTimeMillis();
+        var table = new TableBuilder();
+        table.tr().td("id").td("count").td("last used").td("home");
+        for (var id : ids) {
+            var jdk = byId.get(id);
+            table.tr().td(id).td("" + counts.get(id)[0])
+                .td(STR."\{Math.max(0, now - lastUsed.get(id)) / 1000}s ago")
+                .td(jdk == null ? "" : jdk.getHome());
+        }
+        System.out.println(table.toString().trim());
+    }
+
+    // unrecorded values (-1) are excluded
+    private static int[] sorted(List<StatsRecorder.Record> ls, ToIntFunction<StatsRecorder.Record> f) {
+        return ls.stream().mapToInt(f).filter(n -> n >= 0).sorted().toArray();
+    }
+
+    // nearest-rank, -1 if there's no value
+    private static int percentile(int[] sorted, int p) {
+        if (sorted.length == 0) {
+            return -1;
+        }
+        var rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static String micros(int n) {
+        if (n < 0) {
+            return "-";
+        }
+        if (n < 1000) {
+            return STR."\{n}us";
+        }
+        if (n < 1000_000) {
+            return String.format("%.1fms", n / 1000.0);
+        }
+        return String.format("%.2fs", n / 1000_000.0);
+    }
+
+    private static String count(int n) {
+        return n < 0 ? "-" : "" + n;
+    }
+}
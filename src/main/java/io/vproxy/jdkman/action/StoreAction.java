@@ -0,0 +1,114 @@
+package io.vproxy.jdkman.action;
+
+import io.vproxy.base.util.display.TableBuilder;
+import io.vproxy.jdkman.entity.JDKManConfig;
+import io.vproxy.jdkman.ex.ErrorResult;
+import io.vproxy.jdkman.install.ArchiveStore;
+import io.vproxy.jdkman.util.SystemRegistry;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+public class StoreAction implements Action {
+    private static class Options {
+        boolean gc = false;
+        String store;
+        long maxSize = -1;
+
+        String parse(String[] options) {
+            for (int i = 0; i < options.length; ++i) {
+                var o = options[i];
+                if (i == 0 && (o.equals("list") || o.equals("gc"))) {
+                    gc = o.equals("gc");
+                    continue;
+                }
+                if (!o.equals("--store") && !(gc && o.equals("--max-size"))) {
+                    return STR."unknown options for `store`: \{o}";
+                }
+                if (i + 1 >= options.length) {
+                    return STR."missing value for \{o}";
+                }
+                var v = options[++i];
+                if (o.equals("--store")) {
+                    store = v;
+                    continue;
+                }
+                maxSize = ArchiveStore.parseSize(v);
+                if (maxSize < 0) {
+                    return STR."invalid value for \{o}: \{v}, expecting a size like 512m or 20g";
+                }
+            }
+            if (store() == null) {
+                return "missing --store, or set JDKMAN_STORE";
+            }
+            return null;
+        }
+
+        ArchiveStore store() {
+            return store == null ? ArchiveStore.fromEnv() : new ArchiveStore(Path.of(store));
+        }
+    }
+
+    @Override
+    public String validate(String[] options) {
+        return new Options().parse(options);
+    }
+
+    @SuppressWarnings("StringTemplateMigration")
+    @Override
+    public boolean execute(JDKManConfig config, String[] options) throws Exception {
+        var opts = new Options();
+        opts.parse(options);
+        var store = opts.store();
+
+        if (opts.gc) {
+            var homes = new ArrayList<String>();
+            for (var jdk : config.getJdks()) {
+                homes.add(jdk.getHome());
+            }
+            var system = SystemRegistry.config();
+            if (system != null) {
+                for (var jdk : system.getJdks()) {
+                    homes.add(jdk.getHome());
+                }
+            }
+            var result = store.gc(opts.maxSize < 0 ? ArchiveStore.maxSizeFromEnv() : opts.maxSize, homes);
+            if (result == null) {
+                throw new ErrorResult(STR."another process is evicting entries from \{store.dir()}");
+            }
+            System.out.println(STR."evicted:   \{result.evicted()}");
+            System.out.println(STR."freed:     \{mib(result.freed())}");
+            System.out.println(STR."remaining: \{mib(result.remaining())}");
+            for (var e : result.kept()) {
+                System.out.println(STR."kept \{e.sha256()} (\{e.archiveName()}), still registered");
+            }
+            return false;
+        }
+
+        var entries = store.list();
+        System.out.println(STR."store:   \{store.dir()}");
+        System.out.println(STR."entries: \{entries.size()}");
+        if (entries.isEmpty()) {
+            return false;
+        }
+        long total = 0;
+        var now = System.currentTimeMillis();
+        var table = new TableBuilder();
+        table.tr().td("sha256").td("archive").td("size").td("last used").td("tree");
+        // most recently used first
+        for (var e : entries.reversed()) {
+            total += e.size();
+            table.tr().td(e.sha256()).td(e.archiveName()).td(mib(e.size()))
+                .td(STR."\{Math.max(0, now - e.lastUsed()) / 1000}s ago")
+                .td(e.unpacked() ? store.tree(e.sha256()).toString() : "(missing)");
+        }
+        System.out.println(STR."size:    \{mib(total)}");
+        System.out.println();
+        System.out.println(table.toString().trim());
+        return false;
+    }
+
+    private static String mib(long bytes) {
+        return String.format("%.1fMiB", bytes / 1024.0 / 1024.0);
+    }
+}
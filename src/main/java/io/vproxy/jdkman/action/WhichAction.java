@@ -1,27 +1,372 @@
 package io.vproxy.jdkman.action;
 
+import io.vproxy.base.util.LogType;
+import io.vproxy.base.util.Logger;
+import io.vproxy.jdkman.entity.JDKIndex;
+import io.vproxy.jdkman.entity.JDKInfo;
+import io.vproxy.jdkman.entity.JDKInfoMatcher;
 import io.vproxy.jdkman.entity.JDKManConfig;
+import io.vproxy.jdkman.entity.RegistrySnapshot;
+import io.vproxy.jdkman.ex.ErrorResult;
+import io.vproxy.jdkman.probe.ProberChain;
+import io.vproxy.jdkman.trace.Trace;
+import io.vproxy.jdkman.util.BatchResolver;
+import io.vproxy.jdkman.util.CdsCache;
+import io.vproxy.jdkman.util.ResolutionCache;
+import io.vproxy.jdkman.util.StatsRecorder;
+import io.vproxy.jdkman.util.SystemRegistry;
+import io.vproxy.jdkman.util.ToolOptions;
 import io.vproxy.jdkman.util.Utils;
 
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 public class WhichAction implements Action {
+    // `which --token <prev>` exits with this code and prints nothing when the token is not changed
+    public static final int TOKEN_UNCHANGED_EXIT_CODE = 3;
+
     @Override
     public String validate(String[] options) {
         if (options.length == 0) {
             return null;
         }
+        if (options[0].equals("--batch") && options.length <= 2) {
+            return null;
+        }
+        if (options[0].equals("--token") && options.length == 2) {
+            return null;
+        }
+        if (options[0].equals("--tool") && options.length == 2) {
+            return null;
+        }
         return STR."unknown options for `which`: \{Arrays.toString(options)}";
     }
 
+    // `which` runs on every `cd` and every java tool launch, so this path is called directly from `Main.main`:
+    // logs are dropped (stdout is captured by the caller), no other actions, and the config file is never created or rewritten.
+    // the registry is read from the binary snapshot (see RegistrySnapshot), which is never written here.
+    // returns the exit code, or -1 if the result cannot be printed silently,
+    // then the normal path should be used to report the problem
+    public static int fastPath(String[] options) {
+        String prevToken = null;
+        String tool = null;
+        if (options.length == 2 && options[0].equals("--token")) {
+            prevToken = options[1];
+        } else if (options.length == 2 && options[0].equals("--tool")) {
+            tool = options[1];
+        } else if (options.length != 0) {
+            return -1;
+        }
+        File dir;
+        try {
+            dir = Utils.currentDirectory();
+        } catch (IOException _) {
+            return -1;
+        }
+        var configFile = Utils.jdkmanConfigFile();
+
+        String token = null;
+        File versionFile = null;
+        List<File> walkedDirs = null;
+        if (prevToken != null) {
+            // only a few stats are done before exiting when nothing is changed
+            walkedDirs = new ArrayList<>();
+            var walkStart = System.nanoTime();
+            versionFile = Utils.findVersionFile(dir, walkedDirs);
+            StatsRecorder.walked(System.nanoTime() - walkStart, walkedDirs.size());
+            var phase = Trace.begin("token");
+            token = changeToken(versionFile, configFile);
+            phase.end();
+            if (token.equals(prevToken)) {
+                StatsRecorder.source(StatsRecorder.SOURCE_TOKEN_UNCHANGED);
+                return TOKEN_UNCHANGED_EXIT_CODE;
+            }
+        }
+
+        // the token only covers JAVA_HOME, the walk is reused to find the project files when it's changed
+        var resolution = resolveSilently(dir, configFile, tool, versionFile, walkedDirs);
+        if (resolution == null) {
+            return -1;
+        }
+        var home = resolution.home();
+        if (token != null) {
+            output(token, home);
+        } else if (!home.isEmpty()) {
+            System.out.println(home);
+            if (tool != null) {
+                printToolOptions(home, tool, dir, resolution.toolOptions());
+            }
+        }
+        return 0;
+    }
+
+    // JAVA_HOME (empty if no jdk found), and the .java-options profile of the tool (empty if no tool is given)
+    public record Resolution(String home, List<String> toolOptions) {
+    }
+
+    // the arguments to be passed to the tool before the user arguments: the cds archives, then the project profile
+    public static List<String> toolArguments(String home, String tool, File dir, List<String> toolOptions) {
+        var phase = Trace.begin("cds.lookup");
+        var cds = CdsCache.options(home, tool, dir);
+        phase.end();
+        if (cds.isEmpty()) {
+            return toolOptions;
+        }
+        var args = new ArrayList<>(cds);
+        args.addAll(toolOptions);
+        return args;
+    }
+
+    // `which --tool <name>` is used by the script shims: JAVA_HOME, then the arguments one per line
+    private static void printToolOptions(String home, String tool, File dir, List<String> toolOptions) {
+        for (var o : toolArguments(home, tool, dir, toolOptions)) {
+            System.out.println(o);
+        }
+    }
+
+    // resolves without reporting any problem, and the result is stored into the resolution cache.
+    // the warnings of the helpers (cache and snapshot i/o) are dropped by the log handler installed in Main,
+    // stdout only contains the result. tool is nullable.
+    // returns null if it cannot be resolved silently
+    public static Resolution resolveSilently(File dir, File configFile, String tool) {
+        return resolveSilently(dir, configFile, tool, null, null);
+    }
+
+    // walkedDirs is not null if the .java-version walk (Utils.findVersionFile) is already done in dir,
+    // then only .java-options is looked up
+    private static Resolution resolveSilently(File dir, File configFile, String tool, File versionFile, List<File> walkedDirs) {
+        var start = System.nanoTime();
+        var phase = Trace.begin("serve.query");
+        var resolution = ServeAction.query(ServeAction.socketPath(), dir, tool);
+        phase.end();
+        if (resolution != null) {
+            StatsRecorder.resolved(System.nanoTime() - start, StatsRecorder.SOURCE_SERVE, null, resolution.home());
+            return resolution;
+        }
+        phase = Trace.begin("cache.lookup");
+        var entry = ResolutionCache.get().lookup(dir, configFile);
+        phase.end();
+        if (entry != null) {
+            StatsRecorder.resolved(System.nanoTime() - start, StatsRecorder.SOURCE_CACHE, null, entry.home);
+            return new Resolution(entry.home, tool == null ? List.of() : entry.toolOptions(tool));
+        }
+
+        if (!configFile.exists()) {
+            if (SystemRegistry.configFile().isFile()) {
+                // let the normal path create the user config
+                return null;
+            }
+            // no jdk registered
+            return new Resolution("", List.of());
+        }
+        RegistrySnapshot snapshot;
+        RegistrySnapshot systemSnapshot;
+        phase = Trace.begin("snapshot.open");
+        try {
+            snapshot = RegistrySnapshot.openMapped(configFile);
+            systemSnapshot = SystemRegistry.snapshot();
+        } catch (Exception _) {
+            return null;
+        } finally {
+            phase.end();
+        }
+        if (snapshot == null) {
+            // outdated, it's regenerated by the normal path, which takes the config lock
+            return null;
+        }
+        Utils.ProjectFiles files;
+        if (walkedDirs == null) {
+            walkedDirs = new ArrayList<>();
+            var walkStart = System.nanoTime();
+            files = Utils.findProjectFiles(dir, walkedDirs);
+            StatsRecorder.walked(System.nanoTime() - walkStart, walkedDirs.size());
+        } else {
+            files = Utils.projectFilesOf(versionFile, walkedDirs);
+        }
+        JDKInfoMatcher matcher = null;
+        if (files.versionFile() != null) {
+            matcher = Utils.readVersionFile(files.versionFile(), null);
+            if (matcher == null) {
+                return null;
+            }
+        }
+        phase = Trace.begin("snapshot.resolve");
+        var jdk = RegistrySnapshot.resolve(snapshot, systemSnapshot, matcher);
+        phase.end();
+        if (jdk == null) {
+            StatsRecorder.resolved(System.nanoTime() - start, StatsRecorder.SOURCE_SNAPSHOT, null, null);
+            return new Resolution("", List.of());
+        }
+        StatsRecorder.resolved(System.nanoTime() - start, StatsRecorder.SOURCE_SNAPSHOT, jdk.getId(), jdk.getHome());
+        phase = Trace.begin("cache.store");
+        entry = ResolutionCache.Entry.create(dir, configFile, files, walkedDirs, jdk);
+        if (entry == null) {
+            phase.end();
+            // e.g. .java-options cannot be read, let the normal path report it
+            return tool == null ? new Resolution(jdk.getHome(), List.of()) : null;
+        }
+        ResolutionCache.get().store(entry);
+        phase.end();
+        return new Resolution(jdk.getHome(), tool == null ? List.of() : entry.toolOptions(tool));
+    }
+
+    // the token is a hash of everything deciding the result of `which` in the current directory:
+    // the governing .java-version file (path, mtime and size), and the generation of the config files (user and system).
+    // the config file is replaced by rename on every write, so its file key is included as well,
+    // two writes within the mtime granularity still result in different tokens
+    private static String changeToken(File versionFile, File configFile) {
+        var hash = FNV_OFFSET;
+        if (versionFile != null) {
+            var path = versionFile.getPath();
+            for (int i = 0; i < path.length(); ++i) {
+                hash = fnv(hash, path.charAt(i));
+            }
+            hash = fnvAttributes(hash, versionFile);
+        }
+        hash = fnv(hash, '|');
+        hash = fnvAttributes(hash, configFile);
+        hash = fnvAttributes(hash, SystemRegistry.configFile());
+        return Long.toHexString(hash);
+    }
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static long fnv(long hash, long value) {
+        for (int i = 0; i < 8; ++i) {
+            hash ^= value & 0xff;
+            hash *= FNV_PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
+    private static long fnvAttributes(long hash, File file) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException _) {
+            // missing, the token is still stable
+            return fnv(hash, -1);
+        }
+        hash = fnv(hash, attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+        hash = fnv(hash, attrs.size());
+        return fnv(hash, Objects.hashCode(attrs.fileKey()));
+    }
+
     @Override
-    public boolean execute(JDKManConfig config, String[] options) {
-        var jdk = Utils.currentVersion(config);
+    public boolean execute(JDKManConfig config, String[] options) throws Exception {
+        var tokenMode = options.length != 0 && options[0].equals("--token");
+        var tool = options.length != 0 && options[0].equals("--tool") ? options[1] : null;
+        if (options.length != 0 && !tokenMode && tool == null) {
+            executeBatch(config, options.length == 2 ? options[1] : "-");
+            return false;
+        }
+        // the fast path gives up when the snapshot is outdated
+        if (!SystemRegistry.isEditing()) {
+            var phase = Trace.begin("snapshot.refresh");
+            RegistrySnapshot.refresh(Utils.jdkmanConfigFile());
+            phase.end();
+        }
+        File dir;
+        try {
+            dir = Utils.currentDirectory();
+        } catch (IOException e) {
+            Logger.warn(LogType.FILE_ERROR, "failed to retrieve current directory", e);
+            dir = null;
+        }
+        var walkedDirs = new ArrayList<File>();
+        var walkStart = System.nanoTime();
+        var files = dir == null ? new Utils.ProjectFiles(null, null) : Utils.findProjectFiles(dir, walkedDirs);
+        var versionFile = files.versionFile();
+        StatsRecorder.walked(System.nanoTime() - walkStart, walkedDirs.size());
+        var resolveStart = System.nanoTime();
+        var matcher = versionFile == null ? null : Utils.readVersionFile(versionFile);
+        var jdk = Utils.resolve(config, matcher);
+        StatsRecorder.resolved(System.nanoTime() - resolveStart, StatsRecorder.SOURCE_CONFIG,
+            jdk == null ? null : jdk.getId(), jdk == null ? null : jdk.getHome());
+        var token = tokenMode ? changeToken(versionFile, Utils.jdkmanConfigFile()) : null;
         if (jdk == null) {
             // not found, so print nothing
+            if (token != null) {
+                output(token, "");
+            }
             return false;
         }
-        System.out.println(jdk.getHome());
+        // the fallback for a .java-version which cannot be parsed is not cached,
+        // so that the warning is reported every time, the same as when resolved by the server
+        print(token, jdk, versionFile != null && matcher == null ? null : dir, files, walkedDirs);
+        if (tool != null) {
+            List<String> toolOptions = List.of();
+            if (files.optionsFile() != null) {
+                try {
+                    toolOptions = ToolOptions.read(files.optionsFile()).getOrDefault(tool, List.of());
+                } catch (IOException e) {
+                    Logger.warn(LogType.FILE_ERROR, STR."failed to read \{files.optionsFile()}", e);
+                }
+            }
+            printToolOptions(jdk.getHome(), tool, dir, toolOptions);
+        }
         return false;
     }
+
+    // `<token> <JAVA_HOME>` in token mode, the token never contains spaces
+    private static void output(String token, String home) {
+        if (token == null) {
+            System.out.println(home);
+        } else {
+            System.out.println(STR."\{token} \{home}");
+        }
+    }
+
+    // the result is stored into the resolution cache if dir is not null
+    private static void print(String token, JDKInfo jdk, File dir, Utils.ProjectFiles files, List<File> walkedDirs) {
+        output(token, jdk.getHome());
+        if (dir != null) {
+            var phase = Trace.begin("cache.store");
+            ResolutionCache.get().store(dir, Utils.jdkmanConfigFile(), files, walkedDirs, jdk);
+            phase.end();
+        }
+    }
+
+    // reads directories from the file (or stdin if it's `-`), one per line,
+    // and prints `<dir>\t<JAVA_HOME>` lines in the same order, JAVA_HOME is empty if no jdk found
+    private static void executeBatch(JDKManConfig config, String input) throws Exception {
+        List<String> lines;
+        if (input.equals("-")) {
+            lines = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)).lines().toList();
+        } else {
+            try {
+                lines = Files.readAllLines(Path.of(input));
+            } catch (IOException e) {
+                throw new ErrorResult(STR."failed to read \{input}: \{e.getMessage()}");
+            }
+        }
+        var dirs = new ArrayList<String>();
+        for (var line : lines) {
+            if (!line.isBlank()) {
+                dirs.add(line.trim());
+            }
+        }
+        var resolver = new BatchResolver(JDKIndex.of(config, SystemRegistry.config()));
+        var jdks = resolver.resolveAll(dirs.stream().map(File::new).toList(), ProberChain.DEFAULT_PARALLELISM);
+        var out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        for (int i = 0; i < jdks.length; ++i) {
+            out.write(dirs.get(i));
+            out.write('\t');
+            if (jdks[i] != null) {
+                out.write(jdks[i].getHome());
+            }
+            out.write('\n');
+        }
+        out.flush();
+    }
 }
@@ -0,0 +1,168 @@
+package io.vproxy.jdkman.entity;
+
+import io.vproxy.base.util.Logger;
+
+import java.util.*;
+
+// built once for a loaded config, answers matching queries with bucket lookups
+// every bucket is a subsequence of the jdks sorted by JDKInfo::compareTo (stable, so ties keep the config order),
+// and contains all jdks which might match the query.
+// so the first jdk matched in a bucket is exactly the first one after sorting all matched jdks.
+// the system registry (if any) is layered under the user one: its jdks are appended after the user's jdks,
+// so the user ones win on ties, and the user's default jdk is used before the system's
+public class JDKIndex {
+    static final List<MatchOptions> TIERS = List.of(
+        // most strict matching
+        new MatchOptions(),
+        // skip build version
+        new MatchOptions()
+            .setMatchBuildVersion(false),
+        // skip build version and implementor
+        new MatchOptions()
+            .setMatchBuildVersion(false)
+            .setMatchImplementor(false),
+        // most loose matching
+        new MatchOptions(false)
+    );
+
+    private final String[] defaultJDKs;
+    private final List<JDKInfo> configOrder;
+    private final JDKInfo[] sorted;
+    private final Map<Integer, List<JDKInfo>> byMajor = new HashMap<>();
+    private final Map<Integer, Map<String, List<JDKInfo>>> byMajorImplementor = new HashMap<>();
+    private final Map<Integer, Map<String, List<JDKInfo>>> byMajorBuild = new HashMap<>();
+
+    private JDKIndex(JDKManConfig config, JDKManConfig system) {
+        if (system == null) {
+            this.defaultJDKs = new String[]{config.getDefaultJDK()};
+            this.configOrder = List.copyOf(config.getJdks());
+        } else {
+            this.defaultJDKs = new String[]{config.getDefaultJDK(), system.getDefaultJDK()};
+            var ls = new ArrayList<JDKInfo>(config.getJdks().size() + system.getJdks().size());
+            ls.addAll(config.getJdks());
+            ls.addAll(system.getJdks());
+            this.configOrder = Collections.unmodifiableList(ls);
+        }
+        this.sorted = configOrder.toArray(new JDKInfo[0]);
+        Arrays.sort(sorted, JDKInfo::compareTo);
+        for (var jdk : sorted) {
+            byMajor.computeIfAbsent(jdk.getMajorVersion(), _ -> new ArrayList<>()).add(jdk);
+            if (jdk.getImplementor() != null) {
+                byMajorImplementor.computeIfAbsent(jdk.getMajorVersion(), _ -> new HashMap<>())
+                    .computeIfAbsent(jdk.getImplementor(), _ -> new ArrayList<>()).add(jdk);
+            }
+            if (jdk.getBuildVersion() != null) {
+                byMajorBuild.computeIfAbsent(jdk.getMajorVersion(), _ -> new HashMap<>())
+                    .computeIfAbsent(jdk.getBuildVersion(), _ -> new ArrayList<>()).add(jdk);
+            }
+        }
+    }
+
+    public static JDKIndex of(JDKManConfig config) {
+        return new JDKIndex(config, null);
+    }
+
+    // system is nullable
+    public static JDKIndex of(JDKManConfig config, JDKManConfig system) {
+        return new JDKIndex(config, system);
+    }
+
+    // returns the proper jdk for the matcher, or the default jdk if matcher is null or nothing matches
+    public JDKInfo resolve(JDKInfoMatcher matcher) {
+        if (matcher != null) {
+            var jdk = findProperJDK(matcher);
+            if (jdk != null) {
+                return jdk;
+            }
+        }
+        for (var defaultJDK : defaultJDKs) {
+            if (defaultJDK == null) {
+                continue;
+            }
+            for (var jdk : configOrder) {
+                if (jdk.getId().equals(defaultJDK)) {
+                    return jdk;
+                }
+            }
+        }
+        // still not found
+        if (configOrder.isEmpty()) {
+            // no jdk registered
+            return null;
+        }
+        // has jdk, but non match the default id
+        Logger.shouldNotHappen(STR."unable to find jdk with id == \{Arrays.toString(defaultJDKs)}");
+        return configOrder.getFirst();
+    }
+
+    public JDKInfo findProperJDK(JDKInfoMatcher matcher) {
+        for (var opts : TIERS) {
+            JDKInfo jdk;
+            if (opts.matchMajorVersion) {
+                jdk = first(bucket(matcher, opts), matcher, opts);
+            } else {
+                jdk = firstLoose(matcher, opts);
+            }
+            if (jdk != null) {
+                return jdk;
+            }
+        }
+        return null;
+    }
+
+    private List<JDKInfo> bucket(JDKInfoMatcher matcher, MatchOptions opts) {
+        List<JDKInfo> ls = byMajor.get(matcher.majorVersion);
+        if (ls == null) {
+            return List.of();
+        }
+        if (opts.matchImplementor && matcher.implementor != null) {
+            var m = byMajorImplementor.get(matcher.majorVersion);
+            var bucket = m == null ? null : m.get(matcher.implementor);
+            if (bucket == null) {
+                return List.of();
+            }
+            ls = bucket;
+        }
+        if (opts.matchBuildVersion && matcher.buildVersion != null) {
+            var m = byMajorBuild.get(matcher.majorVersion);
+            var bucket = m == null ? null : m.get(matcher.buildVersion);
+            if (bucket == null) {
+                return List.of();
+            }
+            if (bucket.size() < ls.size()) {
+                ls = bucket;
+            }
+        }
+        return ls;
+    }
+
+    private static JDKInfo first(List<JDKInfo> bucket, JDKInfoMatcher matcher, MatchOptions opts) {
+        for (var jdk : bucket) {
+            if (matcher.match(jdk, opts)) {
+                return jdk;
+            }
+        }
+        return null;
+    }
+
+    // jdks with lower major version never match in loose mode,
+    // so start from the first one with major version >= the required one
+    private JDKInfo firstLoose(JDKInfoMatcher matcher, MatchOptions opts) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid].getMajorVersion() < matcher.majorVersion) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < sorted.length; ++i) {
+            if (matcher.match(sorted[i], opts)) {
+                return sorted[i];
+            }
+        }
+        return null;
+    }
+}
@@ -14,6 +14,7 @@ public class JDKInfo implements JSONObject, Comparable<JDKInfo> {
     private String fullVersion;
     private String implementor; // nullable
     private String home;
+    private String fingerprint; // nullable, see Utils.homeFingerprint
 
     public static final Rule<JDKInfo> rule = new ObjectRule<>(JDKInfo::new)
         .put("id", JDKInfo::setId, StringRule.get())
@@ -23,7 +24,8 @@ public class JDKInfo implements JSONObject, Comparable<JDKInfo> {
         .put("buildVersion", JDKInfo::setBuildVersion, NullableStringRule.get())
         .put("fullVersion", JDKInfo::setFullVersion, StringRule.get())
         .put("implementor", JDKInfo::setImplementor, NullableStringRule.get())
-        .put("home", JDKInfo::setHome, StringRule.get());
+        .put("home", JDKInfo::setHome, StringRule.get())
+        .put("fingerprint", JDKInfo::setFingerprint, NullableStringRule.get());
 
     @Override
     public JSON.Object toJson() {
@@ -36,6 +38,7 @@ public class JDKInfo implements JSONObject, Comparable<JDKInfo> {
             .put("fullVersion", fullVersion)
             .put("implementor", implementor)
             .put("home", home)
+            .put("fingerprint", fingerprint)
             .build();
     }
 
@@ -115,6 +118,14 @@ public class JDKInfo implements JSONObject, Comparable<JDKInfo> {
         this.home = home;
     }
 
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
     @Override
     public int compareTo(JDKInfo that) {
         if (majorVersion > that.majorVersion)
@@ -152,6 +163,7 @@ public class JDKInfo implements JSONObject, Comparable<JDKInfo> {
                ", fullVersion=" + (fullVersion == null ? "null" : ("'" + fullVersion + "'")) +
                ", implementor=" + (implementor == null ? "null" : ("'" + implementor + "'")) +
                ", home=" + (home == null ? "null" : ("'" + home + "'")) +
+               ", fingerprint=" + (fingerprint == null ? "null" : ("'" + fingerprint + "'")) +
                '}';
     }
 }
@@ -23,7 +23,6 @@ public class JDKInfoMatcher {
         this.fullVersion = Objects.requireNonNull(fullVersion);
     }
 
-    @SuppressWarnings("RedundantIfStatement")
     public boolean match(JDKInfo that, MatchOptions opts) {
         if (opts.matchImplementor) {
             if (implementor != null
@@ -31,40 +30,46 @@ public class JDKInfoMatcher {
                 return false;
             }
         }
+        if (opts.matchBuildVersion) {
+            if (buildVersion != null
+                && !buildVersion.equals(that.getBuildVersion())) {
+                return false;
+            }
+        }
+        return matchVersion(that.getMajorVersion(), that.getMinorVersion(), that.getPatchVersion(), opts);
+    }
+
+    // the numeric part of match(...), implementor and build version are not checked
+    @SuppressWarnings("RedundantIfStatement")
+    public boolean matchVersion(int thatMajorVersion, int thatMinorVersion, int thatPatchVersion, MatchOptions opts) {
         if (opts.matchMajorVersion) {
-            if (majorVersion != that.getMajorVersion())
+            if (majorVersion != thatMajorVersion)
                 return false;
             if (majorVersion == 1) {
                 // 1.7.x, 1.8.x, the minor version is critical
                 if (minorVersion != null
-                    && minorVersion != that.getMinorVersion())
+                    && minorVersion != thatMinorVersion)
                     return false;
             }
         } else {
-            if (majorVersion > that.getMajorVersion())
+            if (majorVersion > thatMajorVersion)
                 return false;
-            if (majorVersion == 1 && that.getMajorVersion() == 1) {
+            if (majorVersion == 1 && thatMajorVersion == 1) {
                 if (minorVersion != null
-                    && minorVersion > that.getMinorVersion())
+                    && minorVersion > thatMinorVersion)
                     return false;
             }
         }
         if (majorVersion != 1) {
             // 11.x.x, 21.x.x, the minor version is not critical
             if (minorVersion != null
-                && minorVersion > that.getMinorVersion())
+                && minorVersion > thatMinorVersion)
                 return false;
         }
         if (patchVersion != null
-            && patchVersion > that.getPatchVersion()) {
+            && patchVersion > thatPatchVersion) {
             assert minorVersion != null;
-            if (minorVersion == that.getMinorVersion()) {
-                return false;
-            }
-        }
-        if (opts.matchBuildVersion) {
-            if (buildVersion != null
-                && !buildVersion.equals(that.getBuildVersion())) {
+            if (minorVersion == thatMinorVersion) {
                 return false;
             }
         }
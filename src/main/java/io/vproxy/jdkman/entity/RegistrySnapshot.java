@@ -0,0 +1,444 @@
+package io.vproxy.jdkman.entity;
+
+import io.vproxy.base.util.LogType;
+import io.vproxy.base.util.Logger;
+import io.vproxy.jdkman.util.ResolutionCache;
+import io.vproxy.jdkman.util.Utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+// a compact binary copy of the jdkman config, stored next to it, read through a MappedByteBuffer.
+// the json config is the source of truth, the snapshot is rewritten when it doesn't match the json file.
+// the snapshot is only written while holding the config lock: after the config is persisted, or by refresh
+// matching works directly on the mapped bytes, no object is allocated for each jdk.
+//
+// header:
+//   int magic, int format version,
+//   long config mtime (ns), long config size,
+//   int record count, int default record (-1 if none), int flags,
+//   int pool offset, int pool length,
+//   int crc32 of everything after the header,
+//   (int offset, int length) in the string pool for the default id, which might refer to a jdk in another layer
+// records, sorted the same way as JDKIndex (stable, JDKInfo::compareTo):
+//   int major, int minor, int patch, int index in config,
+//   (int offset, int length) in the string pool for id, build version, full version, implementor, home
+//   offset is -1 for null
+// string pool: utf-8 bytes
+public class RegistrySnapshot {
+    private static final int MAGIC = 0x4a444b53; // JDKS
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 56;
+    private static final int RECORD_SIZE = 56;
+    private static final int FLAG_DEFAULT_MISSING = 1;
+
+    private static final int OFF_MAJOR = 0;
+    private static final int OFF_MINOR = 4;
+    private static final int OFF_PATCH = 8;
+    private static final int OFF_ID = 16;
+    private static final int OFF_BUILD = 24;
+    private static final int OFF_FULL = 32;
+    private static final int OFF_IMPLEMENTOR = 40;
+    private static final int OFF_HOME = 48;
+
+    private final ByteBuffer buf;
+    private final int count;
+    private final int defaultRecord;
+    private final int flags;
+    private final int poolOffset;
+    private final String defaultId;
+
+    private RegistrySnapshot(ByteBuffer buf) {
+        this.buf = buf;
+        this.count = buf.getInt(24);
+        this.defaultRecord = buf.getInt(28);
+        this.flags = buf.getInt(32);
+        this.poolOffset = buf.getInt(36);
+        this.defaultId = getPoolString(buf.getInt(48), buf.getInt(52));
+    }
+
+    public static File fileFor(File configFile) {
+        return new File(configFile.getParentFile(), configFile.getName() + ".snapshot");
+    }
+
+    // returns the snapshot of the config file, or null if it's missing, outdated or broken.
+    // never writes, this is used by the `which` fast path which doesn't take the lock
+    public static RegistrySnapshot openMapped(File configFile) throws Exception {
+        var configFingerprint = ResolutionCache.Fingerprint.of(configFile);
+        if (configFingerprint == null) {
+            throw new IOException(STR."\{configFile} is not a regular file");
+        }
+        return map(fileFor(configFile), configFingerprint);
+    }
+
+    // regenerates the snapshot if it's missing, outdated or broken, e.g. the config is edited by hand.
+    // the config lock is held, so it never races with the config writes or with other refreshes.
+    // returns true if the snapshot is written
+    public static boolean refresh(File configFile) {
+        if (!configFile.isFile()) {
+            return false;
+        }
+        try (var _ = Utils.lockConfig(configFile)) {
+            var configFingerprint = ResolutionCache.Fingerprint.of(configFile);
+            if (configFingerprint == null || map(fileFor(configFile), configFingerprint) != null) {
+                return false;
+            }
+            write(fileFor(configFile), serialize(Utils.readConfig(configFile), configFingerprint));
+            return true;
+        } catch (Exception e) {
+            Logger.warn(LogType.FILE_ERROR, STR."failed to refresh registry snapshot of \{configFile}", e);
+            return false;
+        }
+    }
+
+    // for registries which the current user is not supposed to write, e.g. the system registry.
+    // the snapshot is built in memory if it's outdated, but never written
+    public static RegistrySnapshot openReadOnly(File configFile) throws Exception {
+        var configFingerprint = ResolutionCache.Fingerprint.of(configFile);
+        if (configFingerprint == null) {
+            throw new IOException(STR."\{configFile} is not a regular file");
+        }
+        var snapshot = map(fileFor(configFile), configFingerprint);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        assert Logger.lowLevelDebug(STR."registry snapshot of \{configFile} is outdated, built in memory");
+        var bytes = serialize(Utils.readConfig(configFile), configFingerprint);
+        return new RegistrySnapshot(ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN));
+    }
+
+    // called after the config file is persisted
+    public static void update(File configFile, JDKManConfig config) {
+        var configFingerprint = ResolutionCache.Fingerprint.of(configFile);
+        if (configFingerprint == null) {
+            return;
+        }
+        write(fileFor(configFile), serialize(config, configFingerprint));
+    }
+
+    private static RegistrySnapshot map(File snapshotFile, ResolutionCache.Fingerprint configFingerprint) {
+        ByteBuffer buf;
+        try (var channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            var size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException _) {
+            return null;
+        }
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != FORMAT_VERSION) {
+            return null;
+        }
+        if (buf.getLong(8) != configFingerprint.mtime || buf.getLong(16) != configFingerprint.size) {
+            // the json file is modified
+            return null;
+        }
+        var count = buf.getInt(24);
+        var defaultRecord = buf.getInt(28);
+        var poolOffset = buf.getInt(36);
+        var poolLength = buf.getInt(40);
+        var defaultIdOffset = buf.getInt(48);
+        var defaultIdLength = buf.getInt(52);
+        if (count < 0 || defaultRecord < -1 || defaultRecord >= count
+            || poolOffset != HEADER_SIZE + (long) count * RECORD_SIZE
+            || poolLength < 0 || (long) poolOffset + poolLength != buf.capacity()
+            || defaultIdOffset < -1 || defaultIdLength < 0 || (long) defaultIdOffset + defaultIdLength > poolLength) {
+            return null;
+        }
+        var crc = new CRC32();
+        crc.update(buf.slice(HEADER_SIZE, buf.capacity() - HEADER_SIZE));
+        if ((int) crc.getValue() != buf.getInt(44)) {
+            assert Logger.lowLevelDebug(STR."registry snapshot \{snapshotFile} is corrupted");
+            return null;
+        }
+        return new RegistrySnapshot(buf);
+    }
+
+    private static byte[] serialize(JDKManConfig config, ResolutionCache.Fingerprint configFingerprint) {
+        var jdks = config.getJdks();
+        // indexes in the config, the sorting is stable so ties keep the config order
+        var sorted = new Integer[jdks.size()];
+        for (int i = 0; i < sorted.length; ++i) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, (a, b) -> jdks.get(a).compareTo(jdks.get(b)));
+
+        int defaultConfigIndex = -1;
+        int flags = 0;
+        for (int i = 0; i < jdks.size(); ++i) {
+            if (jdks.get(i).getId().equals(config.getDefaultJDK())) {
+                defaultConfigIndex = i;
+                break;
+            }
+        }
+        if (defaultConfigIndex == -1 && !jdks.isEmpty()) {
+            // same as JDKIndex, use the first one
+            defaultConfigIndex = 0;
+            flags |= FLAG_DEFAULT_MISSING;
+        }
+
+        var pool = new StringPool();
+        var defaultId = ByteBuffer.allocate(8);
+        pool.put(defaultId, config.getDefaultJDK());
+        var records = ByteBuffer.allocate(sorted.length * RECORD_SIZE);
+        int defaultRecord = -1;
+        for (int i = 0; i < sorted.length; ++i) {
+            int configIndex = sorted[i];
+            var jdk = jdks.get(configIndex);
+            if (configIndex == defaultConfigIndex) {
+                defaultRecord = i;
+            }
+            records.putInt(jdk.getMajorVersion());
+            records.putInt(jdk.getMinorVersion());
+            records.putInt(jdk.getPatchVersion());
+            records.putInt(configIndex);
+            pool.put(records, jdk.getId());
+            pool.put(records, jdk.getBuildVersion());
+            pool.put(records, jdk.getFullVersion());
+            pool.put(records, jdk.getImplementor());
+            pool.put(records, jdk.getHome());
+        }
+        var poolBytes = pool.bytes();
+
+        var body = ByteBuffer.allocate(records.capacity() + poolBytes.length);
+        body.put(records.array()).put(poolBytes);
+        var crc = new CRC32();
+        crc.update(body.array());
+
+        var result = ByteBuffer.allocate(HEADER_SIZE + body.capacity());
+        result.putInt(MAGIC);
+        result.putInt(FORMAT_VERSION);
+        result.putLong(configFingerprint.mtime);
+        result.putLong(configFingerprint.size);
+        result.putInt(sorted.length);
+        result.putInt(defaultRecord);
+        result.putInt(flags);
+        result.putInt(HEADER_SIZE + records.capacity());
+        result.putInt(poolBytes.length);
+        result.putInt((int) crc.getValue());
+        result.put(defaultId.array());
+        result.put(body.array());
+        return result.array();
+    }
+
+    private static void write(File snapshotFile, byte[] bytes) {
+        // readers would never see a partially written file
+        try {
+            var tmp = Files.createTempFile(snapshotFile.getAbsoluteFile().getParentFile().toPath(), "jdkman-snapshot", ".tmp");
+            try {
+                Files.write(tmp, bytes);
+                Files.move(tmp, snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            Logger.warn(LogType.FILE_ERROR, STR."failed to write registry snapshot \{snapshotFile}", e);
+        }
+    }
+
+    private static class StringPool {
+        private final HashMap<String, Integer> offsets = new HashMap<>();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        void put(ByteBuffer record, String s) {
+            if (s == null) {
+                record.putInt(-1);
+                record.putInt(0);
+                return;
+            }
+            var b = s.getBytes(StandardCharsets.UTF_8);
+            var off = offsets.get(s);
+            if (off == null) {
+                off = bytes.size();
+                offsets.put(s, off);
+                bytes.writeBytes(b);
+            }
+            record.putInt(off);
+            record.putInt(b.length);
+        }
+
+        byte[] bytes() {
+            return bytes.toByteArray();
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // resolves with the user registry layered over the system registry (nullable),
+    // the result is the same as JDKIndex.of(userConfig, systemConfig).resolve(matcher):
+    // in every tier the first match of both layers is taken, and the user one wins on ties.
+    // returns null if no jdk registered
+    public static JDKInfo resolve(RegistrySnapshot user, RegistrySnapshot system, JDKInfoMatcher matcher) {
+        if (system == null || system.count == 0) {
+            var record = user.resolve(matcher);
+            return record == -1 ? null : user.jdk(record);
+        }
+        if (matcher != null) {
+            for (var opts : JDKIndex.TIERS) {
+                var u = user.findProperJDK(matcher, opts);
+                var s = system.findProperJDK(matcher, opts);
+                if (u != -1 && (s == -1 || compare(user, u, system, s) <= 0)) {
+                    return user.jdk(u);
+                }
+                if (s != -1) {
+                    return system.jdk(s);
+                }
+            }
+        }
+        for (var id : new String[]{user.defaultId, system.defaultId}) {
+            if (id == null) {
+                continue;
+            }
+            var b = id.getBytes(StandardCharsets.UTF_8);
+            for (var snapshot : new RegistrySnapshot[]{user, system}) {
+                for (int i = 0; i < snapshot.count; ++i) {
+                    if (snapshot.stringEquals(i, OFF_ID, b)) {
+                        return snapshot.jdk(i);
+                    }
+                }
+            }
+        }
+        Logger.shouldNotHappen("unable to find the default jdk in the registry snapshots");
+        // the default record is the first one in the config when the default id is missing
+        if (user.count != 0) {
+            return user.jdk(user.defaultRecord);
+        }
+        return system.jdk(system.defaultRecord);
+    }
+
+    // same as JDKInfo::compareTo
+    private static int compare(RegistrySnapshot a, int ra, RegistrySnapshot b, int rb) {
+        for (var field : new int[]{OFF_MAJOR, OFF_MINOR, OFF_PATCH}) {
+            var n = Integer.compare(a.getInt(ra, field), b.getInt(rb, field));
+            if (n != 0) {
+                return n;
+            }
+        }
+        for (var field : new int[]{OFF_BUILD, OFF_IMPLEMENTOR}) {
+            var n = Boolean.compare(a.getInt(ra, field) != -1, b.getInt(rb, field) != -1);
+            if (n != 0) {
+                return n;
+            }
+        }
+        return 0;
+    }
+
+    // returns the record index of the proper jdk, or the default jdk if matcher is null or nothing matches,
+    // or -1 if no jdk registered
+    public int resolve(JDKInfoMatcher matcher) {
+        if (matcher != null) {
+            var i = findProperJDK(matcher);
+            if (i != -1) {
+                return i;
+            }
+        }
+        if ((flags & FLAG_DEFAULT_MISSING) != 0) {
+            Logger.shouldNotHappen("unable to find the default jdk in the registry snapshot");
+        }
+        return defaultRecord;
+    }
+
+    public int findProperJDK(JDKInfoMatcher matcher) {
+        for (var opts : JDKIndex.TIERS) {
+            var i = findProperJDK(matcher, opts);
+            if (i != -1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int findProperJDK(JDKInfoMatcher matcher, MatchOptions opts) {
+        var implementor = matcher.implementor == null ? null : matcher.implementor.getBytes(StandardCharsets.UTF_8);
+        var buildVersion = matcher.buildVersion == null ? null : matcher.buildVersion.getBytes(StandardCharsets.UTF_8);
+        // records are sorted by major version, find the first one with major version >= the required one
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getInt(mid, OFF_MAJOR) < matcher.majorVersion) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < count; ++i) {
+            if (opts.matchMajorVersion && getInt(i, OFF_MAJOR) != matcher.majorVersion) {
+                break;
+            }
+            if (opts.matchImplementor && implementor != null && !stringEquals(i, OFF_IMPLEMENTOR, implementor)) {
+                continue;
+            }
+            if (opts.matchBuildVersion && buildVersion != null && !stringEquals(i, OFF_BUILD, buildVersion)) {
+                continue;
+            }
+            if (matcher.matchVersion(getInt(i, OFF_MAJOR), getInt(i, OFF_MINOR), getInt(i, OFF_PATCH), opts)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int getInt(int record, int field) {
+        return buf.getInt(HEADER_SIZE + record * RECORD_SIZE + field);
+    }
+
+    private boolean stringEquals(int record, int field, byte[] expected) {
+        var off = getInt(record, field);
+        if (off == -1) {
+            return false;
+        }
+        var len = getInt(record, field + 4);
+        if (len != expected.length) {
+            return false;
+        }
+        var base = poolOffset + off;
+        for (int i = 0; i < len; ++i) {
+            if (buf.get(base + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String getString(int record, int field) {
+        return getPoolString(getInt(record, field), getInt(record, field + 4));
+    }
+
+    private String getPoolString(int off, int len) {
+        if (off == -1) {
+            return null;
+        }
+        var b = new byte[len];
+        buf.get(poolOffset + off, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    // materializes the record, the fingerprint is not kept in the snapshot
+    public JDKInfo jdk(int record) {
+        var jdk = new JDKInfo();
+        jdk.setId(getString(record, OFF_ID));
+        jdk.setMajorVersion(getInt(record, OFF_MAJOR));
+        jdk.setMinorVersion(getInt(record, OFF_MINOR));
+        jdk.setPatchVersion(getInt(record, OFF_PATCH));
+        jdk.setBuildVersion(getString(record, OFF_BUILD));
+        jdk.setFullVersion(getString(record, OFF_FULL));
+        jdk.setImplementor(getString(record, OFF_IMPLEMENTOR));
+        jdk.setHome(getString(record, OFF_HOME));
+        return jdk;
+    }
+}
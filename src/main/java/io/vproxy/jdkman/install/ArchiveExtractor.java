@@ -0,0 +1,439 @@
+package io.vproxy.jdkman.install;
+
+import io.vproxy.base.util.LogType;
+import io.vproxy.base.util.Logger;
+import io.vproxy.base.util.OS;
+import io.vproxy.jdkman.ex.ErrorResult;
+import io.vproxy.jdkman.util.Utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.DigestInputStream;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipInputStream;
+
+// extracts a .tar.gz or .zip jdk archive in one pass:
+// the file is read once, the sha-256 is calculated on the compressed bytes while they are decompressed,
+// and the entries are written as soon as they are read, nothing is buffered in memory or on disk.
+// entries never escape the target directory: paths with `..` are rejected, and no link is followed when writing
+public class ArchiveExtractor {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BLOCK = 512;
+
+    private final Path target;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    // directories created or verified to be real directories (not links), relative to the target
+    private final Set<Path> dirs = new HashSet<>();
+    // directory permissions are applied last, a read-only directory would refuse its entries
+    private final Map<Path, Integer> dirModes = new LinkedHashMap<>();
+    private int entries;
+
+    private ArchiveExtractor(Path target) {
+        this.target = target;
+    }
+
+    public record Result(String sha256, int entries) {
+    }
+
+    public static boolean isSupported(String fileName) {
+        return baseName(fileName) != null;
+    }
+
+    // file name without the archive extension, or null if the format is not supported
+    public static String baseName(String fileName) {
+        for (var ext : new String[]{".tar.gz", ".tgz", ".zip"}) {
+            if (fileName.endsWith(ext) && fileName.length() > ext.length()) {
+                return fileName.substring(0, fileName.length() - ext.length());
+            }
+        }
+        return null;
+    }
+
+    // the target directory must exist and be empty
+    public static Result extract(Path archive, Path target) throws Exception {
+        var sha256 = Utils.sha256Digest();
+        var extractor = new ArchiveExtractor(target);
+        var fileName = archive.getFileName().toString();
+        try (var raw = new DigestInputStream(Files.newInputStream(archive), sha256)) {
+            if (fileName.endsWith(".zip")) {
+                try (var zip = new ZipInputStream(new BufferedInputStream(raw, BUFFER_SIZE))) {
+                    extractor.extractZip(zip);
+                    extractor.drain(raw);
+                }
+            } else {
+                try (var gzip = new GZIPInputStream(raw, BUFFER_SIZE)) {
+                    extractor.extractTar(gzip);
+                    // the tar end marker may be followed by padding, which is part of the checksum as well
+                    extractor.drain(gzip);
+                    extractor.drain(raw);
+                }
+            }
+        }
+        extractor.applyDirModes();
+        return new Result(Utils.hex(sha256.digest()), extractor.entries);
+    }
+
+    private void drain(InputStream in) throws IOException {
+        //noinspection StatementWithEmptyBody
+        while (in.read(buf) != -1) {
+        }
+    }
+
+    private void extractTar(InputStream in) throws Exception {
+        var header = new byte[BLOCK];
+        String longName = null;
+        String longLink = null;
+        Map<String, String> pax = Map.of();
+        while (true) {
+            if (in.readNBytes(header, 0, BLOCK) != BLOCK) {
+                throw new ErrorResult("unexpected end of tar archive");
+            }
+            if (isZeroBlock(header)) {
+                return;
+            }
+            var type = (char) header[156];
+            var size = parseNumber(header, 124, 12);
+            var name = parseString(header, 0, 100);
+            var prefix = parseString(header, 345, 155);
+            if (!prefix.isEmpty() && parseString(header, 257, 6).equals("ustar")) {
+                name = prefix + "/" + name;
+            }
+            var link = parseString(header, 157, 100);
+            var mode = (int) parseNumber(header, 100, 8);
+
+            // extension headers describe the next entry
+            switch (type) {
+                case 'L' -> {
+                    longName = readString(in, size);
+                    continue;
+                }
+                case 'K' -> {
+                    longLink = readString(in, size);
+                    continue;
+                }
+                case 'x' -> {
+                    pax = parsePax(readString(in, size));
+                    continue;
+                }
+                case 'g' -> {
+                    skip(in, padded(size));
+                    continue;
+                }
+            }
+            if (longName != null) {
+                name = longName;
+            }
+            if (longLink != null) {
+                link = longLink;
+            }
+            name = pax.getOrDefault("path", name);
+            link = pax.getOrDefault("linkpath", link);
+            if (pax.containsKey("size")) {
+                size = Long.parseLong(pax.get("size"));
+            }
+            longName = null;
+            longLink = null;
+            pax = Map.of();
+
+            var rel = entryPath(name);
+            switch (type) {
+                case '0', '\0', '7' -> {
+                    if (rel != null) {
+                        writeFile(rel, in, size, mode);
+                    } else {
+                        skip(in, size);
+                    }
+                    skip(in, padded(size) - size);
+                }
+                case '5' -> {
+                    if (rel != null) {
+                        mkdirs(rel);
+                        dirModes.put(rel, mode);
+                    }
+                    skip(in, padded(size));
+                }
+                case '2' -> {
+                    if (rel != null) {
+                        symlink(rel, link);
+                    }
+                    skip(in, padded(size));
+                }
+                case '1' -> {
+                    if (rel != null) {
+                        hardlink(rel, entryPath(link));
+                    }
+                    skip(in, padded(size));
+                }
+                default -> {
+                    // devices and fifos are never part of a jdk
+                    assert Logger.lowLevelDebug(STR."skipping tar entry \{name} with type \{type}");
+                    skip(in, padded(size));
+                }
+            }
+        }
+    }
+
+    private void extractZip(ZipInputStream zip) throws Exception {
+        java.util.zip.ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            var rel = entryPath(entry.getName());
+            if (rel == null) {
+                continue;
+            }
+            if (entry.isDirectory()) {
+                mkdirs(rel);
+                continue;
+            }
+            // unix modes are only recorded in the central directory at the end of the file,
+            // which is never reached when streaming, so the executables of a jdk are recognized by their location
+            var parent = rel.getParent();
+            var executable = parent != null && (parent.getFileName().toString().equals("bin")
+                                                || rel.getFileName().toString().equals("jspawnhelper")
+                                                || rel.getFileName().toString().equals("jexec"));
+            writeFile(rel, zip, -1, executable ? 0755 : 0644);
+        }
+    }
+
+    // returns null for the root entry itself, e.g. `./`
+    private static Path entryPath(String name) throws ErrorResult {
+        var n = name.replace('\\', '/');
+        while (n.startsWith("./")) {
+            n = n.substring(2);
+        }
+        if (n.startsWith("/") || (n.length() >= 2 && n.charAt(1) == ':')) {
+            throw new ErrorResult(STR."archive entry with absolute path: \{name}");
+        }
+        var parts = new ArrayList<String>();
+        for (var part : n.split("/")) {
+            if (part.isEmpty() || part.equals(".")) {
+                continue;
+            }
+            if (part.equals("..")) {
+                throw new ErrorResult(STR."archive entry escaping the target directory: \{name}");
+            }
+            parts.add(part);
+        }
+        if (parts.isEmpty()) {
+            return null;
+        }
+        return Path.of(parts.getFirst(), parts.subList(1, parts.size()).toArray(new String[0]));
+    }
+
+    // every component is checked, so that an entry cannot be written through a link extracted before
+    private void mkdirs(Path rel) throws IOException, ErrorResult {
+        Path current = null;
+        for (var part : rel) {
+            current = current == null ? part : current.resolve(part);
+            if (dirs.contains(current)) {
+                continue;
+            }
+            var path = target.resolve(current);
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                dirs.add(current);
+                continue;
+            }
+            if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+                throw new ErrorResult(STR."archive entry \{rel} conflicts with \{current}, which is not a directory");
+            }
+            Files.createDirectory(path);
+            dirs.add(current);
+        }
+    }
+
+    private Path prepareEntry(Path rel) throws IOException, ErrorResult {
+        if (rel.getParent() != null) {
+            mkdirs(rel.getParent());
+        }
+        var path = target.resolve(rel);
+        // later entries replace the former ones, the same as tar
+        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            throw new ErrorResult(STR."archive entry \{rel} conflicts with a directory");
+        }
+        Files.deleteIfExists(path);
+        ++entries;
+        return path;
+    }
+
+    // size < 0 means reading until the end of the stream
+    private void writeFile(Path rel, InputStream in, long size, int mode) throws IOException, ErrorResult {
+        var path = prepareEntry(rel);
+        try (var out = Files.newOutputStream(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            var remaining = size;
+            while (size < 0 || remaining > 0) {
+                var n = in.read(buf, 0, size < 0 ? buf.length : (int) Math.min(buf.length, remaining));
+                if (n == -1) {
+                    if (size < 0) {
+                        break;
+                    }
+                    throw new ErrorResult(STR."unexpected end of archive when extracting \{rel}");
+                }
+                out.write(buf, 0, n);
+                remaining -= n;
+            }
+        }
+        // always readable by the owner, otherwise the jdk could not be probed
+        setMode(path, mode | 0400);
+    }
+
+    // the link target is not checked, it's never followed when extracting
+    private void symlink(Path rel, String link) throws IOException, ErrorResult {
+        var path = prepareEntry(rel);
+        try {
+            Files.createSymbolicLink(path, Path.of(link));
+        } catch (IOException | UnsupportedOperationException e) {
+            // e.g. windows without the privilege, a jdk works without the links
+            Logger.warn(LogType.FILE_ERROR, STR."failed to create symbolic link \{path} -> \{link}", e);
+        }
+    }
+
+    private void hardlink(Path rel, Path linkRel) throws IOException, ErrorResult {
+        if (linkRel == null) {
+            throw new ErrorResult(STR."archive entry \{rel} links to the root directory");
+        }
+        // the directories on the way are followed by the link and the copy,
+        // so they must be real directories in the target, not links extracted before
+        for (var dir = linkRel.getParent(); dir != null; dir = dir.getParent()) {
+            if (!dirs.contains(dir)) {
+                throw new ErrorResult(STR."archive entry \{rel} links to \{linkRel}, which is not in an extracted directory");
+            }
+        }
+        var existing = target.resolve(linkRel);
+        if (!Files.isRegularFile(existing, LinkOption.NOFOLLOW_LINKS)) {
+            throw new ErrorResult(STR."archive entry \{rel} links to \{linkRel}, which is not extracted");
+        }
+        var path = prepareEntry(rel);
+        try {
+            Files.createLink(path, existing);
+        } catch (IOException | UnsupportedOperationException _) {
+            Files.copy(existing, path, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+
+    private void applyDirModes() throws IOException {
+        var ls = new ArrayList<>(dirModes.entrySet());
+        // children first
+        Collections.reverse(ls);
+        for (var entry : ls) {
+            setMode(target.resolve(entry.getKey()), entry.getValue() | 0700);
+        }
+    }
+
+    private static void setMode(Path path, int mode) throws IOException {
+        if (OS.isWindows()) {
+            return;
+        }
+        var permissions = EnumSet.noneOf(PosixFilePermission.class);
+        var values = PosixFilePermission.values(); // OWNER_READ ... OTHERS_EXECUTE
+        for (int i = 0; i < values.length; ++i) {
+            if ((mode & (1 << (values.length - 1 - i))) != 0) {
+                permissions.add(values[i]);
+            }
+        }
+        Files.setPosixFilePermissions(path, permissions);
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (var b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String parseString(byte[] header, int off, int len) {
+        int n = 0;
+        while (n < len && header[off + n] != 0) {
+            ++n;
+        }
+        return new String(header, off, n, StandardCharsets.UTF_8);
+    }
+
+    // octal, or base-256 (gnu) when the highest bit is set
+    private static long parseNumber(byte[] header, int off, int len) throws ErrorResult {
+        if ((header[off] & 0x80) != 0) {
+            long n = header[off] & 0x7f;
+            for (int i = 1; i < len; ++i) {
+                n = (n << 8) | (header[off + i] & 0xff);
+            }
+            return n;
+        }
+        long n = 0;
+        for (int i = 0; i < len; ++i) {
+            var c = header[off + i];
+            if (c == 0 || c == ' ') {
+                if (n != 0) {
+                    break;
+                }
+                continue;
+            }
+            if (c < '0' || c > '7') {
+                throw new ErrorResult("invalid number in tar header");
+            }
+            n = n * 8 + (c - '0');
+        }
+        return n;
+    }
+
+    private static long padded(long size) {
+        return (size + BLOCK - 1) / BLOCK * BLOCK;
+    }
+
+    private void skip(InputStream in, long n) throws IOException, ErrorResult {
+        while (n > 0) {
+            var r = in.read(buf, 0, (int) Math.min(buf.length, n));
+            if (r == -1) {
+                throw new ErrorResult("unexpected end of tar archive");
+            }
+            n -= r;
+        }
+    }
+
+    private String readString(InputStream in, long size) throws IOException, ErrorResult {
+        if (size > 1024 * 1024) {
+            throw new ErrorResult("tar extension header too large");
+        }
+        var bytes = in.readNBytes((int) size);
+        if (bytes.length != size) {
+            throw new ErrorResult("unexpected end of tar archive");
+        }
+        skip(in, padded(size) - size);
+        var n = bytes.length;
+        while (n > 0 && bytes[n - 1] == 0) {
+            --n;
+        }
+        return new String(bytes, 0, n, StandardCharsets.UTF_8);
+    }
+
+    // records of `<length> <key>=<value>\n`, the length counts the whole record in bytes
+    private static Map<String, String> parsePax(String content) throws ErrorResult {
+        var bytes = content.getBytes(StandardCharsets.UTF_8);
+        var result = new HashMap<String, String>();
+        int off = 0;
+        while (off < bytes.length) {
+            int sp = off;
+            while (sp < bytes.length && bytes[sp] != ' ') {
+                ++sp;
+            }
+            int len;
+            try {
+                len = Integer.parseInt(new String(bytes, off, sp - off, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException _) {
+                throw new ErrorResult("invalid pax header");
+            }
+            if (len <= sp - off || off + len > bytes.length) {
+                throw new ErrorResult("invalid pax header");
+            }
+            var record = new String(bytes, sp + 1, off + len - sp - 2, StandardCharsets.UTF_8);
+            var eq = record.indexOf('=');
+            if (eq > 0) {
+                result.put(record.substring(0, eq), record.substring(eq + 1));
+            }
+            off += len;
+        }
+        return result;
+    }
+}
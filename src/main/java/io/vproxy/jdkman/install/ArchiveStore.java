@@ -0,0 +1,483 @@
+package io.vproxy.jdkman.install;
+
+import io.vproxy.base.util.LogType;
+import io.vproxy.base.util.Logger;
+import io.vproxy.jdkman.entity.JDKManConfig;
+import io.vproxy.jdkman.ex.ErrorResult;
+import io.vproxy.jdkman.util.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// content-addressed store of jdk archives and their unpacked trees, keyed by the sha-256 of the archive.
+// the directory may be shared by many processes on one host (e.g. ci workers), set by JDKMAN_STORE or --store:
+//
+//   archives/<sha256><ext>    the archive, hard linked from the installed file when possible
+//   trees/<sha256>/           the unpacked archive, registered jdk homes point into it
+//   entries/<sha256>          `<size> <archive name>`, the mtime is the last time the entry was used
+//   refs/<sha256>/<md5>       path of a registry (jdkman config) which registered a home in the tree
+//   locks/<sha256>.lock       held while the entry is being unpacked or removed
+//   gc.lock                   held while evicting
+//
+// an entry is unpacked only once: the installer holds the entry lock, and others wait for it then reuse the tree.
+// eviction is lru, bounded by the total size, and an entry is never removed if a registry references the tree
+public class ArchiveStore {
+    public static final long DEFAULT_MAX_SIZE = 10L * 1024 * 1024 * 1024;
+    // the home is registered after the entry is unlocked (when the config is written),
+    // so recently used entries are never evicted, which also protects the temporary directories being extracted
+    private static final long MIN_IDLE_MILLIS = 10 * 60 * 1000;
+
+    private final Path dir;
+
+    public ArchiveStore(Path dir) {
+        this.dir = dir.toAbsolutePath();
+    }
+
+    // null if JDKMAN_STORE is not set
+    public static ArchiveStore fromEnv() {
+        var env = System.getenv("JDKMAN_STORE");
+        if (env == null || env.isBlank()) {
+            return null;
+        }
+        return new ArchiveStore(Path.of(env));
+    }
+
+    // JDKMAN_STORE_MAX_SIZE, e.g. 20g
+    public static long maxSizeFromEnv() throws ErrorResult {
+        var env = System.getenv("JDKMAN_STORE_MAX_SIZE");
+        if (env == null || env.isBlank()) {
+            return DEFAULT_MAX_SIZE;
+        }
+        var n = parseSize(env);
+        if (n < 0) {
+            throw new ErrorResult(STR."invalid JDKMAN_STORE_MAX_SIZE: \{env}, expecting a size like 512m or 20g");
+        }
+        return n;
+    }
+
+    // bytes with an optional k/m/g/t suffix (powers of 1024), or -1 if invalid
+    public static long parseSize(String s) {
+        s = s.trim().toLowerCase();
+        var unit = 1L;
+        if (!s.isEmpty()) {
+            switch (s.charAt(s.length() - 1)) {
+                case 'k' -> unit = 1L << 10;
+                case 'm' -> unit = 1L << 20;
+                case 'g' -> unit = 1L << 30;
+                case 't' -> unit = 1L << 40;
+            }
+            if (unit != 1) {
+                s = s.substring(0, s.length() - 1);
+            }
+        }
+        if (!Utils.isNonNegativeInteger(s) || s.length() > 12) {
+            return -1;
+        }
+        return Long.parseLong(s) * unit;
+    }
+
+    public Path dir() {
+        return dir;
+    }
+
+    public record Entry(String sha256, long size, String archiveName, long lastUsed, boolean unpacked) {
+    }
+
+    public record Unpacked(String sha256, Path tree, boolean extracted) {
+    }
+
+    // returns the unpacked tree of the archive, the expected checksum is nullable.
+    // when the expected checksum is known and the tree exists, the archive is not read at all
+    public Unpacked unpack(Path archive, String expected) throws Exception {
+        var sha256 = expected == null ? Utils.fileSHA256(archive.toFile()) : expected;
+        try (var _ = lock(sha256)) {
+            var tree = tree(sha256);
+            if (Files.isDirectory(tree)) {
+                touch(sha256);
+                return new Unpacked(sha256, tree, false);
+            }
+            extract(archive, sha256);
+            storeArchive(archive, sha256);
+            writeEntry(sha256, archive.getFileName().toString());
+            return new Unpacked(sha256, tree, true);
+        }
+    }
+
+    // re-unpacks the stored archive if the tree is evicted
+    public Unpacked unpack(String sha256) throws Exception {
+        try (var _ = lock(sha256)) {
+            var tree = tree(sha256);
+            if (Files.isDirectory(tree)) {
+                touch(sha256);
+                return new Unpacked(sha256, tree, false);
+            }
+            var archive = storedArchive(sha256);
+            if (archive == null) {
+                throw new ErrorResult(STR."sha256:\{sha256} is not in the store \{dir}");
+            }
+            extract(archive, sha256);
+            writeEntry(sha256, readEntryName(sha256));
+            return new Unpacked(sha256, tree, true);
+        }
+    }
+
+    private void extract(Path archive, String sha256) throws Exception {
+        var trees = dir.resolve("trees");
+        Files.createDirectories(trees);
+        var tmp = trees.resolve(STR.".\{sha256}.\{ProcessHandle.current().pid()}.tmp");
+        Utils.deleteRecursively(tmp);
+        Files.createDirectory(tmp);
+        try {
+            var result = ArchiveExtractor.extract(archive, tmp);
+            if (!result.sha256().equals(sha256)) {
+                throw new ErrorResult(STR."checksum mismatch: expecting \{sha256}, but got \{result.sha256()}");
+            }
+            Files.move(tmp, tree(sha256), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Utils.deleteRecursively(tmp);
+        }
+    }
+
+    private void storeArchive(Path archive, String sha256) throws IOException {
+        if (storedArchive(sha256) != null) {
+            return;
+        }
+        var archives = dir.resolve("archives");
+        Files.createDirectories(archives);
+        var name = archive.getFileName().toString();
+        var stored = archives.resolve(sha256 + name.substring(ArchiveExtractor.baseName(name).length()));
+        var tmp = archives.resolve(STR.".\{sha256}.\{ProcessHandle.current().pid()}.tmp");
+        try {
+            Files.deleteIfExists(tmp);
+            try {
+                Files.createLink(tmp, archive);
+            } catch (IOException | UnsupportedOperationException _) {
+                // another filesystem
+                Files.copy(archive, tmp);
+            }
+            Files.move(tmp, stored, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Path storedArchive(String sha256) throws IOException {
+        var archives = dir.resolve("archives");
+        if (!Files.isDirectory(archives)) {
+            return null;
+        }
+        try (var stream = Files.newDirectoryStream(archives, sha256 + ".*")) {
+            for (var p : stream) {
+                if (ArchiveExtractor.isSupported(p.getFileName().toString())) {
+                    return p;
+                }
+            }
+        }
+        return null;
+    }
+
+    public Path tree(String sha256) {
+        return dir.resolve("trees").resolve(sha256);
+    }
+
+    private Path entryFile(String sha256) {
+        return dir.resolve("entries").resolve(sha256);
+    }
+
+    private void writeEntry(String sha256, String archiveName) throws IOException {
+        var size = sizeOf(tree(sha256));
+        var archive = storedArchive(sha256);
+        if (archive != null) {
+            size += Files.size(archive);
+        }
+        var file = entryFile(sha256);
+        Files.createDirectories(file.getParent());
+        Utils.writeFileAtomically(file, STR."\{size} \{archiveName}\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String readEntryName(String sha256) {
+        var entry = readEntry(sha256);
+        return entry == null ? "?" : entry.archiveName();
+    }
+
+    private Entry readEntry(String sha256) {
+        var file = entryFile(sha256);
+        try {
+            var split = Files.readString(file).trim().split(" ", 2);
+            return new Entry(sha256, Long.parseLong(split[0]), split.length > 1 ? split[1] : "?",
+                Files.getLastModifiedTime(file).toMillis(), Files.isDirectory(tree(sha256)));
+        } catch (IOException | NumberFormatException _) {
+            return null;
+        }
+    }
+
+    private void touch(String sha256) {
+        try {
+            Files.setLastModifiedTime(entryFile(sha256), FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            assert Logger.lowLevelDebug(STR."failed to touch store entry \{sha256}: \{e}");
+        }
+    }
+
+    private static long sizeOf(Path path) throws IOException {
+        var size = new long[1];
+        Files.walkFileTree(path, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    size[0] += attrs.size();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size[0];
+    }
+
+    // records that the registry has homes in the tree, checked before evicting
+    public void reference(String sha256, File configFile) throws IOException {
+        var path = configFile.getAbsolutePath();
+        var file = dir.resolve("refs").resolve(sha256).resolve(Utils.md5(path.getBytes(StandardCharsets.UTF_8)));
+        if (Files.isRegularFile(file)) {
+            return;
+        }
+        Files.createDirectories(file.getParent());
+        Utils.writeFileAtomically(file, (path + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    // least recently used first
+    public List<Entry> list() throws IOException {
+        var ls = new ArrayList<Entry>();
+        var entries = dir.resolve("entries");
+        if (!Files.isDirectory(entries)) {
+            return ls;
+        }
+        try (var stream = Files.newDirectoryStream(entries)) {
+            for (var p : stream) {
+                var name = p.getFileName().toString();
+                if (name.startsWith(".")) {
+                    continue;
+                }
+                var entry = readEntry(name);
+                if (entry != null) {
+                    ls.add(entry);
+                }
+            }
+        }
+        ls.sort(Comparator.comparingLong(Entry::lastUsed));
+        return ls;
+    }
+
+    public record GCResult(int evicted, long freed, long remaining, List<Entry> kept) {
+    }
+
+    // homes are the registered homes known by the caller, the registries recorded in refs/ are checked as well.
+    // returns null if another process is evicting
+    public GCResult gc(long maxSize, Collection<String> homes) throws IOException {
+        Files.createDirectories(dir);
+        try (var channel = FileChannel.open(dir.resolve("gc.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            var gcLock = channel.tryLock();
+            if (gcLock == null) {
+                return null;
+            }
+            removeLeftovers();
+
+            var entries = list();
+            long total = 0;
+            for (var e : entries) {
+                total += e.size();
+            }
+            var now = System.currentTimeMillis();
+            int evicted = 0;
+            long freed = 0;
+            var kept = new ArrayList<Entry>();
+            for (var e : entries) {
+                if (total <= maxSize) {
+                    break;
+                }
+                if (now - e.lastUsed() < MIN_IDLE_MILLIS) {
+                    continue;
+                }
+                try (var lock = tryLock(e.sha256())) {
+                    if (lock == null) {
+                        // being unpacked
+                        continue;
+                    }
+                    if (isReferenced(e.sha256(), homes)) {
+                        kept.add(e);
+                        continue;
+                    }
+                    remove(e.sha256());
+                }
+                total -= e.size();
+                freed += e.size();
+                ++evicted;
+            }
+            return new GCResult(evicted, freed, total, kept);
+        }
+    }
+
+    private boolean isReferenced(String sha256, Collection<String> homes) throws IOException {
+        var tree = tree(sha256);
+        if (!Files.isDirectory(tree)) {
+            return false;
+        }
+        var prefix = tree.toRealPath() + File.separator;
+        for (var home : homes) {
+            if (home.startsWith(prefix)) {
+                return true;
+            }
+        }
+        var refs = dir.resolve("refs").resolve(sha256);
+        if (!Files.isDirectory(refs)) {
+            return false;
+        }
+        var referenced = false;
+        try (var stream = Files.newDirectoryStream(refs)) {
+            for (var ref : stream) {
+                var configFile = new File(Files.readString(ref).trim());
+                if (!configFile.isFile()) {
+                    Files.deleteIfExists(ref);
+                    continue;
+                }
+                JDKManConfig config;
+                try {
+                    config = Utils.readConfig(configFile);
+                } catch (Exception e) {
+                    // keep the tree if not sure
+                    Logger.warn(LogType.INVALID_EXTERNAL_DATA, STR."failed to read \{configFile} referencing \{tree}", e);
+                    referenced = true;
+                    continue;
+                }
+                var found = false;
+                for (var jdk : config.getJdks()) {
+                    if (jdk.getHome().startsWith(prefix)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (found) {
+                    referenced = true;
+                } else {
+                    Files.deleteIfExists(ref);
+                }
+            }
+        }
+        return referenced;
+    }
+
+    // the tree is renamed before deleting, so it's either complete or absent for the readers.
+    // the entry file is removed last, otherwise a partially removed entry would never be found again
+    private void remove(String sha256) throws IOException {
+        var tree = tree(sha256);
+        if (Files.isDirectory(tree)) {
+            var trash = tree.resolveSibling(STR.".\{sha256}.\{ProcessHandle.current().pid()}.trash");
+            Files.move(tree, trash, StandardCopyOption.ATOMIC_MOVE);
+            Utils.deleteRecursively(trash);
+        }
+        var archive = storedArchive(sha256);
+        if (archive != null) {
+            Files.delete(archive);
+        }
+        Utils.deleteRecursively(dir.resolve("refs").resolve(sha256));
+        Files.deleteIfExists(entryFile(sha256));
+    }
+
+    // temporary files left by killed processes
+    private void removeLeftovers() throws IOException {
+        var now = System.currentTimeMillis();
+        for (var sub : new String[]{"trees", "archives"}) {
+            var d = dir.resolve(sub);
+            if (!Files.isDirectory(d)) {
+                continue;
+            }
+            try (var stream = Files.newDirectoryStream(d, ".*")) {
+                for (var p : stream) {
+                    if (now - Files.getLastModifiedTime(p, LinkOption.NOFOLLOW_LINKS).toMillis() < MIN_IDLE_MILLIS) {
+                        continue;
+                    }
+                    assert Logger.lowLevelDebug(STR."removing leftover \{p}");
+                    Utils.deleteRecursively(p);
+                }
+            }
+        }
+    }
+
+    private Path lockFile(String sha256) {
+        return dir.resolve("locks").resolve(sha256 + ".lock");
+    }
+
+    // file locks are held by the process, so the threads of one process are excluded by the local locks
+    private static final Map<String, ReentrantLock> localLocks = new ConcurrentHashMap<>();
+
+    private record Held(ReentrantLock local, FileChannel channel) implements AutoCloseable {
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                local.unlock();
+            }
+        }
+    }
+
+    private Held lock(String sha256) throws IOException {
+        var local = localLocks.computeIfAbsent(sha256, _ -> new ReentrantLock());
+        local.lock();
+        try {
+            var channel = openLockFile(sha256);
+            try {
+                channel.lock();
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            return new Held(local, channel);
+        } catch (IOException | RuntimeException e) {
+            local.unlock();
+            throw e;
+        }
+    }
+
+    // null if the lock is held by another thread or process
+    private Held tryLock(String sha256) throws IOException {
+        var local = localLocks.computeIfAbsent(sha256, _ -> new ReentrantLock());
+        if (!local.tryLock()) {
+            return null;
+        }
+        try {
+            var channel = openLockFile(sha256);
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            if (lock == null) {
+                channel.close();
+                local.unlock();
+                return null;
+            }
+            return new Held(local, channel);
+        } catch (IOException | RuntimeException e) {
+            local.unlock();
+            throw e;
+        }
+    }
+
+    // the lock files are never deleted, a process waiting on a deleted file would not exclude the others
+    private FileChannel openLockFile(String sha256) throws IOException {
+        var file = dir.resolve("locks").resolve(sha256 + ".lock");
+        Files.createDirectories(file.getParent());
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+}
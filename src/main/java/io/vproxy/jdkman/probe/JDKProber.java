@@ -0,0 +1,10 @@
+package io.vproxy.jdkman.probe;
+
+import io.vproxy.jdkman.entity.JDKInfoMatcher;
+
+public interface JDKProber {
+    String name();
+
+    // throws exception if the version cannot be retrieved by this prober
+    JDKInfoMatcher probe(String javaHome, long timeoutMillis) throws Exception;
+}
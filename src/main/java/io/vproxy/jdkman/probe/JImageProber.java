@@ -0,0 +1,248 @@
+package io.vproxy.jdkman.probe;
+
+import io.vproxy.jdkman.entity.JDKInfoMatcher;
+import io.vproxy.jdkman.ex.ErrorResult;
+import io.vproxy.jdkman.util.Utils;
+
+import java.io.IOException;
+import java.lang.module.ModuleDescriptor;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// reads $JAVA_HOME/lib/modules (the jimage file, jdk 9+)
+// the version comes from the java.base module descriptor,
+// and the runtime version (with build) comes from the constant pool of java.lang.VersionProps
+public class JImageProber implements JDKProber {
+    private static final int MAGIC = 0xCAFEDADA;
+    private static final int MAJOR_VERSION = 1;
+    private static final int HEADER_SIZE = 7 * 4;
+    private static final int HASH_MULTIPLIER = 0x01000193;
+    private static final int POSITIVE_MASK = 0x7FFFFFFF;
+
+    private static final int ATTRIBUTE_MODULE = 1;
+    private static final int ATTRIBUTE_PARENT = 2;
+    private static final int ATTRIBUTE_BASE = 3;
+    private static final int ATTRIBUTE_EXTENSION = 4;
+    private static final int ATTRIBUTE_OFFSET = 5;
+    private static final int ATTRIBUTE_COMPRESSED = 6;
+    private static final int ATTRIBUTE_UNCOMPRESSED = 7;
+    private static final int ATTRIBUTE_COUNT = 8;
+
+    @Override
+    public String name() {
+        return "jimage";
+    }
+
+    @Override
+    public JDKInfoMatcher probe(String javaHome, long timeoutMillis) throws Exception {
+        var path = Path.of(javaHome, "lib", "modules");
+        if (!Files.isRegularFile(path)) {
+            throw new ErrorResult(STR."\{path} does not exist");
+        }
+        // same as the release prober, a jdk built for another platform is left to the process prober
+        var release = ReleaseFile.load(javaHome);
+        if (release != null) {
+            release.checkPlatform(javaHome);
+        }
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new ErrorResult(STR."\{path} is too large");
+            }
+            var image = new Image(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            // the byte order tells the platform as well, when the release file is missing
+            if (image.buf.order() != ByteOrder.nativeOrder()) {
+                throw new ErrorResult(STR."\{path} is built for a platform with \{image.buf.order()} byte order");
+            }
+
+            var moduleInfo = image.read("/java.base/module-info.class");
+            if (moduleInfo == null) {
+                throw new ErrorResult(STR."java.base module-info.class not found in \{path}");
+            }
+            var version = ModuleDescriptor.read(moduleInfo).rawVersion().orElse(null);
+            if (version == null) {
+                throw new ErrorResult(STR."java.base module in \{path} doesn't have version");
+            }
+            var versionInfo = Utils.parseVersion(version);
+
+            var versionProps = image.read("/java.base/java/lang/VersionProps.class");
+            if (versionProps == null) {
+                return versionInfo;
+            }
+            var runtimeVersion = findUtf8Constant(versionProps, version + "+");
+            if (runtimeVersion == null) {
+                return versionInfo;
+            }
+            var detailedVersionInfo = Utils.parseVersion(runtimeVersion);
+            ProberChain.checkDetailedVersion(versionInfo, detailedVersionInfo, STR."""
+                java.base version: \{version}
+                runtime version: \{runtimeVersion}""");
+            return detailedVersionInfo;
+        }
+    }
+
+    private static class Image {
+        private final Path path;
+        private final ByteBuffer buf;
+        private final int tableLength;
+        private final int redirectOffset;
+        private final int offsetsOffset;
+        private final int locationsOffset;
+        private final int stringsOffset;
+        private final int indexSize;
+
+        Image(Path path, ByteBuffer buf) throws ErrorResult {
+            this.path = path;
+            this.buf = buf;
+            if (buf.limit() < HEADER_SIZE) {
+                throw new ErrorResult(STR."\{path} is not a valid jimage file: too short");
+            }
+            // the jimage file is written in native byte order
+            buf.order(ByteOrder.BIG_ENDIAN);
+            if (buf.getInt(0) != MAGIC) {
+                buf.order(ByteOrder.LITTLE_ENDIAN);
+                if (buf.getInt(0) != MAGIC) {
+                    throw new ErrorResult(STR."\{path} is not a valid jimage file: magic mismatch");
+                }
+            }
+            var version = buf.getInt(4);
+            if (version >>> 16 != MAJOR_VERSION) {
+                throw new ErrorResult(STR."\{path} is not a supported jimage file: version \{version >>> 16}.\{version & 0xffff}");
+            }
+            tableLength = buf.getInt(16);
+            var locationsSize = buf.getInt(20);
+            var stringsSize = buf.getInt(24);
+            redirectOffset = HEADER_SIZE;
+            offsetsOffset = redirectOffset + tableLength * 4;
+            locationsOffset = offsetsOffset + tableLength * 4;
+            stringsOffset = locationsOffset + locationsSize;
+            indexSize = stringsOffset + stringsSize;
+            if (tableLength <= 0 || indexSize > buf.limit()) {
+                throw new ErrorResult(STR."\{path} is not a valid jimage file: invalid header");
+            }
+        }
+
+        // returns null if not found
+        ByteBuffer read(String name) throws ErrorResult {
+            var index = buf.getInt(redirectOffset + (hashCode(name, HASH_MULTIPLIER) % tableLength) * 4);
+            if (index < 0) {
+                // index is the twos complement of location attributes index
+                index = -index - 1;
+            } else if (index > 0) {
+                // index is the hash seed needed to compute location attributes index
+                index = hashCode(name, index) % tableLength;
+            } else {
+                return null;
+            }
+            var attributes = readAttributes(locationsOffset + buf.getInt(offsetsOffset + index * 4));
+            // the perfect hash maps any name to some location, so the name must be verified
+            if (!name.equals(fullName(attributes))) {
+                return null;
+            }
+            if (attributes[ATTRIBUTE_COMPRESSED] != 0) {
+                throw new ErrorResult(STR."\{name} is compressed in \{path}");
+            }
+            var offset = indexSize + attributes[ATTRIBUTE_OFFSET];
+            var size = attributes[ATTRIBUTE_UNCOMPRESSED];
+            if (offset + size > buf.limit()) {
+                throw new ErrorResult(STR."\{name} is out of bounds in \{path}");
+            }
+            return buf.slice((int) offset, (int) size);
+        }
+
+        private long[] readAttributes(int offset) {
+            var attributes = new long[ATTRIBUTE_COUNT];
+            while (offset < stringsOffset) {
+                var data = buf.get(offset++) & 0xff;
+                var kind = data >>> 3;
+                if (kind == 0) { // end
+                    break;
+                }
+                var length = (data & 0x7) + 1;
+                long value = 0;
+                for (int i = 0; i < length; ++i) {
+                    value <<= 8;
+                    value |= buf.get(offset++) & 0xff;
+                }
+                if (kind < ATTRIBUTE_COUNT) {
+                    attributes[kind] = value;
+                }
+            }
+            return attributes;
+        }
+
+        private String string(long offset) {
+            var start = stringsOffset + (int) offset;
+            var end = start;
+            while (end < indexSize && buf.get(end) != 0) {
+                ++end;
+            }
+            var bytes = new byte[end - start];
+            buf.get(start, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private String fullName(long[] attributes) {
+            var module = string(attributes[ATTRIBUTE_MODULE]);
+            var parent = string(attributes[ATTRIBUTE_PARENT]);
+            var base = string(attributes[ATTRIBUTE_BASE]);
+            var extension = string(attributes[ATTRIBUTE_EXTENSION]);
+            var sb = new StringBuilder();
+            if (!module.isEmpty()) {
+                sb.append('/').append(module).append('/');
+            }
+            if (!parent.isEmpty()) {
+                sb.append(parent).append('/');
+            }
+            sb.append(base);
+            if (!extension.isEmpty()) {
+                sb.append('.').append(extension);
+            }
+            return sb.toString();
+        }
+
+        private static int hashCode(String name, int seed) {
+            for (var b : name.getBytes(StandardCharsets.UTF_8)) {
+                seed = (seed * HASH_MULTIPLIER) ^ (b & 0xff);
+            }
+            return seed & POSITIVE_MASK;
+        }
+    }
+
+    // returns the first CONSTANT_Utf8 entry starting with the prefix, or null if not found
+    private static String findUtf8Constant(ByteBuffer classFile, String prefix) throws IOException {
+        var buf = classFile.duplicate().order(ByteOrder.BIG_ENDIAN);
+        try {
+            buf.position(8); // magic, minor_version, major_version
+            var count = buf.getShort() & 0xffff;
+            for (int i = 1; i < count; ++i) {
+                var tag = buf.get();
+                switch (tag) {
+                    case 1 -> { // Utf8
+                        var bytes = new byte[buf.getShort() & 0xffff];
+                        buf.get(bytes);
+                        var s = new String(bytes, StandardCharsets.UTF_8);
+                        if (s.startsWith(prefix)) {
+                            return s;
+                        }
+                    }
+                    case 7, 8, 16, 19, 20 -> buf.position(buf.position() + 2);
+                    case 15 -> buf.position(buf.position() + 3);
+                    case 3, 4, 9, 10, 11, 12, 17, 18 -> buf.position(buf.position() + 4);
+                    case 5, 6 -> {
+                        buf.position(buf.position() + 8);
+                        ++i; // takes two entries
+                    }
+                    default -> throw new IOException(STR."unknown constant pool tag \{tag}");
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("invalid class file", e);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,118 @@
+package io.vproxy.jdkman.probe;
+
+import io.vproxy.base.util.Logger;
+import io.vproxy.jdkman.entity.JDKInfo;
+import io.vproxy.jdkman.entity.JDKInfoMatcher;
+import io.vproxy.jdkman.ex.ErrorResult;
+import io.vproxy.jdkman.util.Utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+// tries the probers one by one, until one of them succeeds
+// spawn-free probers come first, the process prober is the last resort
+public class ProberChain {
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static final ProberChain DEFAULT = new ProberChain(List.of(
+        new ReleaseFileProber(),
+        new JImageProber(),
+        new ProcessProber()
+    ));
+
+    private final List<JDKProber> probers;
+
+    public ProberChain(List<JDKProber> probers) {
+        this.probers = probers;
+    }
+
+    public static ProberChain get() {
+        return DEFAULT;
+    }
+
+    public record Result(JDKInfo jdk, String prober) {
+    }
+
+    public Result probe(String javaHome, long timeoutMillis) throws Exception {
+        // calculated before probing, so that modifications during probing would be detected next time
+        var fingerprint = Utils.homeFingerprint(javaHome);
+        Exception lastErr = null;
+        for (var prober : probers) {
+            JDKInfoMatcher versionInfo;
+            try {
+                versionInfo = prober.probe(javaHome, timeoutMillis);
+            } catch (Exception e) {
+                assert Logger.lowLevelDebug(STR."prober \{prober.name()} failed on \{javaHome}: \{e}");
+                lastErr = e;
+                continue;
+            }
+
+            String implementor = null;
+            var release = ReleaseFile.load(javaHome);
+            if (release != null) {
+                implementor = release.get("IMPLEMENTOR");
+            }
+
+            var jdk = new JDKInfo(versionInfo);
+            jdk.setHome(javaHome);
+            jdk.setImplementor(implementor);
+            jdk.setFingerprint(fingerprint);
+            return new Result(jdk, prober.name());
+        }
+        if (lastErr == null) {
+            throw new ErrorResult(STR."no prober available for \{javaHome}");
+        }
+        throw lastErr;
+    }
+
+    public record Outcome(String javaHome, Result result, Exception error) {
+    }
+
+    // probe the homes concurrently on virtual threads, the outcomes are in the same order as the input
+    public List<Outcome> probeAll(List<String> javaHomes, int parallelism, long timeoutMillis) {
+        var outcomes = new Outcome[javaHomes.size()];
+        var semaphore = new Semaphore(parallelism);
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < javaHomes.size(); ++i) {
+                final int idx = i;
+                var javaHome = javaHomes.get(i);
+                executor.submit(() -> {
+                    try {
+                        semaphore.acquire();
+                    } catch (InterruptedException e) {
+                        outcomes[idx] = new Outcome(javaHome, null, e);
+                        return;
+                    }
+                    try {
+                        outcomes[idx] = new Outcome(javaHome, probe(javaHome, timeoutMillis), null);
+                    } catch (Exception e) {
+                        outcomes[idx] = new Outcome(javaHome, null, e);
+                    } finally {
+                        semaphore.release();
+                    }
+                });
+            }
+        }
+        return Arrays.asList(outcomes);
+    }
+
+    public static void checkDetailedVersion(JDKInfoMatcher versionInfo, JDKInfoMatcher detailedVersionInfo, String output) throws ErrorResult {
+        if (versionInfo.majorVersion != detailedVersionInfo.majorVersion) {
+            throw new ErrorResult(STR."""
+            major version mismatch:
+            \{output}""");
+        }
+        if (!Objects.equals(versionInfo.minorVersion, detailedVersionInfo.minorVersion)) {
+            throw new ErrorResult(STR."""
+            minor version mismatch:
+            \{output}""");
+        }
+        if (!Objects.equals(versionInfo.patchVersion, detailedVersionInfo.patchVersion)) {
+            throw new ErrorResult(STR."""
+            patch version mismatch:
+            \{output}""");
+        }
+    }
+}
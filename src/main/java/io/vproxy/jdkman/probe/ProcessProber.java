@@ -0,0 +1,88 @@
+package io.vproxy.jdkman.probe;
+
+import io.vproxy.jdkman.entity.JDKInfoMatcher;
+import io.vproxy.jdkman.ex.ErrorResult;
+import io.vproxy.jdkman.util.Utils;
+
+import java.nio.file.Path;
+import java.util.List;
+
+// runs `java -version` and parses the output
+public class ProcessProber implements JDKProber {
+    @Override
+    public String name() {
+        return "process";
+    }
+
+    @Override
+    public JDKInfoMatcher probe(String javaHome, long timeoutMillis) throws Exception {
+        var javaPath = Path.of(javaHome, "bin", "java").toAbsolutePath();
+        var result = Utils.execute(List.of(javaPath.toString(), "-version"), timeoutMillis);
+        var exitCode = result.exitCode();
+        var stdout = result.stdout();
+        var stderr = result.stderr();
+        if (exitCode != 0) {
+            throw new ErrorResult(STR."""
+            unable to retrieve java version: exit code: \{exitCode}
+            stdout:
+            \{stdout}
+            stderr:
+            \{stderr}""");
+        }
+
+        var lines = stderr.split("\n");
+        if (lines.length == 0) {
+            throw new ErrorResult(STR."""
+            missing java version: empty output
+            stdout:
+            \{stdout}
+            stderr:
+            \{stderr}""");
+        }
+        var firstLine = lines[0].trim();
+        if (!firstLine.contains("\"")) {
+            throw new ErrorResult(STR."""
+            missing java version: first line doesn't contain `"`
+            stdout:
+            \{stdout}
+            stderr:
+            \{stderr}""");
+        }
+        var split = firstLine.split("\"");
+        if (split.length < 2) {
+            throw new ErrorResult(STR."""
+            missing java version: invalid first line
+            stdout:
+            \{stdout}
+            stderr:
+            \{stderr}""");
+        }
+        var versionStr = split[1];
+        var versionInfo = Utils.parseVersion(versionStr);
+
+        if (lines.length >= 2) {
+            var detailedVersionInfo = parseLine2(lines[1]);
+            if (detailedVersionInfo != null) {
+                ProberChain.checkDetailedVersion(versionInfo, detailedVersionInfo, stderr);
+                versionInfo = detailedVersionInfo;
+            }
+        }
+        return versionInfo;
+    }
+
+    private static JDKInfoMatcher parseLine2(String secondLine) throws ErrorResult {
+        if (!secondLine.contains("(")) {
+            return null;
+        }
+        secondLine = secondLine.substring(secondLine.lastIndexOf("(") + 1);
+        if (!secondLine.contains(")")) {
+            return null;
+        }
+        secondLine = secondLine.substring(0, secondLine.indexOf(")"));
+        if (!secondLine.startsWith("build ")) {
+            return null;
+        }
+        secondLine = secondLine.substring("build ".length());
+        return Utils.parseVersion(secondLine);
+    }
+}
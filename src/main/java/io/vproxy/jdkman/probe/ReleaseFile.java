@@ -0,0 +1,86 @@
+package io.vproxy.jdkman.probe;
+
+import io.vproxy.base.util.LogType;
+import io.vproxy.base.util.Logger;
+import io.vproxy.jdkman.ex.ErrorResult;
+import vjson.JSON;
+import vjson.ex.JsonParseException;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Properties;
+
+// $JAVA_HOME/release
+public class ReleaseFile {
+    private final Properties properties;
+
+    private ReleaseFile(Properties properties) {
+        this.properties = properties;
+    }
+
+    // returns null if the release file doesn't exist
+    public static ReleaseFile load(String javaHome) throws IOException {
+        var releaseFile = Path.of(javaHome, "release").toFile();
+        if (!releaseFile.exists() || !releaseFile.isFile()) {
+            return null;
+        }
+        var p = new Properties();
+        try (var input = new FileInputStream(releaseFile)) {
+            p.load(input);
+        }
+        return new ReleaseFile(p);
+    }
+
+    public String get(String key) {
+        var value = properties.getProperty(key);
+        if (value != null && value.startsWith("\"")) {
+            JSON.String jsonStr = null;
+            try {
+                var o = JSON.parse(value);
+                if (o instanceof JSON.String s) {
+                    jsonStr = s;
+                }
+            } catch (JsonParseException e) {
+                Logger.warn(LogType.ALERT, STR."\{key} field is not a valid json string: \{value}", e);
+            }
+            if (jsonStr != null) {
+                value = jsonStr.toJavaObject();
+            }
+        }
+        return value;
+    }
+
+    // throws if OS_NAME or OS_ARCH shows that the jdk is built for another platform
+    public void checkPlatform(String javaHome) throws ErrorResult {
+        var osName = get("OS_NAME");
+        if (osName != null && !normalizeOSName(osName).equals(normalizeOSName(System.getProperty("os.name")))) {
+            throw new ErrorResult(STR."\{javaHome} is built for os \{osName}");
+        }
+        var osArch = get("OS_ARCH");
+        if (osArch != null && !normalizeOSArch(osArch).equals(normalizeOSArch(System.getProperty("os.arch")))) {
+            throw new ErrorResult(STR."\{javaHome} is built for arch \{osArch}");
+        }
+    }
+
+    private static String normalizeOSName(String name) {
+        name = name.toLowerCase(Locale.ROOT);
+        if (name.startsWith("windows")) {
+            return "windows";
+        }
+        if (name.equals("darwin") || name.startsWith("mac")) {
+            return "mac";
+        }
+        return name;
+    }
+
+    private static String normalizeOSArch(String arch) {
+        arch = arch.toLowerCase(Locale.ROOT);
+        return switch (arch) {
+            case "amd64", "x64", "x86-64" -> "x86_64";
+            case "arm64" -> "aarch64";
+            default -> arch;
+        };
+    }
+}
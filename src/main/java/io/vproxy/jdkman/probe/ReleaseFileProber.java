@@ -0,0 +1,41 @@
+package io.vproxy.jdkman.probe;
+
+import io.vproxy.jdkman.entity.JDKInfoMatcher;
+import io.vproxy.jdkman.ex.ErrorResult;
+import io.vproxy.jdkman.util.Utils;
+
+// reads JAVA_VERSION and JAVA_RUNTIME_VERSION from $JAVA_HOME/release
+public class ReleaseFileProber implements JDKProber {
+    @Override
+    public String name() {
+        return "release";
+    }
+
+    @Override
+    public JDKInfoMatcher probe(String javaHome, long timeoutMillis) throws Exception {
+        var release = ReleaseFile.load(javaHome);
+        if (release == null) {
+            throw new ErrorResult(STR."\{javaHome} does not have release file");
+        }
+
+        // the jdk must be runnable on the current platform, otherwise let the following probers decide
+        release.checkPlatform(javaHome);
+
+        var javaVersion = release.get("JAVA_VERSION");
+        if (javaVersion == null) {
+            throw new ErrorResult(STR."missing JAVA_VERSION in \{javaHome}/release");
+        }
+        // JAVA_RUNTIME_VERSION is required to retrieve the build version,
+        // which is missing in older jdks, e.g. 1.8
+        var runtimeVersion = release.get("JAVA_RUNTIME_VERSION");
+        if (runtimeVersion == null) {
+            throw new ErrorResult(STR."missing JAVA_RUNTIME_VERSION in \{javaHome}/release");
+        }
+        var versionInfo = Utils.parseVersion(javaVersion);
+        var detailedVersionInfo = Utils.parseVersion(runtimeVersion);
+        ProberChain.checkDetailedVersion(versionInfo, detailedVersionInfo, STR."""
+            JAVA_VERSION=\{javaVersion}
+            JAVA_RUNTIME_VERSION=\{runtimeVersion}""");
+        return detailedVersionInfo;
+    }
+}
@@ -0,0 +1,14 @@
+package io.vproxy.jdkman.trace;
+
+import jdk.jfr.*;
+
+// custom events are supported by native images built with --enable-monitoring=jfr
+@Name("io.vproxy.jdkman.Phase")
+@Label("jdkman Phase")
+@Category("jdkman")
+@Description("A phase of a jdkman invocation")
+@StackTrace(false)
+class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+}
@@ -0,0 +1,98 @@
+package io.vproxy.jdkman.trace;
+
+import jdk.jfr.FlightRecorder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// phase-level timing of one invocation.
+// every phase is committed as a JFR event (io.vproxy.jdkman.Phase) when a recording is running,
+// and with `jdkman --trace ...` the phases are printed to stderr before exiting.
+// a phase which is not ended (e.g. an error is returned) is simply missing from the output
+public class Trace {
+    private static final long startNanos = System.nanoTime();
+    private static List<Phase> finished;
+
+    private Trace() {
+    }
+
+    public static void enablePrinting() {
+        finished = new ArrayList<>();
+    }
+
+    public static Phase begin(String name) {
+        return new Phase(name);
+    }
+
+    public static final class Phase {
+        private final String name;
+        private final PhaseEvent event; // null if jfr is not running
+        private final long start;
+        private long end;
+
+        private Phase(String name) {
+            this.name = name;
+            // loading an event class initializes jfr, which costs hundreds of milliseconds on jvm
+            if (FlightRecorder.isInitialized()) {
+                event = new PhaseEvent();
+                event.begin();
+            } else {
+                event = null;
+            }
+            start = System.nanoTime();
+        }
+
+        public void end() {
+            end = System.nanoTime();
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.phase = name;
+                    event.commit();
+                }
+            }
+            if (finished != null) {
+                finished.add(this);
+            }
+        }
+    }
+
+    // phases are printed in the order of begin, and indented by the phases enclosing them
+    public static void print() {
+        if (finished == null) {
+            return;
+        }
+        var total = System.nanoTime() - startNanos;
+        var ls = new ArrayList<>(finished);
+        ls.sort(Comparator.<Phase>comparingLong(p -> p.start).thenComparingLong(p -> -p.end));
+        var names = new ArrayList<String>();
+        var enclosing = new ArrayDeque<Long>();
+        int width = "total".length();
+        for (var p : ls) {
+            while (!enclosing.isEmpty() && enclosing.peek() <= p.start) {
+                enclosing.pop();
+            }
+            var name = "  ".repeat(enclosing.size()) + p.name;
+            enclosing.push(p.end);
+            names.add(name);
+            width = Math.max(width, name.length());
+        }
+        var sb = new StringBuilder();
+        for (int i = 0; i < ls.size(); ++i) {
+            line(sb, names.get(i), width, ls.get(i).end - ls.get(i).start);
+        }
+        line(sb, "total", width, total);
+        System.err.print(sb);
+        System.err.flush();
+        finished = null;
+    }
+
+    private static void line(StringBuilder sb, String name, int width, long nanos) {
+        sb.append("## jdkman trace ## ").append(name);
+        sb.append(" ".repeat(width - name.length() + 2));
+        var n = Long.toString(nanos);
+        sb.append(" ".repeat(Math.max(0, 12 - n.length()))).append(n).append(" ns\n");
+    }
+}
@@ -0,0 +1,94 @@
+package io.vproxy.jdkman.util;
+
+import io.vproxy.jdkman.entity.JDKIndex;
+import io.vproxy.jdkman.entity.JDKInfo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+// resolves many directories against one loaded config.
+// the .java-version lookup of each directory is memoized and shared by all directories below it,
+// so every ancestor is checked only once, even when resolved concurrently
+public class BatchResolver {
+    private static final int CHUNK_SIZE = 256;
+    private static final File NO_VERSION_FILE = new File("");
+
+    private final JDKIndex index;
+    private final ConcurrentHashMap<String, FutureTask<File>> versionFiles = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, FutureTask<JDKInfo>> results = new ConcurrentHashMap<>();
+
+    public BatchResolver(JDKIndex index) {
+        this.index = index;
+    }
+
+    // the result is in the same order as the input, elements are null if no jdk found
+    public JDKInfo[] resolveAll(List<File> dirs, int parallelism) throws Exception {
+        var result = new JDKInfo[dirs.size()];
+        if (parallelism <= 1 || dirs.size() <= CHUNK_SIZE) {
+            for (int i = 0; i < result.length; ++i) {
+                result[i] = resolve(dirs.get(i));
+            }
+            return result;
+        }
+        try (var executor = Executors.newFixedThreadPool(parallelism)) {
+            var futures = new ArrayList<Future<?>>();
+            for (int start = 0; start < result.length; start += CHUNK_SIZE) {
+                final int from = start;
+                final int to = Math.min(start + CHUNK_SIZE, result.length);
+                futures.add(executor.submit(() -> {
+                    for (int i = from; i < to; ++i) {
+                        result[i] = resolve(dirs.get(i));
+                    }
+                    return null;
+                }));
+            }
+            for (var f : futures) {
+                f.get();
+            }
+        }
+        return result;
+    }
+
+    public JDKInfo resolve(File dir) throws Exception {
+        var versionFile = versionFile(dir.getAbsoluteFile().toPath().normalize().toFile());
+        var key = versionFile == null ? "" : versionFile.getPath();
+        return memoized(results, key, () -> index.resolve(versionFile == null ? null : Utils.readVersionFile(versionFile)));
+    }
+
+    private File versionFile(File dir) throws Exception {
+        var file = memoized(versionFiles, dir.getPath(), () -> {
+            var f = new File(dir, ".java-version");
+            if (f.isFile()) {
+                return f;
+            }
+            var parent = dir.getParentFile();
+            if (parent == null) {
+                return NO_VERSION_FILE;
+            }
+            var found = versionFile(parent);
+            return found == null ? NO_VERSION_FILE : found;
+        });
+        return file == NO_VERSION_FILE ? null : file;
+    }
+
+    // the first caller of a key computes the value, others wait for it
+    private static <T> T memoized(ConcurrentHashMap<String, FutureTask<T>> map, String key, Callable<T> f) throws Exception {
+        var task = new FutureTask<>(f);
+        var existing = map.putIfAbsent(key, task);
+        if (existing == null) {
+            task.run();
+        } else {
+            task = existing;
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception ex) {
+                throw ex;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package io.vproxy.jdkman.util;
+
+import io.vproxy.base.Config;
+import io.vproxy.base.util.OS;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+// class data sharing archives managed by `jdkman cds`, the shims pass them to the tools (see ToolLauncher and ShimSync):
+//
+//   jdkman-cds/<hash of home>/jdk                                   `<id> <home>` of the registered jdk
+//   jdkman-cds/<hash of home>/<hash of fingerprint>/base.jsa        dumped if the jdk doesn't ship a default archive
+//   jdkman-cds/<hash of home>/<hash of fingerprint>/projects/<hash of dir>.jsa, .txt
+//                                                                   dynamic archive from `cds train` in the dir,
+//                                                                   and the dir and the training command
+//
+// the names are FNV-1a hashes (Utils.fnv1a), computed on every tool launch without loading a MessageDigest
+//
+// the tools are launched knowing only the home (resolved by the cache or the resident resolver),
+// and a registered home always belongs to one id, so the entries are looked up by the home.
+// the fingerprint (Utils.homeFingerprint) changes when the jdk is replaced, so an archive is never used with another build
+public class CdsCache {
+    public static final String BASE_ARCHIVE = "base.jsa";
+    public static final String PROJECTS = "projects";
+    // -XX:SharedArchiveFile is available since 11, dynamic archives (-XX:ArchiveClassesAtExit) since 13
+    public static final int MIN_BASE_VERSION = 11;
+    public static final int MIN_DYNAMIC_VERSION = 13;
+    // tools accepting -J<jvm option>
+    private static final Set<String> LAUNCHER_TOOLS = Set.of(
+        "jar", "jarsigner", "javac", "javadoc", "javap", "jdeprscan", "jdeps",
+        "jimage", "jlink", "jmod", "jpackage", "jshell", "keytool", "serialver");
+
+    private CdsCache() {
+    }
+
+    public static Path dir() {
+        return Path.of(Config.workingDirectoryFile("jdkman-cds"));
+    }
+
+    public static Path jdkDir(String home) {
+        return dir().resolve(Long.toHexString(Utils.fnv1a(home)));
+    }
+
+    // for the current content of the home
+    public static Path buildDir(String home) {
+        return jdkDir(home).resolve(Long.toHexString(Utils.fnv1a(Utils.homeFingerprint(home))));
+    }
+
+    public static Path projectArchive(Path buildDir, File projectDir) {
+        return buildDir.resolve(PROJECTS).resolve(Long.toHexString(Utils.fnv1a(projectDir.getAbsolutePath())) + ".jsa");
+    }
+
+    public static boolean hasDefaultArchive(String home) {
+        var server = OS.isWindows() ? Path.of(home, "bin", "server") : Path.of(home, "lib", "server");
+        return Files.isRegularFile(server.resolve("classes.jsa"));
+    }
+
+    // the value of -XX:SharedArchiveFile, a dynamic archive is on top of the base one if it's not the default archive
+    public static String sharedArchiveFile(Path base, Path top) {
+        if (top == null) {
+            return base.toString();
+        }
+        if (base == null) {
+            return top.toString();
+        }
+        return base + File.pathSeparator + top;
+    }
+
+    // arguments to be inserted before the user arguments of the tool, empty if there's no archive.
+    // called on every tool launch: a hash of the home and a single stat if `cds` is never used for the jdk,
+    // the directories are only hashed if an archive has been trained with the jdk
+    public static List<String> options(String home, String tool, File dir) {
+        if (!Files.isDirectory(jdkDir(home))) {
+            return List.of();
+        }
+        var build = buildDir(home);
+        var base = build.resolve(BASE_ARCHIVE);
+        if (!Files.isRegularFile(base)) {
+            base = null;
+        }
+        // archives trained in the directory or its parents
+        Path top = null;
+        if (tool.equals("java") && dir != null && Files.isDirectory(build.resolve(PROJECTS))) {
+            for (var d = dir.getAbsoluteFile(); d != null; d = d.getParentFile()) {
+                var archive = projectArchive(build, d);
+                if (Files.isRegularFile(archive)) {
+                    top = archive;
+                    break;
+                }
+            }
+        }
+        if (base == null && top == null) {
+            return List.of();
+        }
+        var option = STR."-XX:SharedArchiveFile=\{sharedArchiveFile(base, top)}";
+        if (tool.equals("java")) {
+            if (top == null) {
+                return List.of(option);
+            }
+            // a dynamic archive only matches the classpath it's trained with,
+            // otherwise the jvm warns then runs without it, and the user's own -Xlog options still apply
+            return List.of(option, "-Xlog:cds=off", "-Xlog:cds+dynamic=off");
+        }
+        if (top == null && LAUNCHER_TOOLS.contains(tool)) {
+            return List.of("-J" + option);
+        }
+        return List.of();
+    }
+}
@@ -0,0 +1,420 @@
+package io.vproxy.jdkman.util;
+
+import io.vproxy.base.util.LogType;
+import io.vproxy.base.util.Logger;
+import io.vproxy.base.util.OS;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// replaces identical regular files in the jdk homes with hard links to one copy.
+// files are grouped by filesystem, size and permissions first, only the groups with more than one inode are hashed,
+// then the files with the same sha-256 are linked to the inode which already has the most links.
+//
+// the manifest records the files and the known hashes of each home together with Utils.homeFingerprint,
+// homes with the same fingerprint are not walked again, the same rule used by `refresh` to detect changed homes.
+// files which are hashed or linked are checked again before being replaced
+public class Dedup {
+    private static final String MANIFEST_HEADER = "# files in the jdk homes, written by `jdkman dedup`, do not edit";
+    // the files of Utils.homeFingerprint are never replaced, otherwise the homes would be probed again
+    private static final Set<String> EXCLUDED = Set.of("release", "bin/java", "bin/java.exe");
+    // configuration which is edited in place (`keytool -importcert -cacerts`, java.security edited by the admins),
+    // a change would silently apply to every linked home: conf/ of jdk 9+, and the equivalents in jre/lib/ of jdk 8
+    private static final List<String> MUTABLE_DIRS = List.of(
+        "conf/", "lib/security/", "jre/lib/security/", "jre/lib/management/");
+
+    private static boolean excluded(String rel) {
+        if (EXCLUDED.contains(rel)) {
+            return true;
+        }
+        for (var dir : MUTABLE_DIRS) {
+            if (rel.startsWith(dir)) {
+                return true;
+            }
+        }
+        // jre/lib/*.properties of jdk 8, e.g. net.properties and logging.properties
+        return rel.startsWith("jre/lib/") && rel.endsWith(".properties") && rel.indexOf('/', "jre/lib/".length()) == -1;
+    }
+
+    private final int parallelism;
+    private final boolean dryRun;
+
+    public Dedup(int parallelism, boolean dryRun) {
+        this.parallelism = parallelism;
+        this.dryRun = dryRun;
+    }
+
+    private static final class FileInfo {
+        final Home home;
+        final String rel; // separated by `/`
+        final long size;
+        final String mode;
+        long mtime;
+        String inode;
+        String sha256; // null if not hashed
+
+        FileInfo(Home home, String rel, long size, String mode, long mtime, String inode, String sha256) {
+            this.home = home;
+            this.rel = rel;
+            this.size = size;
+            this.mode = mode;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.sha256 = sha256;
+        }
+
+        Path path() {
+            return Path.of(home.path, rel);
+        }
+
+        String group() {
+            return STR."\{home.fs} \{size} \{mode}";
+        }
+    }
+
+    private static final class Home {
+        final String path;
+        String fingerprint;
+        String fs;
+        boolean cached;
+        final List<FileInfo> files = new ArrayList<>();
+        final HomeReport report;
+
+        Home(String path) {
+            this.path = path;
+            this.report = new HomeReport(path);
+        }
+    }
+
+    public static final class HomeReport {
+        public final String home;
+        public boolean cached;
+        public int files;
+        public int linked;
+        public long reclaimed;
+        public int failed;
+        public String error;
+
+        HomeReport(String home) {
+            this.home = home;
+        }
+    }
+
+    public record Report(List<HomeReport> homes, int hashed, long shared) {
+    }
+
+    public Report run(List<String> homePaths, File manifestFile) throws IOException {
+        var manifest = readManifest(manifestFile);
+        var homes = new ArrayList<Home>();
+        for (var p : homePaths) {
+            homes.add(new Home(p));
+        }
+
+        // walk the homes which are new or changed
+        forEach(homes, home -> {
+            try {
+                load(home, manifest.get(home.path));
+            } catch (IOException e) {
+                home.report.error = e.toString();
+                home.files.clear();
+            }
+        });
+
+        // sizes with more than one inode on the same filesystem are the candidates
+        var groups = new HashMap<String, List<FileInfo>>();
+        for (var home : homes) {
+            for (var f : home.files) {
+                groups.computeIfAbsent(f.group(), _ -> new ArrayList<>()).add(f);
+            }
+        }
+        var toHash = new ArrayList<FileInfo>();
+        long shared = 0;
+        for (var group : groups.values()) {
+            var inodes = new HashSet<String>();
+            var distinct = 0;
+            for (var f : group) {
+                if (f.inode.isEmpty() || inodes.add(f.inode)) {
+                    ++distinct;
+                } else {
+                    shared += f.size;
+                }
+            }
+            if (distinct < 2) {
+                continue;
+            }
+            for (var f : group) {
+                if (f.sha256 == null) {
+                    toHash.add(f);
+                }
+            }
+        }
+        var hashed = new AtomicInteger();
+        forEach(toHash, f -> {
+            if (!unchanged(f)) {
+                return;
+            }
+            try {
+                f.sha256 = Utils.fileSHA256(f.path().toFile());
+                hashed.incrementAndGet();
+            } catch (IOException e) {
+                assert Logger.lowLevelDebug(STR."failed to hash \{f.path()}: \{e}");
+            }
+        });
+
+        for (var group : groups.values()) {
+            var bySha = new HashMap<String, List<FileInfo>>();
+            for (var f : group) {
+                if (f.sha256 != null) {
+                    bySha.computeIfAbsent(f.sha256, _ -> new ArrayList<>()).add(f);
+                }
+            }
+            for (var same : bySha.values()) {
+                link(same);
+            }
+        }
+
+        if (!dryRun) {
+            writeManifest(manifestFile, homes);
+        }
+        var reports = new ArrayList<HomeReport>();
+        for (var home : homes) {
+            home.report.files = home.files.size();
+            home.report.cached = home.cached;
+            reports.add(home.report);
+        }
+        return new Report(reports, hashed.get(), shared);
+    }
+
+    private void load(Home home, Home recorded) throws IOException {
+        home.fingerprint = Utils.homeFingerprint(home.path);
+        home.fs = filesystem(Path.of(home.path));
+        if (recorded != null && recorded.fingerprint.equals(home.fingerprint) && recorded.fs.equals(home.fs)) {
+            home.cached = true;
+            for (var f : recorded.files) {
+                home.files.add(new FileInfo(home, f.rel, f.size, f.mode, f.mtime, f.inode, f.sha256));
+            }
+            return;
+        }
+        // hashes of the files which are not changed are kept
+        var known = new HashMap<String, FileInfo>();
+        if (recorded != null) {
+            for (var f : recorded.files) {
+                known.put(f.rel, f);
+            }
+        }
+        var root = Path.of(home.path);
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!attrs.isRegularFile() || attrs.size() == 0) {
+                    return FileVisitResult.CONTINUE;
+                }
+                var rel = root.relativize(file).toString().replace(File.separatorChar, '/');
+                if (excluded(rel)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                var f = new FileInfo(home, rel, attrs.size(), mode(file),
+                    attrs.lastModifiedTime().to(TimeUnit.MILLISECONDS), inode(attrs), null);
+                var k = known.get(rel);
+                if (k != null && k.size == f.size && k.mtime == f.mtime && k.inode.equals(f.inode)) {
+                    f.sha256 = k.sha256;
+                }
+                home.files.add(f);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        home.files.sort(Comparator.comparing(f -> f.rel));
+    }
+
+    // the files are replaced by links to the inode with the most paths, the first one found on ties
+    private void link(List<FileInfo> same) {
+        var byInode = new LinkedHashMap<String, List<FileInfo>>();
+        for (var f : same) {
+            // files without a file key (windows) are always considered different
+            var key = f.inode.isEmpty() ? STR."\{f.home.path}/\{f.rel}" : f.inode;
+            byInode.computeIfAbsent(key, _ -> new ArrayList<>()).add(f);
+        }
+        if (byInode.size() < 2) {
+            return;
+        }
+        List<FileInfo> target = null;
+        for (var ls : byInode.values()) {
+            if (target == null || ls.size() > target.size()) {
+                target = ls;
+            }
+        }
+        var canonical = target.getFirst();
+        for (var ls : byInode.values()) {
+            if (ls == target) {
+                continue;
+            }
+            var allLinked = true;
+            for (var f : ls) {
+                if (dryRun) {
+                    ++f.home.report.linked;
+                    continue;
+                }
+                if (!unchanged(f) || !unchanged(canonical) || !replace(f, canonical)) {
+                    allLinked = false;
+                    ++f.home.report.failed;
+                    continue;
+                }
+                f.inode = canonical.inode;
+                f.mtime = canonical.mtime;
+                ++f.home.report.linked;
+            }
+            // space is only reclaimed when the last link of the inode is replaced
+            if (allLinked) {
+                ls.getFirst().home.report.reclaimed += ls.getFirst().size;
+            }
+        }
+    }
+
+    // the file is linked with a temporary name then renamed, so it's never missing
+    private static boolean replace(FileInfo f, FileInfo canonical) {
+        var path = f.path();
+        var tmp = path.resolveSibling(STR.".\{path.getFileName()}.\{ProcessHandle.current().pid()}.dedup");
+        try {
+            Files.deleteIfExists(tmp);
+            Files.createLink(tmp, canonical.path());
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            Logger.warn(LogType.FILE_ERROR, STR."failed to replace \{path} with a link to \{canonical.path()}", e);
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException _) {
+            }
+            return false;
+        }
+    }
+
+    private static boolean unchanged(FileInfo f) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(f.path(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException _) {
+            return false;
+        }
+        return attrs.isRegularFile() && attrs.size() == f.size
+               && attrs.lastModifiedTime().to(TimeUnit.MILLISECONDS) == f.mtime && inode(attrs).equals(f.inode);
+    }
+
+    private static String inode(BasicFileAttributes attrs) {
+        var key = attrs.fileKey();
+        return key == null ? "" : key.toString().replace(" ", "");
+    }
+
+    // links share the owner and the permissions, so only files with the same ones are linked
+    private static String mode(Path file) throws IOException {
+        if (OS.isWindows()) {
+            return "-";
+        }
+        var attrs = Files.readAttributes(file, "unix:uid,gid,mode", LinkOption.NOFOLLOW_LINKS);
+        return STR."\{attrs.get("uid")}:\{attrs.get("gid")}:\{Integer.toOctalString((int) attrs.get("mode") & 07777)}";
+    }
+
+    // links can only be created within one filesystem
+    private static String filesystem(Path home) throws IOException {
+        if (!OS.isWindows()) {
+            return String.valueOf(Files.getAttribute(home, "unix:dev"));
+        }
+        return Files.getFileStore(home).name().replace(" ", "_");
+    }
+
+    private <T> void forEach(List<T> ls, java.util.function.Consumer<T> f) {
+        var semaphore = new Semaphore(parallelism);
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (var e : ls) {
+                executor.submit(() -> {
+                    try {
+                        semaphore.acquire();
+                    } catch (InterruptedException _) {
+                        return;
+                    }
+                    try {
+                        f.accept(e);
+                    } finally {
+                        semaphore.release();
+                    }
+                });
+            }
+        }
+    }
+
+    // home <path>
+    // fingerprint <Utils.homeFingerprint> <filesystem>
+    // f <sha256|-> <size> <mtime millis> <inode|-> <uid:gid:mode> <relative path>
+    private static Map<String, Home> readManifest(File file) {
+        var result = new ConcurrentHashMap<String, Home>();
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file.toPath());
+        } catch (IOException _) {
+            return result;
+        }
+        Home home = null;
+        for (var line : lines) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            if (line.startsWith("home ")) {
+                home = new Home(line.substring("home ".length()));
+                result.put(home.path, home);
+                continue;
+            }
+            if (home == null) {
+                continue;
+            }
+            var split = line.split(" ", 7);
+            try {
+                if (split[0].equals("fingerprint") && split.length == 3) {
+                    home.fingerprint = split[1];
+                    home.fs = split[2];
+                } else if (split[0].equals("f") && split.length == 7) {
+                    home.files.add(new FileInfo(home, split[6], Long.parseLong(split[2]), split[5], Long.parseLong(split[3]),
+                        split[4].equals("-") ? "" : split[4], split[1].equals("-") ? null : split[1]));
+                } else {
+                    throw new IllegalArgumentException();
+                }
+            } catch (IllegalArgumentException _) {
+                // the home is walked again
+                Logger.warn(LogType.INVALID_EXTERNAL_DATA, STR."invalid line in \{file}: \{line}");
+                result.remove(home.path);
+                home = null;
+            }
+        }
+        result.values().removeIf(h -> h.fingerprint == null);
+        return result;
+    }
+
+    private static void writeManifest(File file, List<Home> homes) throws IOException {
+        var sb = new StringBuilder();
+        sb.append(MANIFEST_HEADER).append('\n');
+        for (var home : homes) {
+            if (home.report.error != null) {
+                continue;
+            }
+            sb.append("home ").append(home.path).append('\n');
+            sb.append("fingerprint ").append(home.fingerprint).append(' ').append(home.fs).append('\n');
+            for (var f : home.files) {
+                sb.append("f ").append(f.sha256 == null ? "-" : f.sha256)
+                    .append(' ').append(f.size)
+                    .append(' ').append(f.mtime)
+                    .append(' ').append(f.inode.isEmpty() ? "-" : f.inode)
+                    .append(' ').append(f.mode)
+                    .append(' ').append(f.rel).append('\n');
+            }
+        }
+        Utils.writeFileAtomically(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
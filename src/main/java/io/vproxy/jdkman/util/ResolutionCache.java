@@ -0,0 +1,431 @@
+package io.vproxy.jdkman.util;
+
+import io.vproxy.base.Config;
+import io.vproxy.base.util.LogType;
+import io.vproxy.base.util.Logger;
+import io.vproxy.jdkman.entity.JDKInfo;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// directory -> JAVA_HOME resolution cache
+// each entry records the fingerprints of everything the resolution depends on:
+// * the jdkman config file, and the system registry (if any)
+// * the .java-version file which is used (if any)
+// * the .java-options file which is used (if any), the parsed tool options are stored in the entry as well
+// * mtime of directories walked through before reaching the .java-version file (or the root directory),
+//   so that creating a new .java-version or .java-options file in between invalidates the entry,
+//   and the absence of .java-options next to the .java-version file
+// every entry is a small file in the cache directory, named by the hash of the directory path,
+// so a hit reads one record, a miss writes one, and concurrent shells never overwrite each other's entries.
+// the mtime of the file is the last time the entry is used
+public class ResolutionCache {
+    public static final int DEFAULT_CAPACITY = 1024;
+    private static final int MAGIC = 0x4a444b43; // JDKC
+    private static final int FORMAT_VERSION = 4;
+    // lastUsed is only refreshed when it's older than this interval,
+    // so that hot entries don't cause a metadata write on every hit
+    private static final long TOUCH_INTERVAL_MILLIS = 60_000;
+    // the directory is listed for eviction on one of this many writes, so the capacity is a soft limit
+    private static final int EVICTION_CHECK_INTERVAL = 32;
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final Path dir;
+    private final int capacity;
+
+    public ResolutionCache(Path dir, int capacity) {
+        this.dir = dir;
+        this.capacity = capacity;
+    }
+
+    public static ResolutionCache get() {
+        return new ResolutionCache(Path.of(Config.workingDirectoryFile("jdkman-which-cache")), DEFAULT_CAPACITY);
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public static class Fingerprint {
+        public final String path;
+        public final long mtime;
+        public final long size;
+
+        public Fingerprint(String path, long mtime, long size) {
+            this.path = path;
+            this.mtime = mtime;
+            this.size = size;
+        }
+
+        public static Fingerprint of(File file) {
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            } catch (IOException e) {
+                return null;
+            }
+            if (!attrs.isRegularFile()) {
+                return null;
+            }
+            return new Fingerprint(file.getAbsolutePath(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS), attrs.size());
+        }
+
+        public boolean matches() {
+            var current = of(new File(path));
+            return current != null && current.mtime == mtime && current.size == size;
+        }
+    }
+
+    public static class Entry {
+        public final String dir;
+        public final String id;
+        public final String home;
+        public final Fingerprint config;
+        public final Fingerprint systemConfig; // nullable
+        public final Fingerprint versionFile; // nullable
+        public final Fingerprint optionsFile; // nullable
+        public final Map<String, List<String>> toolOptions;
+        public final long[] walkedDirMTimes;
+        public long lastUsed;
+
+        public Entry(String dir, String id, String home, Fingerprint config, Fingerprint systemConfig, Fingerprint versionFile,
+                     Fingerprint optionsFile, Map<String, List<String>> toolOptions, long[] walkedDirMTimes, long lastUsed) {
+            this.dir = dir;
+            this.id = id;
+            this.home = home;
+            this.config = config;
+            this.systemConfig = systemConfig;
+            this.versionFile = versionFile;
+            this.optionsFile = optionsFile;
+            this.toolOptions = toolOptions;
+            this.walkedDirMTimes = walkedDirMTimes;
+            this.lastUsed = lastUsed;
+        }
+
+        // walkedDirs must be collected by Utils.findProjectFiles
+        public static Entry create(File dir, File configFile, Utils.ProjectFiles files, List<File> walkedDirs, JDKInfo jdk) {
+            var config = Fingerprint.of(configFile);
+            if (config == null) {
+                return null;
+            }
+            Fingerprint versionFileFingerprint = null;
+            if (files.versionFile() != null) {
+                versionFileFingerprint = Fingerprint.of(files.versionFile());
+                if (versionFileFingerprint == null) {
+                    return null;
+                }
+            }
+            Fingerprint optionsFileFingerprint = null;
+            Map<String, List<String>> toolOptions = Map.of();
+            if (files.optionsFile() != null) {
+                // fingerprint before reading, a modification in between only makes the entry invalid
+                optionsFileFingerprint = Fingerprint.of(files.optionsFile());
+                if (optionsFileFingerprint == null) {
+                    return null;
+                }
+                try {
+                    toolOptions = ToolOptions.read(files.optionsFile());
+                } catch (IOException _) {
+                    return null;
+                }
+            }
+            var walkedDirMTimes = new long[walkedDirs.size()];
+            for (int i = 0; i < walkedDirMTimes.length; ++i) {
+                walkedDirMTimes[i] = walkedDirs.get(i).lastModified();
+            }
+            return new Entry(dir.getAbsolutePath(), jdk.getId(), jdk.getHome(), config,
+                Fingerprint.of(SystemRegistry.configFile()), versionFileFingerprint,
+                optionsFileFingerprint, toolOptions, walkedDirMTimes, System.currentTimeMillis());
+        }
+
+        public boolean isValid(File configFile) {
+            if (!config.path.equals(configFile.getAbsolutePath()) || !config.matches()) {
+                return false;
+            }
+            // the system registry might be created, modified or removed
+            var system = Fingerprint.of(SystemRegistry.configFile());
+            if (system == null ? systemConfig != null
+                : systemConfig == null || !system.path.equals(systemConfig.path)
+                  || system.mtime != systemConfig.mtime || system.size != systemConfig.size) {
+                return false;
+            }
+            if (versionFile != null && !versionFile.matches()) {
+                return false;
+            }
+            if (optionsFile != null && !optionsFile.matches()) {
+                return false;
+            }
+            var d = new File(dir);
+            for (var mtime : walkedDirMTimes) {
+                if (d == null || d.lastModified() != mtime) {
+                    return false;
+                }
+                d = d.getParentFile();
+            }
+            if (versionFile == null) {
+                // the whole path to the root directory is walked
+                return d == null;
+            }
+            // the walk stops at the .java-version file
+            var versionDir = new File(versionFile.path).getParentFile();
+            if (d == null || !versionDir.equals(d)) {
+                return false;
+            }
+            // the mtime of the project directory is not recorded (it changes with any file in the project),
+            // so a .java-options created next to the .java-version is checked directly
+            return optionsFile != null || !new File(versionDir, Utils.JAVA_OPTIONS).isFile();
+        }
+
+        public List<String> toolOptions(String tool) {
+            return toolOptions.getOrDefault(tool, List.of());
+        }
+    }
+
+    public Entry lookup(File dir, File configFile) {
+        var file = entryFile(dir.getAbsolutePath());
+        long mtime;
+        byte[] bytes;
+        try {
+            mtime = Files.getLastModifiedTime(file).toMillis();
+            bytes = Files.readAllBytes(file);
+        } catch (NoSuchFileException _) {
+            return null;
+        } catch (IOException e) {
+            Logger.warn(LogType.FILE_ERROR, STR."failed to read resolution cache entry \{file}", e);
+            return null;
+        }
+        var entry = decode(file, bytes, mtime);
+        // the hash might collide
+        if (entry == null || !entry.dir.equals(dir.getAbsolutePath())) {
+            return null;
+        }
+        if (!entry.isValid(configFile)) {
+            return null;
+        }
+        var now = System.currentTimeMillis();
+        if (now - entry.lastUsed > TOUCH_INTERVAL_MILLIS) {
+            entry.lastUsed = now;
+            try {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(now));
+            } catch (IOException e) {
+                assert Logger.lowLevelDebug(STR."failed to touch resolution cache entry \{file}: \{e}");
+            }
+        }
+        return entry;
+    }
+
+    // walkedDirs must be collected by Utils.findProjectFiles
+    public void store(File dir, File configFile, Utils.ProjectFiles files, List<File> walkedDirs, JDKInfo jdk) {
+        var entry = Entry.create(dir, configFile, files, walkedDirs, jdk);
+        if (entry == null) {
+            return;
+        }
+        store(entry);
+    }
+
+    public void store(Entry entry) {
+        var bytes = new ByteArrayOutputStream();
+        try (var output = new DataOutputStream(bytes)) {
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            writeEntry(output, entry);
+        } catch (IOException e) {
+            Logger.shouldNotHappen(STR."writing to byte array should not fail: \{e}");
+            return;
+        }
+        // readers would never see a partially written entry, and concurrent writers of the same entry
+        // write the same content for the same state of the files
+        var file = entryFile(entry.dir);
+        try {
+            Files.createDirectories(dir);
+            var tmp = Files.createTempFile(dir, file.getFileName().toString(), TMP_SUFFIX);
+            try {
+                Files.write(tmp, bytes.toByteArray());
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            Logger.warn(LogType.FILE_ERROR, STR."failed to write resolution cache entry \{file}", e);
+            return;
+        }
+        if (ThreadLocalRandom.current().nextInt(EVICTION_CHECK_INTERVAL) == 0) {
+            evict();
+        }
+    }
+
+    // removes the least recently used entries until the capacity is satisfied
+    void evict() {
+        record Item(Path file, long lastUsed) {
+        }
+        var items = new ArrayList<Item>();
+        try (var stream = Files.newDirectoryStream(dir)) {
+            for (var f : stream) {
+                if (f.getFileName().toString().endsWith(TMP_SUFFIX)) {
+                    continue;
+                }
+                items.add(new Item(f, Files.getLastModifiedTime(f).toMillis()));
+            }
+        } catch (IOException e) {
+            assert Logger.lowLevelDebug(STR."failed to list resolution cache \{dir}: \{e}");
+            return;
+        }
+        if (items.size() <= capacity) {
+            return;
+        }
+        items.sort(Comparator.comparingLong(Item::lastUsed));
+        for (int i = 0; i < items.size() - capacity; ++i) {
+            try {
+                Files.deleteIfExists(items.get(i).file());
+            } catch (IOException e) {
+                assert Logger.lowLevelDebug(STR."failed to evict resolution cache entry \{items.get(i).file()}: \{e}");
+            }
+        }
+    }
+
+    // all entries, keyed by the directory, for the stats
+    public LinkedHashMap<String, Entry> load() {
+        var entries = new LinkedHashMap<String, Entry>();
+        try (var stream = Files.newDirectoryStream(dir)) {
+            for (var f : stream) {
+                if (f.getFileName().toString().endsWith(TMP_SUFFIX)) {
+                    continue;
+                }
+                Entry entry;
+                try {
+                    entry = decode(f, Files.readAllBytes(f), Files.getLastModifiedTime(f).toMillis());
+                } catch (NoSuchFileException _) {
+                    // evicted or cleared concurrently
+                    continue;
+                }
+                if (entry != null) {
+                    entries.put(entry.dir, entry);
+                }
+            }
+        } catch (NoSuchFileException _) {
+            return entries;
+        } catch (IOException e) {
+            Logger.warn(LogType.FILE_ERROR, STR."failed to read resolution cache \{dir}", e);
+        }
+        return entries;
+    }
+
+    Path entryFile(String dir) {
+        return this.dir.resolve(Long.toHexString(Utils.fnv1a(dir)));
+    }
+
+    // returns null if the entry is broken or written by another version
+    private static Entry decode(Path file, byte[] bytes, long lastUsed) {
+        try (var input = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            return readEntry(input, lastUsed);
+        } catch (IOException e) {
+            // broken entry, it will be overwritten on the next miss
+            assert Logger.lowLevelDebug(STR."resolution cache entry \{file} is corrupted: \{e}");
+            return null;
+        }
+    }
+
+    private static Entry readEntry(DataInputStream input, long lastUsed) throws IOException {
+        var dir = input.readUTF();
+        var id = input.readUTF();
+        var home = input.readUTF();
+        var config = readFingerprint(input);
+        Fingerprint systemConfig = null;
+        if (input.readBoolean()) {
+            systemConfig = readFingerprint(input);
+        }
+        Fingerprint versionFile = null;
+        if (input.readBoolean()) {
+            versionFile = readFingerprint(input);
+        }
+        Fingerprint optionsFile = null;
+        if (input.readBoolean()) {
+            optionsFile = readFingerprint(input);
+        }
+        var toolOptions = new TreeMap<String, List<String>>();
+        var toolCount = input.readInt();
+        for (int j = 0; j < toolCount; ++j) {
+            var tool = input.readUTF();
+            var options = new String[input.readInt()];
+            for (int k = 0; k < options.length; ++k) {
+                options[k] = input.readUTF();
+            }
+            toolOptions.put(tool, List.of(options));
+        }
+        var walkedDirMTimes = new long[input.readInt()];
+        for (int j = 0; j < walkedDirMTimes.length; ++j) {
+            walkedDirMTimes[j] = input.readLong();
+        }
+        return new Entry(dir, id, home, config, systemConfig, versionFile,
+            optionsFile, toolOptions, walkedDirMTimes, lastUsed);
+    }
+
+    private static void writeEntry(DataOutputStream output, Entry e) throws IOException {
+        output.writeUTF(e.dir);
+        output.writeUTF(e.id);
+        output.writeUTF(e.home);
+        writeFingerprint(output, e.config);
+        output.writeBoolean(e.systemConfig != null);
+        if (e.systemConfig != null) {
+            writeFingerprint(output, e.systemConfig);
+        }
+        output.writeBoolean(e.versionFile != null);
+        if (e.versionFile != null) {
+            writeFingerprint(output, e.versionFile);
+        }
+        output.writeBoolean(e.optionsFile != null);
+        if (e.optionsFile != null) {
+            writeFingerprint(output, e.optionsFile);
+        }
+        output.writeInt(e.toolOptions.size());
+        for (var tool : e.toolOptions.entrySet()) {
+            output.writeUTF(tool.getKey());
+            output.writeInt(tool.getValue().size());
+            for (var o : tool.getValue()) {
+                output.writeUTF(o);
+            }
+        }
+        output.writeInt(e.walkedDirMTimes.length);
+        for (var mtime : e.walkedDirMTimes) {
+            output.writeLong(mtime);
+        }
+    }
+
+    private static Fingerprint readFingerprint(DataInputStream input) throws IOException {
+        var path = input.readUTF();
+        var mtime = input.readLong();
+        var size = input.readLong();
+        return new Fingerprint(path, mtime, size);
+    }
+
+    private static void writeFingerprint(DataOutputStream output, Fingerprint f) throws IOException {
+        output.writeUTF(f.path);
+        output.writeLong(f.mtime);
+        output.writeLong(f.size);
+    }
+
+    // returns true if any entry is removed
+    public boolean clear() throws IOException {
+        // the single-file cache of the previous versions
+        var removed = Files.deleteIfExists(dir.resolveSibling("jdkman-cache"));
+        try (var stream = Files.newDirectoryStream(dir)) {
+            for (var f : stream) {
+                removed |= Files.deleteIfExists(f);
+            }
+        } catch (NoSuchFileException _) {
+        }
+        return removed;
+    }
+}
@@ -0,0 +1,330 @@
+package io.vproxy.jdkman.util;
+
+import io.vproxy.base.util.LogType;
+import io.vproxy.base.util.Logger;
+import io.vproxy.base.util.OS;
+import io.vproxy.jdkman.entity.JDKInfo;
+import io.vproxy.jdkman.entity.JDKManConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+// keeps the shims in jdkman-scripts in sync with the executables which the registered jdks actually ship.
+// shims.manifest records the name and the content hash of every shim written by jdkman,
+// so only the differences are written or removed.
+// a shim is either a bash script running `jdkman which --tool`, or a symlink to the native jdkman binary (see ToolLauncher),
+// the mode is recorded in the shim-mode file.
+// the system registry is modified without touching the users' shims, so its fingerprint at the last sync
+// is recorded in the shims.system file, and `init` syncs again when it's changed
+public class ShimSync {
+    public static final Set<String> WELL_KNOWN_EXECUTABLES = new HashSet<>() {{
+        addAll(Arrays.asList(
+            "jar", "jarsigner", "java", "javac",
+            "javadoc", "javap", "jcmd", "jconsole",
+            "jdb", "jdeprscan", "jdeps", "jfr",
+            "jhsdb", "jimage", "jinfo", "jlink",
+            "jmap", "jmod", "jpackage", "jps",
+            "jrunscript", "jshell", "jstack",
+            "jstat", "jstatd", "jwebserver",
+            "keytool", "rmiregistry", "serialver"));
+        addAll(Arrays.asList(
+            "jaotc", "jpackager"
+        ));
+        addAll(Arrays.asList(
+            "appletviewer", "extcheck", "idlj",
+            "javafxpackager", "javah", "javapackager",
+            "jhat", "jjs", "jmc", "jsadebugd",
+            "jvisualvm", "native2ascii", "orbd",
+            "pack200", "policytool", "rmic", "rmid",
+            "schemagen", "servertool", "tnameserv",
+            "unpack200", "wsgen", "wsimport", "xjc"));
+        addAll(Arrays.asList(
+            "javaws", "jcontrol", "jweblauncher"
+        ));
+        addAll(Arrays.asList(
+            "jabswitch", "jaccessinspector", "jaccesswalker",
+            "javaw", "kinit", "klist", "ktab"
+        ));
+    }};
+    private static final String MANIFEST = "shims.manifest";
+    private static final String MODE_FILE = "shim-mode";
+    private static final String SYSTEM_FILE = "shims.system";
+    // hash of shims released before the manifest was introduced
+    private static final String UNKNOWN_HASH = "?";
+
+    private final File dir;
+    // null for script mode
+    private final String symlinkTarget;
+    private byte[] proxyContent;
+
+    public ShimSync(File dir, String symlinkTarget) {
+        this.dir = dir;
+        this.symlinkTarget = symlinkTarget;
+    }
+
+    // the mode file contains `script` or `symlink <path to the native jdkman binary>`, script mode by default
+    public static ShimSync load(File dir) {
+        String mode;
+        try {
+            mode = Files.readString(dir.toPath().resolve(MODE_FILE)).trim();
+        } catch (IOException _) {
+            return new ShimSync(dir, null);
+        }
+        if (mode.startsWith("symlink ")) {
+            return new ShimSync(dir, mode.substring("symlink ".length()).trim());
+        }
+        return new ShimSync(dir, null);
+    }
+
+    public static void saveMode(File dir, String symlinkTarget) throws IOException {
+        var mode = symlinkTarget == null ? "script" : STR."symlink \{symlinkTarget}";
+        Utils.writeFileAtomically(dir.toPath().resolve(MODE_FILE), (mode + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static File scriptDir() {
+        return Path.of(io.vproxy.base.util.Utils.homedir(), "jdkman-scripts").toFile();
+    }
+
+    // the caller should hold the config lock
+    public static void syncIfInitialized(JDKManConfig config) {
+        var dir = scriptDir();
+        if (!dir.isDirectory()) {
+            // `init` is never executed, the shims will be released by `init`
+            return;
+        }
+        load(dir).sync(config);
+    }
+
+    // `<path> <mtime> <size>` of the system registry, or `none`
+    private static String systemFingerprint() {
+        var f = ResolutionCache.Fingerprint.of(SystemRegistry.configFile());
+        return f == null ? "none" : STR."\{f.path} \{f.mtime} \{f.size}";
+    }
+
+    // one stat and one small read, called by `init` on every shell startup
+    public static boolean systemRegistryChanged(File dir) {
+        try {
+            return !Files.readString(dir.toPath().resolve(SYSTEM_FILE)).trim().equals(systemFingerprint());
+        } catch (IOException _) {
+            return true;
+        }
+    }
+
+    public void sync(JDKManConfig config) {
+        // taken before the system registry is read, a modification in between is synced next time
+        var system = systemFingerprint();
+        var manifestPath = dir.toPath().resolve(MANIFEST);
+        var manifest = readManifest(manifestPath);
+        var wanted = executables(config);
+
+        var result = new TreeMap<String, String>();
+        int written = 0;
+        int removed = 0;
+        for (var exe : wanted) {
+            var hash = shimHash(exe);
+            var file = shimFile(exe);
+            if (file.isFile() && hash.equals(recordedHash(manifest, exe, file))) {
+                result.put(exe, hash);
+                continue;
+            }
+            try {
+                writeShim(exe, file);
+            } catch (IOException e) {
+                // e.g. windows doesn't allow files to be replaced while they are running, retry next time
+                Logger.error(LogType.FILE_ERROR, STR."failed to write shim \{file}", e);
+                continue;
+            }
+            result.put(exe, hash);
+            ++written;
+        }
+        for (var entry : manifest.entrySet()) {
+            var exe = entry.getKey();
+            if (wanted.contains(exe)) {
+                continue;
+            }
+            var file = shimFile(exe);
+            try {
+                // also removes dangling links, which File.exists() reports as missing
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                Logger.error(LogType.FILE_ERROR, STR."failed to delete shim \{file}", e);
+                // keep it in the manifest, retry next time
+                result.put(exe, entry.getValue());
+                continue;
+            }
+            ++removed;
+        }
+
+        if (systemRegistryChanged(dir)) {
+            try {
+                Utils.writeFileAtomically(dir.toPath().resolve(SYSTEM_FILE), (system + "\n").getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                Logger.error(LogType.FILE_ERROR, STR."failed to write \{SYSTEM_FILE} in \{dir}", e);
+            }
+        }
+        if (written == 0 && removed == 0 && result.equals(manifest)) {
+            return;
+        }
+        var sb = new StringBuilder();
+        sb.append("# shims released by jdkman: <name> <md5>, do not edit\n");
+        for (var entry : result.entrySet()) {
+            sb.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        try {
+            Utils.writeFileAtomically(manifestPath, sb.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Logger.error(LogType.FILE_ERROR, STR."failed to write \{manifestPath}", e);
+        }
+        assert Logger.lowLevelDebug(STR."shims synced: \{written} written, \{removed} removed, \{result.size()} in total");
+    }
+
+    // without a manifest, the shims are released by an older version, which releases all well known executables
+    private Map<String, String> readManifest(Path manifestPath) {
+        var manifest = new TreeMap<String, String>();
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(manifestPath);
+        } catch (IOException _) {
+            for (var exe : WELL_KNOWN_EXECUTABLES) {
+                if (shimFile(exe).isFile()) {
+                    manifest.put(exe, UNKNOWN_HASH);
+                }
+            }
+            return manifest;
+        }
+        for (var line : lines) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            var split = line.trim().split(" ");
+            if (split.length != 2) {
+                Logger.warn(LogType.INVALID_EXTERNAL_DATA, STR."invalid line in \{manifestPath}: \{line}");
+                continue;
+            }
+            manifest.put(split[0], split[1]);
+        }
+        return manifest;
+    }
+
+    private String recordedHash(Map<String, String> manifest, String exe, File file) {
+        var hash = manifest.get(exe);
+        if (!UNKNOWN_HASH.equals(hash)) {
+            return hash;
+        }
+        try {
+            return Utils.fileMD5(file);
+        } catch (IOException _) {
+            return null;
+        }
+    }
+
+    // union of bin/ of all registered jdks, including the system ones
+    private static Set<String> executables(JDKManConfig config) {
+        var jdks = new ArrayList<>(config.getJdks());
+        var system = SystemRegistry.config();
+        if (system != null) {
+            jdks.addAll(system.getJdks());
+        }
+        var names = new TreeSet<String>();
+        for (JDKInfo jdk : jdks) {
+            var files = new File(jdk.getHome(), "bin").listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (var f : files) {
+                var name = f.getName();
+                if (OS.isWindows()) {
+                    if (!name.endsWith(".exe")) {
+                        continue;
+                    }
+                    name = name.substring(0, name.length() - ".exe".length());
+                }
+                if (!f.isFile() || !f.canExecute() || !isValidName(name)) {
+                    continue;
+                }
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    // the shims share the directory with other files, and the names are used in the shell scripts
+    private static boolean isValidName(String name) {
+        if (name.isEmpty() || name.startsWith(".") || name.startsWith("init-") || name.startsWith("jdkman")
+            || name.equals("version.txt") || name.equals(MANIFEST) || name.equals(MODE_FILE) || name.equals(SYSTEM_FILE)) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); ++i) {
+            var c = name.charAt(i);
+            if (!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z') && !(c >= '0' && c <= '9')
+                && c != '-' && c != '_' && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private File shimFile(String exe) {
+        var suffix = "";
+        if (OS.isWindows()) {
+            suffix = ".exe"; // use jdkman-proxy binary
+        }
+        return new File(dir, exe + suffix);
+    }
+
+    private String shimHash(String exe) {
+        if (symlinkTarget != null) {
+            // switching the mode or moving the binary changes the hash
+            return Utils.md5(STR."symlink \{symlinkTarget}".getBytes(StandardCharsets.UTF_8));
+        }
+        return Utils.md5(shimContent(exe));
+    }
+
+    private void writeShim(String exe, File file) throws IOException {
+        if (symlinkTarget == null) {
+            Utils.writeFileAtomically(file.toPath(), shimContent(exe));
+            //noinspection ResultOfMethodCallIgnored
+            file.setExecutable(true);
+            return;
+        }
+        // create the link with a temporary name then rename it, the same as writeFileAtomically
+        var tmp = dir.toPath().resolve(STR.".\{exe}.\{ProcessHandle.current().pid()}.tmp");
+        try {
+            Files.deleteIfExists(tmp);
+            Files.createSymbolicLink(tmp, Path.of(symlinkTarget));
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private byte[] shimContent(String exe) {
+        if (OS.isWindows()) {
+            // use jdkman-proxy, the same binary for all executables
+            if (proxyContent == null) {
+                try (InputStream input = ShimSync.class.getResourceAsStream("/io/vproxy/jdkman/res/jdkman_proxy-windows-x86_64.exe")) {
+                    proxyContent = Objects.requireNonNull(input).readAllBytes();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return proxyContent;
+        } else {
+            // use shell scripts
+            return STR."""
+                    #!/bin/bash
+                    set -e
+                    out=`jdkman which --tool \{exe}`
+                    { read -r JAVA_HOME; args=(); while read -r a; do args+=("$a"); done; } <<< "$out"
+                    export JAVA_HOME
+                    exec "$JAVA_HOME/bin/\{exe}" "${args[@]}" "$@"
+                    """.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package io.vproxy.jdkman.util;
+
+import io.vproxy.base.Config;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// every invocation appends a fixed-size record to a memory-mapped ring buffer.
+// a writer takes a ticket with an atomic add on the shared cursor, so concurrent processes never wait for each other,
+// the slot is ticket % capacity, and the seq field is written last, so readers can skip slots being written.
+// one invocation per process, so the record being built is kept in static fields
+//
+// header (64 bytes): magic, version, capacity, record size, cursor (long at offset 16)
+// record (96 bytes):
+//   0 seq (long, ticket + 1, 0 while writing)    8 epoch millis (long)    16 hash of JAVA_HOME (long)
+//   24 total micros (int)    28 walk micros (int)    32 resolve micros (int)
+//   36 walk depth (short)    38 source (byte)    39 exit code (byte)
+//   40 action (20 bytes, ascii)    60 jdk id (36 bytes, ascii)
+public class StatsRecorder {
+    public static final int CAPACITY = 4096;
+    private static final int MAGIC = 0x4a444b52; // JDKR
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int CURSOR_OFFSET = 16;
+    private static final int RECORD_SIZE = 96;
+    private static final int ACTION_LENGTH = 20;
+    private static final int ID_LENGTH = 36;
+
+    public static final byte SOURCE_NONE = 0;
+    public static final byte SOURCE_SERVE = 1;
+    public static final byte SOURCE_CACHE = 2;
+    public static final byte SOURCE_SNAPSHOT = 3;
+    public static final byte SOURCE_CONFIG = 4;
+    public static final byte SOURCE_TOKEN_UNCHANGED = 5;
+
+    private static final long startNanos = System.nanoTime();
+    public static final boolean ENABLED = isEnabled();
+    private static String action;
+    private static String jdkId;
+    private static String home;
+    private static long walkNanos = -1;
+    private static long resolveNanos = -1;
+    private static int walkDepth = -1;
+    private static byte source = SOURCE_NONE;
+
+    private StatsRecorder() {
+    }
+
+    public static Path file() {
+        return Path.of(Config.workingDirectoryFile("jdkman-stats"));
+    }
+
+    // the class is initialized by this call, which should be the first thing in main
+    public static void start() {
+    }
+
+    // on jvm, the first FileChannel.map bootstraps the memory segment classes, which costs tens of milliseconds,
+    // so recording is enabled by default only in the native image. JDKMAN_STATS=on|off overrides it
+    private static boolean isEnabled() {
+        var env = System.getenv("JDKMAN_STATS");
+        if (env != null) {
+            return env.equals("on") || env.equals("1");
+        }
+        return "runtime".equals(System.getProperty("org.graalvm.nativeimage.imagecode"));
+    }
+
+    public static void action(String action) {
+        if (!ENABLED) {
+            return;
+        }
+        StatsRecorder.action = action;
+    }
+
+    public static void walked(long nanos, int depth) {
+        walkNanos = nanos;
+        walkDepth = depth;
+    }
+
+    // id is nullable when only the home is known
+    public static void resolved(long nanos, byte source, String jdkId, String home) {
+        resolveNanos = nanos;
+        StatsRecorder.source = source;
+        StatsRecorder.jdkId = jdkId;
+        StatsRecorder.home = home;
+    }
+
+    public static void source(byte source) {
+        StatsRecorder.source = source;
+    }
+
+    // never fails, statistics must not break the invocation
+    public static void finish(int exitCode) {
+        if (action == null) {
+            return;
+        }
+        var total = System.nanoTime() - startNanos;
+        try (var channel = FileChannel.open(file(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var buf = map(channel);
+            var ticket = (long) LONG.getAndAdd(buf, CURSOR_OFFSET, 1L);
+            var off = HEADER_SIZE + (int) (ticket % CAPACITY) * RECORD_SIZE;
+            LONG.setVolatile(buf, off, 0L);
+            buf.putLong(off + 8, System.currentTimeMillis());
+            buf.putLong(off + 16, home == null ? 0 : homeHash(home));
+            buf.putInt(off + 24, micros(total));
+            buf.putInt(off + 28, micros(walkNanos));
+            buf.putInt(off + 32, micros(resolveNanos));
+            buf.putShort(off + 36, (short) walkDepth);
+            buf.put(off + 38, source);
+            buf.put(off + 39, (byte) exitCode);
+            putAscii(buf, off + 40, ACTION_LENGTH, action);
+            putAscii(buf, off + 60, ID_LENGTH, jdkId);
+            LONG.setRelease(buf, off, ticket + 1);
+        } catch (Throwable _) {
+        } finally {
+            action = null;
+        }
+    }
+
+    // atomic operations on the mapped memory are visible to all processes mapping the same file
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static MappedByteBuffer map(FileChannel channel) throws IOException {
+        var size = HEADER_SIZE + (long) CAPACITY * RECORD_SIZE;
+        if (channel.size() < size) {
+            // all processes extend the file to the same size, and the header is written with the same values
+            channel.write(ByteBuffer.wrap(new byte[]{0}), size - 1);
+        }
+        var buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buf.order(ByteOrder.nativeOrder());
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != FORMAT_VERSION
+            || buf.getInt(8) != CAPACITY || buf.getInt(12) != RECORD_SIZE) {
+            // new file, or written by another format
+            for (int i = 0; i < CAPACITY; ++i) {
+                buf.putLong(HEADER_SIZE + i * RECORD_SIZE, 0);
+            }
+            buf.putLong(CURSOR_OFFSET, 0);
+            buf.putInt(4, FORMAT_VERSION);
+            buf.putInt(8, CAPACITY);
+            buf.putInt(12, RECORD_SIZE);
+            buf.putInt(0, MAGIC);
+        }
+        return buf;
+    }
+
+    private static int micros(long nanos) {
+        if (nanos < 0) {
+            return -1;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, nanos / 1000);
+    }
+
+    private static void putAscii(MappedByteBuffer buf, int off, int len, String s) {
+        for (int i = 0; i < len; ++i) {
+            byte b = 0;
+            if (s != null && i < s.length()) {
+                var c = s.charAt(i);
+                b = c > 0 && c < 128 ? (byte) c : (byte) '?';
+            }
+            buf.put(off + i, b);
+        }
+    }
+
+    private static String getAscii(MappedByteBuffer buf, int off, int len) {
+        int n = 0;
+        while (n < len && buf.get(off + n) != 0) {
+            ++n;
+        }
+        var bytes = new byte[n];
+        buf.get(off, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    // FNV-1a of the home path, which is used to find the jdk when the id is not known
+    public static long homeHash(String home) {
+        return Utils.fnv1a(home);
+    }
+
+    public record Record(long epochMillis, long homeHash, int totalMicros, int walkMicros, int resolveMicros,
+                         int walkDepth, byte source, int exitCode, String action, String jdkId) {
+    }
+
+    // records being written at the same time are skipped
+    public static List<Record> readAll() throws IOException {
+        var ls = new ArrayList<Record>();
+        if (!file().toFile().isFile()) {
+            return ls;
+        }
+        try (var channel = FileChannel.open(file(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var buf = map(channel);
+            for (int i = 0; i < CAPACITY; ++i) {
+                var off = HEADER_SIZE + i * RECORD_SIZE;
+                var seq = (long) LONG.getAcquire(buf, off);
+                if (seq == 0) {
+                    continue;
+                }
+                var r = new Record(
+                    buf.getLong(off + 8), buf.getLong(off + 16),
+                    buf.getInt(off + 24), buf.getInt(off + 28), buf.getInt(off + 32),
+                    buf.getShort(off + 36), buf.get(off + 38), buf.get(off + 39) & 0xff,
+                    getAscii(buf, off + 40, ACTION_LENGTH), getAscii(buf, off + 60, ID_LENGTH));
+                VarHandle.acquireFence();
+                if ((long) LONG.getVolatile(buf, off) != seq) {
+                    continue;
+                }
+                ls.add(r);
+            }
+        }
+        return ls;
+    }
+
+    public static void clear() throws IOException {
+        Files.deleteIfExists(file());
+    }
+}
@@ -0,0 +1,124 @@
+package io.vproxy.jdkman.util;
+
+import io.vproxy.base.util.LogType;
+import io.vproxy.base.util.Logger;
+import io.vproxy.base.util.OS;
+import io.vproxy.jdkman.entity.JDKInfo;
+import io.vproxy.jdkman.entity.JDKManConfig;
+import io.vproxy.jdkman.entity.RegistrySnapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
+// the system-wide registry, populated once by an admin with `jdkman --system add|discover|...`,
+// e.g. for the jdks in /usr/lib/jvm on shared build hosts.
+// it's layered under the per-user registry when resolving (see JDKIndex and RegistrySnapshot.resolve),
+// users never copy, probe or write the system jdks, the snapshot next to the system config
+// is the prebuilt index which is mapped read-only
+public class SystemRegistry {
+    // true when running with --system, then the config being used is the system one, and nothing is layered
+    private static boolean editing;
+    private static boolean loaded;
+    private static JDKManConfig config;
+
+    private SystemRegistry() {
+    }
+
+    // JDKMAN_SYSTEM_CONFIG overrides the location
+    public static File configFile() {
+        var env = System.getenv("JDKMAN_SYSTEM_CONFIG");
+        if (env != null && !env.isBlank()) {
+            return new File(env);
+        }
+        if (OS.isWindows()) {
+            var programData = System.getenv("ProgramData");
+            return new File(programData == null ? "C:\\ProgramData" : programData, "jdkman\\jdkman");
+        }
+        return new File("/etc/jdkman/jdkman");
+    }
+
+    public static void setEditing() {
+        editing = true;
+    }
+
+    public static boolean isEditing() {
+        return editing;
+    }
+
+    // returns the system registry to be layered under the user registry, or null if there's none
+    public static JDKManConfig config() {
+        if (editing) {
+            return null;
+        }
+        if (loaded) {
+            return config;
+        }
+        loaded = true;
+        var file = configFile();
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            config = Utils.readConfig(file);
+        } catch (Exception e) {
+            Logger.warn(LogType.INVALID_EXTERNAL_DATA, STR."failed to read system registry \{file}, ignored", e);
+        }
+        return config;
+    }
+
+    // returns the read-only snapshot of the system registry, or null if there's none.
+    // does not log
+    public static RegistrySnapshot snapshot() throws Exception {
+        if (editing) {
+            return null;
+        }
+        var file = configFile();
+        if (!file.isFile()) {
+            return null;
+        }
+        return RegistrySnapshot.openReadOnly(file);
+    }
+
+    // the files are written through temporary files, which are only readable by the owner
+    public static void makeReadable(File configFile) {
+        if (OS.isWindows()) {
+            return;
+        }
+        var permissions = PosixFilePermissions.fromString("rw-r--r--");
+        for (var f : new File[]{configFile, RegistrySnapshot.fileFor(configFile)}) {
+            try {
+                Files.setPosixFilePermissions(f.toPath(), permissions);
+            } catch (IOException | UnsupportedOperationException e) {
+                Logger.warn(LogType.FILE_ERROR, STR."failed to make \{f} readable by all users", e);
+            }
+        }
+    }
+
+    public static JDKInfo find(String id) {
+        var system = config();
+        if (system == null) {
+            return null;
+        }
+        for (var jdk : system.getJdks()) {
+            if (jdk.getId().equals(id)) {
+                return jdk;
+            }
+        }
+        return null;
+    }
+
+    public static JDKInfo findByHome(String home) {
+        var system = config();
+        if (system == null) {
+            return null;
+        }
+        for (var jdk : system.getJdks()) {
+            if (jdk.getHome().equals(home)) {
+                return jdk;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,45 @@
+package io.vproxy.jdkman.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+// jvm option profiles of a project, stored in a .java-options file which is found by the same walk as .java-version,
+// in the directory of the .java-version or below it.
+// each line is `<tool> <options...>`, the options are separated by whitespaces and passed to the tool as is,
+// before the user arguments. a tool may have multiple lines, `#` starts a comment line:
+//
+//   java -Xmx2g -XX:+UseZGC
+//   javac -J-XX:TieredStopAtLevel=1 -J-Xshare:auto
+//
+// the shims apply them when launching the tools (see ToolLauncher and ShimSync),
+// and the parsed profiles are kept in the resolution cache together with JAVA_HOME
+public class ToolOptions {
+    private ToolOptions() {
+    }
+
+    public static Map<String, List<String>> read(File file) throws IOException {
+        var bytes = Files.readAllBytes(file.toPath());
+        var content = new String(bytes, StandardCharsets.UTF_8);
+        if (content.startsWith("\uFEFF")) {
+            content = content.substring(1);
+        }
+        return parse(content);
+    }
+
+    public static Map<String, List<String>> parse(String content) {
+        var profiles = new TreeMap<String, List<String>>();
+        for (var line : content.split("\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            var split = line.split("\\s+");
+            var options = profiles.computeIfAbsent(split[0], _ -> new ArrayList<>());
+            options.addAll(Arrays.asList(split).subList(1, split.length));
+        }
+        return profiles;
+    }
+}
@@ -1,31 +1,94 @@
 package io.vproxy.jdkman.util;
 
+import io.vproxy.base.Config;
 import io.vproxy.base.util.LogType;
 import io.vproxy.base.util.Logger;
 import io.vproxy.base.util.OS;
+import io.vproxy.jdkman.entity.JDKIndex;
 import io.vproxy.jdkman.entity.JDKInfo;
 import io.vproxy.jdkman.entity.JDKInfoMatcher;
 import io.vproxy.jdkman.entity.JDKManConfig;
-import io.vproxy.jdkman.entity.MatchOptions;
 import io.vproxy.jdkman.ex.ErrorResult;
+import io.vproxy.jdkman.trace.Trace;
+import vjson.JSON;
 
 import java.io.*;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.function.Function;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 public class Utils {
     private Utils() {
     }
 
+    public static File jdkmanConfigFile() {
+        return new File(Config.workingDirectoryFile("jdkman"));
+    }
+
+    public static JDKManConfig readConfig(File file) throws IOException {
+        var phase = Trace.begin("config.read");
+        var str = Files.readString(file.toPath());
+        phase.end();
+        phase = Trace.begin("config.deserialize");
+        var config = JSON.deserialize(str, JDKManConfig.rule);
+        phase.end();
+        return config;
+    }
+
+    // only writers take the lock, readers never block.
+    // closing the returned channel releases the lock
+    public static FileChannel lockConfig(File configFile) throws IOException {
+        var lockFile = new File(configFile.getAbsoluteFile().getParentFile(), configFile.getName() + ".lock");
+        Files.createDirectories(lockFile.getParentFile().toPath());
+        var channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            channel.lock();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    // the previous config is kept as <config>.bak, so a bad modification can be reverted by hand
+    public static void writeConfig(File configFile, JDKManConfig config) throws IOException {
+        var path = configFile.toPath();
+        if (Files.isRegularFile(path)) {
+            Files.copy(path, path.resolveSibling(STR."\{configFile.getName()}.bak"), StandardCopyOption.REPLACE_EXISTING);
+        }
+        writeFileAtomically(configFile.toPath(), config.toJson().pretty().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // the content is written to a temporary file, flushed to disk, then renamed to the target file,
+    // so readers see either the old file or the new one, and a crash never leaves a truncated file
+    public static void writeFileAtomically(Path file, byte[] content) throws IOException {
+        var dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        var tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (var channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                var buf = ByteBuffer.wrap(content);
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+                channel.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
     public static String validateJavaHome(String javaHome) {
         var file = new File(javaHome);
         if (!file.exists()) {
@@ -56,6 +119,31 @@ public class Utils {
         return null;
     }
 
+    // identifies the content of a java home without running it:
+    // file key (inode), mtime and size of release and bin/java
+    public static String homeFingerprint(String javaHome) {
+        var sb = new StringBuilder();
+        var files = List.of(
+            Path.of(javaHome, "release"),
+            Path.of(javaHome, "bin", "java" + (OS.isWindows() ? ".exe" : "")));
+        for (var f : files) {
+            if (!sb.isEmpty()) {
+                sb.append(";");
+            }
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(f, BasicFileAttributes.class);
+            } catch (IOException _) {
+                sb.append("-");
+                continue;
+            }
+            sb.append(attrs.fileKey())
+                .append(",").append(attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS))
+                .append(",").append(attrs.size());
+        }
+        return sb.toString();
+    }
+
     public static String readInputStream(InputStream input) throws IOException {
         var sb = new StringBuilder();
         var chars = new char[1024];
@@ -71,220 +159,333 @@ public class Utils {
         return sb.toString();
     }
 
-    public static boolean isNonNegativeInteger(String s) {
+    public record ProcessResult(int exitCode, String stdout, String stderr) {
+    }
+
+    // stdout and stderr are drained concurrently, so the process would never be blocked by a full pipe
+    public static ProcessResult execute(List<String> command, long timeoutMillis) throws Exception {
+        var process = new ProcessBuilder()
+            .command(command)
+            .start();
+        var stdout = new String[1];
+        var stderr = new String[1];
+        var stdoutThread = Thread.ofVirtual().start(() -> stdout[0] = drain(process.getInputStream()));
+        var stderrThread = Thread.ofVirtual().start(() -> stderr[0] = drain(process.getErrorStream()));
+        var exited = process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS);
+        if (!exited) {
+            // children may inherit the pipes, kill them as well, otherwise the pipes would never be closed
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+            process.destroyForcibly();
+            process.waitFor();
+            stdoutThread.join(Duration.ofSeconds(1));
+            stderrThread.join(Duration.ofSeconds(1));
+            throw new ErrorResult(STR."""
+            \{command} timed out after \{timeoutMillis}ms
+            stdout:
+            \{Objects.requireNonNullElse(stdout[0], "")}
+            stderr:
+            \{Objects.requireNonNullElse(stderr[0], "")}""");
+        }
+        stdoutThread.join();
+        stderrThread.join();
+        return new ProcessResult(process.exitValue(), stdout[0], stderr[0]);
+    }
+
+    private static String drain(InputStream input) {
         try {
-            var n = Integer.parseInt(s);
-            return n >= 0;
-        } catch (NumberFormatException _) {
-            return false;
+            return readInputStream(input);
+        } catch (IOException e) {
+            assert Logger.lowLevelDebug(STR."failed to read process output: \{e}");
+            return "";
         }
     }
 
+    public static boolean isNonNegativeInteger(String s) {
+        return s != null && VersionParser.parseNonNegativeInt(s, 0, s.length()) >= 0;
+    }
+
     public static JDKInfoMatcher parseVersion(final String version) throws ErrorResult {
-        String implementor = null;
-        String versionPart;
-        if (version.contains(":")) {
-            implementor = version.substring(0, version.indexOf(":"));
-            versionPart = version.substring(version.indexOf(":") + 1);
-        } else {
-            versionPart = version;
-        }
-
-        int major;
-        Integer minor = null;
-        Integer patch = null;
-        String buildVersion = null;
-
-        String versionStr;
-        if (versionPart.contains("+")) {
-            versionStr = versionPart.substring(0, versionPart.indexOf("+"));
-            buildVersion = versionPart.substring(versionPart.indexOf("+") + 1);
-        } else if (versionPart.contains("_")) {
-            versionStr = versionPart.substring(0, versionPart.indexOf("_"));
-            buildVersion = versionPart.substring(versionPart.indexOf("_") + 1);
-        } else {
-            versionStr = versionPart;
-        }
-
-        var split = versionStr.split("\\.");
-        if (split.length == 0) {
-            throw new ErrorResult(STR."\{versionStr} is not a valid version: empty string");
-        }
-        if (!isNonNegativeInteger(split[0])) {
-            throw new ErrorResult(STR."\{versionStr} is not a valid version: major version not valid: \{split[0]}");
-        }
-        major = Integer.parseInt(split[0]);
-        if (split.length >= 2) {
-            if (!isNonNegativeInteger(split[1])) {
-                throw new ErrorResult(STR."\{versionStr} is not a valid version: minor version not valid: \{split[1]}");
-            }
-            minor = Integer.parseInt(split[1]);
+        var m = VersionParser.parse(version, 0, version.length(), null);
+        if (m != null) {
+            return m;
         }
-        if (split.length >= 3) {
-            if (!isNonNegativeInteger(split[2])) {
-                throw new ErrorResult(STR."\{versionStr} is not a valid version: patch version not valid: \{split[2]}");
-            }
-            patch = Integer.parseInt(split[2]);
+        var reason = new StringBuilder();
+        VersionParser.parse(version, 0, version.length(), reason);
+        throw new ErrorResult(reason.toString());
+    }
+
+    private static final String JAVA_VERSION = ".java-version";
+    static final String JAVA_OPTIONS = ".java-options";
+    // only used for error messages, see VersionParser.decodeVersionFile
+    private static final String[] TRY_CHARSETS = {"UTF-8", "UTF-16LE", "UTF-16BE", "BOM"};
+
+    private static String decode(String charsetName, byte[] b) {
+        return switch (charsetName) {
+            case "UTF-8" -> new String(b, StandardCharsets.UTF_8);
+            case "UTF-16LE" -> new String(b, StandardCharsets.UTF_16LE);
+            case "UTF-16BE" -> new String(b, StandardCharsets.UTF_16BE);
+            default -> decodeWithBOM(b);
+        };
+    }
+
+    private static String decodeWithBOM(byte[] b) {
+        if (b.length < 2) {
+            return null;
+        }
+        if (b[0] == (byte) 0xFF && b[1] == (byte) 0xFE) {
+            var bb = new byte[b.length - 2];
+            System.arraycopy(b, 2, bb, 0, b.length - 2);
+            return new String(bb, StandardCharsets.UTF_16LE);
+        } else if (b[0] == (byte) 0xFE && b[1] == (byte) 0xFF) {
+            var bb = new byte[b.length - 2];
+            System.arraycopy(b, 2, bb, 0, b.length - 2);
+            return new String(bb, StandardCharsets.UTF_16BE);
+        }
+        if (b.length < 3) {
+            return null;
+        }
+        if (b[0] == (byte) 0xEF && b[1] == (byte) 0xBB && b[2] == (byte) 0xBF) {
+            var bb = new byte[b.length - 3];
+            System.arraycopy(b, 3, bb, 0, b.length - 3);
+            return new String(bb, StandardCharsets.UTF_8);
         }
+        return null;
+    }
 
-        return new JDKInfoMatcher(implementor, major, minor, patch, buildVersion, version);
+    public static File currentDirectory() throws IOException {
+        return new File("").getCanonicalFile();
     }
 
-    private static final String JAVA_VERSION = ".java-version";
-    private static final LinkedHashMap<String, Function<byte[], String>> TRY_CHARSETS = new LinkedHashMap<>() {{
-        put("UTF-8", tryCharset(StandardCharsets.UTF_8));
-        put("UTF-16LE", tryCharset(StandardCharsets.UTF_16LE));
-        put("UTF-16BE", tryCharset(StandardCharsets.UTF_16BE));
-        put("BOM", tryCharsetWithBOM());
-    }};
+    // walkedDirs is nullable, directories which are checked but don't contain the file will be appended to it
+    public static File findVersionFile(File dir, List<File> walkedDirs) {
+        var phase = Trace.begin("walk");
+        do {
+            var file = new File(dir, JAVA_VERSION);
+            if (file.isFile()) {
+                phase.end();
+                return file;
+            }
+            if (walkedDirs != null) {
+                walkedDirs.add(dir);
+            }
+            dir = dir.getParentFile();
+        } while (dir != null);
+        phase.end();
+        return null;
+    }
 
-    private static Function<byte[], String> tryCharset(Charset charset) {
-        return b -> new String(b, charset);
+    // both are nullable
+    public record ProjectFiles(File versionFile, File optionsFile) {
     }
 
-    private static Function<byte[], String> tryCharsetWithBOM() {
-        return b -> {
-            if (b.length < 2) {
-                return null;
+    // finds .java-version and .java-options (see ToolOptions) in one walk, which stops at the .java-version.
+    // .java-options in the parents of the project are not used, so the result (and the cache entries)
+    // doesn't depend on the directories above the project, e.g. $HOME which is modified all the time.
+    // walkedDirs is nullable, directories which are checked before the walk stops will be appended to it,
+    // the directory where it stops is not included, the same as findVersionFile
+    public static ProjectFiles findProjectFiles(File dir, List<File> walkedDirs) {
+        var phase = Trace.begin("walk");
+        File versionFile = null;
+        File optionsFile = null;
+        do {
+            if (versionFile == null) {
+                var file = new File(dir, JAVA_VERSION);
+                if (file.isFile()) {
+                    versionFile = file;
+                }
+            }
+            if (optionsFile == null) {
+                var file = new File(dir, JAVA_OPTIONS);
+                if (file.isFile()) {
+                    optionsFile = file;
+                }
             }
-            if (b[0] == (byte) 0xFF && b[1] == (byte) 0xFE) {
-                var bb = new byte[b.length - 2];
-                System.arraycopy(b, 2, bb, 0, b.length - 2);
-                return new String(bb, StandardCharsets.UTF_16LE);
-            } else if (b[0] == (byte) 0xFE && b[1] == (byte) 0xFF) {
-                var bb = new byte[b.length - 2];
-                System.arraycopy(b, 2, bb, 0, b.length - 2);
-                return new String(bb, StandardCharsets.UTF_16BE);
+            if (versionFile != null) {
+                break;
             }
-            if (b.length < 3) {
-                return null;
+            if (walkedDirs != null) {
+                walkedDirs.add(dir);
+            }
+            dir = dir.getParentFile();
+        } while (dir != null);
+        phase.end();
+        return new ProjectFiles(versionFile, optionsFile);
+    }
+
+    // the same result as findProjectFiles, for a walk which is already done by findVersionFile,
+    // so only .java-options is looked up, in the walked directories and next to the .java-version
+    public static ProjectFiles projectFilesOf(File versionFile, List<File> walkedDirs) {
+        var phase = Trace.begin("walk.options");
+        var dirs = new ArrayList<>(walkedDirs);
+        if (versionFile != null) {
+            dirs.add(versionFile.getParentFile());
+        }
+        for (var d : dirs) {
+            var file = new File(d, JAVA_OPTIONS);
+            if (file.isFile()) {
+                phase.end();
+                return new ProjectFiles(versionFile, file);
             }
-            if (b[0] == (byte) 0xEF && b[1] == (byte) 0xBB && b[2] == (byte) 0xBF) {
-                var bb = new byte[b.length - 3];
-                System.arraycopy(b, 3, bb, 0, b.length - 3);
-                return new String(bb, StandardCharsets.UTF_8);
+        }
+        phase.end();
+        return new ProjectFiles(versionFile, null);
+    }
+
+    public static JDKInfoMatcher readVersionFile(File file) {
+        var errors = new ArrayList<Throwable>();
+        var matcher = readVersionFile(file, errors);
+        if (matcher == null) {
+            Logger.warn(LogType.FILE_ERROR, STR."failed to retrieve current version from file \{file.toPath()}: \{
+                errors.stream().map(io.vproxy.base.util.Utils::formatErr).toList()
+                }");
+        }
+        return matcher;
+    }
+
+    // does not log, the failures are appended to errors (nullable)
+    public static JDKInfoMatcher readVersionFile(File file, List<Throwable> errors) {
+        var path = file.toPath();
+        byte[] contentBytes;
+        var phase = Trace.begin("version-file.read");
+        try {
+            contentBytes = Files.readAllBytes(path);
+        } catch (IOException e) {
+            if (errors != null) {
+                errors.add(e);
             }
             return null;
-        };
+        }
+        phase.end();
+        phase = Trace.begin("version-file.decode");
+        var matcher = VersionParser.decodeVersionFile(contentBytes);
+        phase.end();
+        if (matcher == null && errors != null) {
+            collectVersionFileErrors(path, contentBytes, errors);
+        }
+        return matcher;
+    }
+
+    // decodes with every charset again to explain why the file cannot be parsed
+    private static void collectVersionFileErrors(Path path, byte[] contentBytes, List<Throwable> errors) {
+        for (var charsetName : TRY_CHARSETS) {
+            var content = decode(charsetName, contentBytes);
+            if (content == null) {
+                errors.add(new Exception(STR."unable to parse bytes to string with \{charsetName} in file \{path}"));
+                continue;
+            }
+            content = content.trim();
+            content = new String(content.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+            try {
+                parseVersion(content);
+            } catch (ErrorResult e) {
+                assert Logger.lowLevelDebug(STR."unable to parse file \{path}: \{content}");
+                errors.add(e);
+            }
+        }
     }
 
     public static JDKInfoMatcher currentVersion() {
         File dir;
         try {
-            dir = new File("").getCanonicalFile();
+            dir = currentDirectory();
         } catch (IOException e) {
             Logger.warn(LogType.FILE_ERROR, "failed to retrieve current version from file", e);
             return null;
         }
-        do {
-            var path = Path.of(dir.getAbsolutePath(), JAVA_VERSION);
-            if (path.toFile().exists() && path.toFile().isFile()) {
-                byte[] contentBytes;
-                try {
-                    contentBytes = Files.readAllBytes(path);
-                } catch (IOException e) {
-                    Logger.warn(LogType.FILE_ERROR, STR."failed to retrieve current version from file \{path}", e);
-                    return null;
-                }
-                var lastErrors = new ArrayList<Throwable>();
-                for (var entry : TRY_CHARSETS.entrySet()) {
-                    var charsetName = entry.getKey();
-                    var f = entry.getValue();
-                    var content = f.apply(contentBytes);
-                    if (content == null) {
-                        lastErrors.add(new Exception(STR."unable to parse bytes to string with \{charsetName} in file \{path}"));
-                        continue;
-                    }
-                    content = content.trim();
-                    content = new String(content.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
-                    try {
-                        return parseVersion(content);
-                    } catch (ErrorResult e) {
-                        assert Logger.lowLevelDebug(STR."unable to parse file \{path}: \{content}");
-                        lastErrors.add(e);
-                    }
-                }
-                Logger.warn(LogType.FILE_ERROR, STR."failed to retrieve current version from file \{path}: \{
-                    lastErrors.stream().map(io.vproxy.base.util.Utils::formatErr).toList()
-                    }");
-                return null;
-            }
-            dir = dir.getParentFile();
-        } while (dir != null);
-
-        return null;
+        var file = findVersionFile(dir, null);
+        if (file == null) {
+            return null;
+        }
+        return readVersionFile(file);
     }
 
     public static JDKInfo currentVersion(JDKManConfig config) {
-        var currentMatcher = Utils.currentVersion();
-        JDKInfo current = null;
-        if (currentMatcher != null) {
-            current = findProperJDK(config, currentMatcher);
-        }
-        if (current != null) {
-            return current;
-        }
-        for (var jdk : config.getJdks()) {
-            if (jdk.getId().equals(config.getDefaultJDK())) {
-                return jdk;
+        return resolve(config, Utils.currentVersion());
+    }
+
+    public static JDKInfo resolve(JDKManConfig config, JDKInfoMatcher currentMatcher) {
+        var phase = Trace.begin("resolve");
+        var jdk = JDKIndex.of(config, SystemRegistry.config()).resolve(currentMatcher);
+        phase.end();
+        return jdk;
+    }
+
+    public static String fileMD5(File file) throws IOException {
+        return fileDigest(file, md5Digest());
+    }
+
+    public static String fileSHA256(File file) throws IOException {
+        return fileDigest(file, sha256Digest());
+    }
+
+    private static String fileDigest(File file, MessageDigest md) throws IOException {
+        byte[] buf = new byte[256 * 1024];
+        try (var fis = new FileInputStream(file); var dis = new DigestInputStream(fis, md)) {
+            //noinspection StatementWithEmptyBody
+            while (dis.read(buf) != -1) {
             }
         }
-        // still not found
-        if (config.getJdks().isEmpty()) {
-            // no jdk registered
-            return null;
+        return hex(md.digest());
+    }
+
+    // symlinks are deleted, not followed
+    public static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
         }
-        // has jdk, but non match the default id
-        Logger.shouldNotHappen(STR."unable to find jdk with id == \{config.getDefaultJDK()}");
-        return config.getJdks().getFirst();
-    }
-
-    private static JDKInfo findProperJDK(JDKManConfig config, JDKInfoMatcher currentMatcher) {
-        var ls = new ArrayList<JDKInfo>();
-        var optsList = List.of(
-            // most strict matching
-            new MatchOptions(),
-            // skip build version
-            new MatchOptions()
-                .setMatchBuildVersion(false),
-            // skip build version and implementor
-            new MatchOptions()
-                .setMatchBuildVersion(false)
-                .setMatchImplementor(false),
-            // most loose matching
-            new MatchOptions(false)
-        );
-        for (var opts : optsList) {
-            for (var jdk : config.getJdks()) {
-                if (currentMatcher.match(jdk, opts)) {
-                    ls.add(jdk);
-                }
+        Files.walkFileTree(path, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
             }
-            if (!ls.isEmpty()) {
-                ls.sort(JDKInfo::compareTo);
-                return ls.getFirst();
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
             }
+        });
+    }
+
+    // 64-bit FNV-1a, for names looked up on every launch, which don't need a MessageDigest
+    public static long fnv1a(String s) {
+        var hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); ++i) {
+            hash ^= s.charAt(i);
+            hash *= 0x100000001b3L;
         }
-        return null;
+        return hash;
     }
 
-    public static String fileMD5(File file) throws IOException {
-        MessageDigest md;
+    public static String md5(byte[] bytes) {
+        return hex(md5Digest().digest(bytes));
+    }
+
+    private static MessageDigest md5Digest() {
         try {
-            md = MessageDigest.getInstance("MD5");
+            return MessageDigest.getInstance("MD5");
         } catch (NoSuchAlgorithmException e) {
             Logger.shouldNotHappen("unable to find md alg: MD5");
             throw new RuntimeException(e);
         }
-        byte[] buf = new byte[256 * 1024];
-        try (var fis = new FileInputStream(file); var dis = new DigestInputStream(fis, md)) {
-            //noinspection StatementWithEmptyBody
-            while (dis.read(buf) != -1) {
-            }
+    }
+
+    public static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            Logger.shouldNotHappen("unable to find md alg: SHA-256");
+            throw new RuntimeException(e);
         }
-        var md5Hash = md.digest();
+    }
+
+    public static String hex(byte[] bytes) {
         StringBuilder sb = new StringBuilder();
-        for (byte b : md5Hash) {
+        for (byte b : bytes) {
             sb.append(String.format("%02x", b));
         }
         return sb.toString();
@@ -0,0 +1,357 @@
+package io.vproxy.jdkman.util;
+
+import io.vproxy.jdkman.entity.JDKInfoMatcher;
+
+import java.nio.charset.StandardCharsets;
+
+// hand-written version parser and .java-version decoder.
+// the results are exactly the same as the previous implementation, which used
+// indexOf/substring/split/Integer.parseInt and decoded the file with every charset one by one,
+// but no intermediate string is created, and no exception is used for control flow.
+// see VersionParserFuzz in the jmh source set.
+public class VersionParser {
+    // returned by parseUTF8 when the result depends on how the non-ascii bytes are decoded
+    private static final JDKInfoMatcher UNKNOWN = new JDKInfoMatcher(null, 0, null, null, null, "");
+
+    private VersionParser() {
+    }
+
+    // same as Integer.parseInt(s.subSequence(from, to)), but returns -1 if it's invalid or negative
+    public static int parseNonNegativeInt(CharSequence s, int from, int to) {
+        if (from >= to) {
+            return -1;
+        }
+        var neg = false;
+        var first = s.charAt(from);
+        if (first < '0') {
+            if (first == '-') {
+                neg = true;
+            } else if (first != '+') {
+                return -1;
+            }
+            if (to - from == 1) {
+                return -1;
+            }
+            ++from;
+        }
+        long n = 0;
+        for (int i = from; i < to; ++i) {
+            // Integer.parseInt accepts all unicode digits
+            var d = Character.digit(s.charAt(i), 10);
+            if (d < 0) {
+                return -1;
+            }
+            n = n * 10 + d;
+            if (n > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        if (neg) {
+            // only -0 is non-negative
+            return n == 0 ? 0 : -1;
+        }
+        return (int) n;
+    }
+
+    // returns null if the version is invalid, and appends the reason if reason is not null
+    public static JDKInfoMatcher parse(CharSequence s, int from, int to, StringBuilder reason) {
+        var colon = indexOf(s, ':', from, to);
+        var versionFrom = colon == -1 ? from : colon + 1;
+        var versionTo = to;
+        var buildFrom = -1;
+        var plus = indexOf(s, '+', versionFrom, to);
+        if (plus != -1) {
+            versionTo = plus;
+            buildFrom = plus + 1;
+        } else {
+            var underscore = indexOf(s, '_', versionFrom, to);
+            if (underscore != -1) {
+                versionTo = underscore;
+                buildFrom = underscore + 1;
+            }
+        }
+
+        // String.split removes trailing empty strings, but keeps the only element of an empty string
+        var end = versionTo;
+        if (versionFrom != versionTo) {
+            while (end > versionFrom && s.charAt(end - 1) == '.') {
+                --end;
+            }
+            if (end == versionFrom) {
+                if (reason != null) {
+                    reason.append(s, versionFrom, versionTo).append(" is not a valid version: empty string");
+                }
+                return null;
+            }
+        }
+
+        var p = versionFrom;
+        var dot = indexOf(s, '.', p, end);
+        var q = dot == -1 ? end : dot;
+        var major = parseNonNegativeInt(s, p, q);
+        if (major == -1) {
+            if (reason != null) {
+                reason.append(s, versionFrom, versionTo).append(" is not a valid version: major version not valid: ").append(s, p, q);
+            }
+            return null;
+        }
+        Integer minor = null;
+        Integer patch = null;
+        if (dot != -1) {
+            p = dot + 1;
+            dot = indexOf(s, '.', p, end);
+            q = dot == -1 ? end : dot;
+            var n = parseNonNegativeInt(s, p, q);
+            if (n == -1) {
+                if (reason != null) {
+                    reason.append(s, versionFrom, versionTo).append(" is not a valid version: minor version not valid: ").append(s, p, q);
+                }
+                return null;
+            }
+            minor = n;
+        }
+        if (dot != -1) {
+            p = dot + 1;
+            dot = indexOf(s, '.', p, end);
+            q = dot == -1 ? end : dot;
+            var n = parseNonNegativeInt(s, p, q);
+            if (n == -1) {
+                if (reason != null) {
+                    reason.append(s, versionFrom, versionTo).append(" is not a valid version: patch version not valid: ").append(s, p, q);
+                }
+                return null;
+            }
+            patch = n;
+        }
+        // more components are ignored
+
+        return new JDKInfoMatcher(
+            colon == -1 ? null : s.subSequence(from, colon).toString(),
+            major, minor, patch,
+            buildFrom == -1 ? null : s.subSequence(buildFrom, to).toString(),
+            s.subSequence(from, to).toString());
+    }
+
+    private static int indexOf(CharSequence s, char c, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            if (s.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // tries the same decodings in the same order as before: utf-8, utf-16le, utf-16be, then by bom.
+    // the bytes are sniffed and parsed in place, a string is only decoded when the bytes cannot be
+    // handled in place (non-ascii utf-8 in the numeric parts, surrogates, odd length utf-16)
+    public static JDKInfoMatcher decodeVersionFile(byte[] b) {
+        var m = parseUTF8(b, 0);
+        if (m != null) {
+            return m;
+        }
+        m = parseUTF16(b, 0, false);
+        if (m != null) {
+            return m;
+        }
+        m = parseUTF16(b, 0, true);
+        if (m != null) {
+            return m;
+        }
+        if (b.length < 2) {
+            return null;
+        }
+        if (b[0] == (byte) 0xFF && b[1] == (byte) 0xFE) {
+            return parseUTF16(b, 2, false);
+        } else if (b[0] == (byte) 0xFE && b[1] == (byte) 0xFF) {
+            return parseUTF16(b, 2, true);
+        }
+        if (b.length < 3) {
+            return null;
+        }
+        if (b[0] == (byte) 0xEF && b[1] == (byte) 0xBB && b[2] == (byte) 0xBF) {
+            return parseUTF8(b, 3);
+        }
+        return null;
+    }
+
+    private static JDKInfoMatcher parseDecoded(String content) {
+        content = content.trim();
+        // the same round trip as before, which replaces lone surrogates
+        content = new String(content.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+        return parse(content, 0, content.length(), null);
+    }
+
+    private static JDKInfoMatcher parseUTF8(byte[] b, int off) {
+        var from = off;
+        var to = b.length;
+        // bytes >= 0x80 are negative, and they are never decoded into whitespaces
+        while (from < to && b[from] >= 0 && b[from] <= ' ') {
+            ++from;
+        }
+        while (to > from && b[to - 1] >= 0 && b[to - 1] <= ' ') {
+            --to;
+        }
+        var ascii = true;
+        for (int i = from; i < to; ++i) {
+            if (b[i] < 0) {
+                ascii = false;
+                break;
+            }
+        }
+        if (ascii) {
+            return parse(new ByteChars(b, off, b.length - off, ByteChars.LATIN1), from - off, to - off, null);
+        }
+        var m = parseUTF8NonAscii(b, from, to);
+        if (m == UNKNOWN) {
+            return parseDecoded(new String(b, off, b.length - off, StandardCharsets.UTF_8));
+        }
+        return m;
+    }
+
+    // in utf-8, ascii bytes are always decoded into the same chars, and non-ascii bytes are never decoded into ascii chars,
+    // so the delimiters can be located in the bytes directly.
+    // returns null if the version is invalid whatever the non-ascii bytes are decoded into, otherwise returns UNKNOWN
+    private static JDKInfoMatcher parseUTF8NonAscii(byte[] b, int from, int to) {
+        var colon = indexOf(b, ':', from, to);
+        var versionFrom = colon == -1 ? from : colon + 1;
+        var versionTo = to;
+        var plus = indexOf(b, '+', versionFrom, to);
+        if (plus != -1) {
+            versionTo = plus;
+        } else {
+            var underscore = indexOf(b, '_', versionFrom, to);
+            if (underscore != -1) {
+                versionTo = underscore;
+            }
+        }
+        var end = versionTo;
+        if (versionFrom != versionTo) {
+            while (end > versionFrom && b[end - 1] == '.') {
+                --end;
+            }
+            if (end == versionFrom) {
+                return null;
+            }
+        }
+        var p = versionFrom;
+        for (int i = 0; i < 3; ++i) {
+            var dot = indexOf(b, '.', p, end);
+            var q = dot == -1 ? end : dot;
+            if (isInvalidNumber(b, p, q)) {
+                return null;
+            }
+            if (dot == -1) {
+                break;
+            }
+            p = dot + 1;
+        }
+        return UNKNOWN;
+    }
+
+    // true if the chars decoded from the bytes can never be a non-negative integer
+    private static boolean isInvalidNumber(byte[] b, int from, int to) {
+        if (from >= to) {
+            return true;
+        }
+        for (int i = from; i < to; ++i) {
+            var c = b[i];
+            if (c < 0) {
+                // non-ascii, might be decoded into unicode digits
+                continue;
+            }
+            if (c >= '0' && c <= '9') {
+                continue;
+            }
+            if (i == from && (c == '+' || c == '-') && to - from > 1) {
+                continue;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static int indexOf(byte[] b, char c, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            if (b[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static JDKInfoMatcher parseUTF16(byte[] b, int off, boolean bigEndian) {
+        var len = b.length - off;
+        var chars = new ByteChars(b, off, len / 2, bigEndian ? ByteChars.UTF16BE : ByteChars.UTF16LE);
+        if (len % 2 != 0 || !chars.isPlain()) {
+            // the decoder would replace the malformed chars, let it do the work
+            return parseDecoded(new String(b, off, len, bigEndian ? StandardCharsets.UTF_16BE : StandardCharsets.UTF_16LE));
+        }
+        var from = 0;
+        var to = chars.length();
+        while (from < to && chars.charAt(from) <= ' ') {
+            ++from;
+        }
+        while (to > from && chars.charAt(to - 1) <= ' ') {
+            --to;
+        }
+        return parse(chars, from, to, null);
+    }
+
+    // bytes viewed as chars without copying
+    private static final class ByteChars implements CharSequence {
+        static final int LATIN1 = 0;
+        static final int UTF16LE = 1;
+        static final int UTF16BE = 2;
+
+        private final byte[] b;
+        private final int off;
+        private final int len;
+        private final int mode;
+
+        ByteChars(byte[] b, int off, int len, int mode) {
+            this.b = b;
+            this.off = off;
+            this.len = len;
+            this.mode = mode;
+        }
+
+        // no surrogates and no reversed bom, so every char would be decoded as is
+        boolean isPlain() {
+            for (int i = 0; i < len; ++i) {
+                var c = charAt(i);
+                if (Character.isSurrogate(c) || c == '\uFFFE') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int length() {
+            return len;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return switch (mode) {
+                case LATIN1 -> (char) (b[off + index] & 0xff);
+                case UTF16LE -> (char) ((b[off + 2 * index] & 0xff) | ((b[off + 2 * index + 1] & 0xff) << 8));
+                default -> (char) (((b[off + 2 * index] & 0xff) << 8) | (b[off + 2 * index + 1] & 0xff));
+            };
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            var chars = new char[end - start];
+            for (int i = start; i < end; ++i) {
+                chars[i - start] = charAt(i);
+            }
+            return new String(chars);
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, len).toString();
+        }
+    }
+}
@@ -3,5 +3,6 @@ module io.vproxy.jdkman {
     requires vjson;
     requires io.vproxy.base;
     requires org.graalvm.nativeimage;
+    requires jdk.jfr;
     opens io.vproxy.jdkman.res;
 }
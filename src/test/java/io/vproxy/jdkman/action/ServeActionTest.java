@@ -0,0 +1,98 @@
+package io.vproxy.jdkman.action;
+
+import io.vproxy.jdkman.entity.JDKInfo;
+import io.vproxy.jdkman.entity.JDKManConfig;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+public class ServeActionTest {
+    @TempDir
+    static Path tmp;
+    static Path socket;
+
+    // the server runs until the test process exits
+    @BeforeAll
+    public static void serve() throws Exception {
+        var configFile = Files.writeString(tmp.resolve("jdkman"), "{}").toFile();
+        var jdk = new JDKInfo();
+        jdk.setId("jdk-21");
+        jdk.setMajorVersion(21);
+        jdk.setMinorVersion(0);
+        jdk.setPatchVersion(1);
+        jdk.setFullVersion("21.0.1");
+        jdk.setHome("/jdk-21");
+        var config = new JDKManConfig();
+        config.getJdks().add(jdk);
+        config.setDefaultJDK(jdk.getId());
+
+        socket = tmp.resolve("jdkman.sock");
+        var thread = new Thread(() -> {
+            try {
+                new ServeAction().serve(configFile, config, socket);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        for (int i = 0; i < 100 && !Files.exists(socket); ++i) {
+            Thread.sleep(50);
+        }
+        assertTrue(Files.exists(socket));
+    }
+
+    @Test
+    public void resolve() throws Exception {
+        var dir = Files.createDirectories(tmp.resolve("project"));
+        Files.writeString(dir.resolve(".java-version"), "21\n");
+        assertEquals("/jdk-21", ServeAction.query(socket, dir.toFile()));
+    }
+
+    // the client resolves by itself and reports the problem, instead of silently using the default jdk
+    @Test
+    public void brokenVersionFileNotAnswered() throws Exception {
+        var dir = Files.createDirectories(tmp.resolve("broken"));
+        Files.writeString(dir.resolve(".java-version"), "not a version\n");
+        assertNull(ServeAction.query(socket, dir.toFile()));
+    }
+
+    // a jdk is found, so the server must not answer "none" when the entry cannot be created
+    @Test
+    public void unreadableOptionsFileNotAnswered() throws Exception {
+        var dir = Files.createDirectories(tmp.resolve("unreadable"));
+        Files.writeString(dir.resolve(".java-version"), "21\n");
+        var options = Files.writeString(dir.resolve(".java-options"), "java -Xmx1g\n");
+        Files.setPosixFilePermissions(options, Set.of());
+        assumeFalse(Files.isReadable(options), "the file is still readable, e.g. running as root");
+        assertNull(ServeAction.query(socket, dir.toFile(), "java"));
+    }
+
+    @Test
+    public void idleConnectionClosed() throws Exception {
+        try (var channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+            var start = System.currentTimeMillis();
+            int n;
+            try {
+                n = channel.read(ByteBuffer.allocate(16));
+            } catch (IOException _) {
+                n = -1;
+            }
+            assertEquals(-1, n);
+            assertTrue(System.currentTimeMillis() - start < 5_000);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package io.vproxy.jdkman.entity;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+// compares the index with the linear scan it replaced, on random registries generated with a fixed seed
+public class JDKIndexTest {
+    private static final String[] IMPLEMENTORS = {null, "Oracle", "Eclipse Adoptium", "Azul"};
+    private static final String[] BUILDS = {null, "9", "12-LTS", "7"};
+    private static final int[] MAJORS = {1, 8, 11, 17, 21, 22};
+
+    // the matching before the index was introduced: filter all jdks with each tier, and sort the matched ones
+    private static JDKInfo linearFindProperJDK(JDKManConfig config, JDKInfoMatcher matcher) {
+        var ls = new ArrayList<JDKInfo>();
+        for (var opts : JDKIndex.TIERS) {
+            for (var jdk : config.getJdks()) {
+                if (matcher.match(jdk, opts)) {
+                    ls.add(jdk);
+                }
+            }
+            if (!ls.isEmpty()) {
+                ls.sort(JDKInfo::compareTo);
+                return ls.getFirst();
+            }
+        }
+        return null;
+    }
+
+    // the default jdks are tried in order, the user's one and then the system's one
+    private static JDKInfo linearResolve(JDKManConfig config, JDKInfoMatcher matcher, String... defaultJDKs) {
+        if (matcher != null) {
+            var jdk = linearFindProperJDK(config, matcher);
+            if (jdk != null) {
+                return jdk;
+            }
+        }
+        for (var defaultJDK : defaultJDKs) {
+            for (var jdk : config.getJdks()) {
+                if (jdk.getId().equals(defaultJDK)) {
+                    return jdk;
+                }
+            }
+        }
+        if (config.getJdks().isEmpty()) {
+            return null;
+        }
+        return config.getJdks().getFirst();
+    }
+
+    private static JDKManConfig randomConfig(Random r, String idPrefix) {
+        var config = new JDKManConfig();
+        var n = r.nextInt(40);
+        for (int i = 0; i < n; ++i) {
+            var jdk = new JDKInfo();
+            jdk.setId(idPrefix + i);
+            var major = MAJORS[r.nextInt(MAJORS.length)];
+            jdk.setMajorVersion(major);
+            jdk.setMinorVersion(major == 1 ? 6 + r.nextInt(3) : r.nextInt(2));
+            jdk.setPatchVersion(r.nextInt(4));
+            jdk.setBuildVersion(BUILDS[r.nextInt(BUILDS.length)]);
+            jdk.setImplementor(IMPLEMENTORS[r.nextInt(IMPLEMENTORS.length)]);
+            jdk.setFullVersion("x");
+            jdk.setHome(STR."/\{idPrefix}/\{i}");
+            config.getJdks().add(jdk);
+        }
+        if (r.nextBoolean()) {
+            config.getJdks().sort(Comparator.reverseOrder());
+        }
+        if (n != 0 && r.nextBoolean()) {
+            config.setDefaultJDK(config.getJdks().get(r.nextInt(n)).getId());
+        }
+        return config;
+    }
+
+    private static JDKInfoMatcher randomMatcher(Random r) {
+        var major = MAJORS[r.nextInt(MAJORS.length)];
+        Integer minor = r.nextBoolean() ? null : (major == 1 ? 6 + r.nextInt(3) : r.nextInt(2));
+        Integer patch = minor == null || r.nextBoolean() ? null : r.nextInt(4);
+        return new JDKInfoMatcher(IMPLEMENTORS[r.nextInt(IMPLEMENTORS.length)], major, minor, patch,
+            BUILDS[r.nextInt(BUILDS.length)], "x");
+    }
+
+    @Test
+    public void sameAsLinearScan() {
+        var r = new Random(42);
+        for (int i = 0; i < 500; ++i) {
+            var config = randomConfig(r, "user");
+            var index = JDKIndex.of(config);
+            for (int q = 0; q < 50; ++q) {
+                var matcher = randomMatcher(r);
+                assertSame(linearFindProperJDK(config, matcher), index.findProperJDK(matcher), matcher::toString);
+                assertSame(linearResolve(config, matcher, config.getDefaultJDK()), index.resolve(matcher), matcher::toString);
+            }
+            assertSame(linearResolve(config, null, config.getDefaultJDK()), index.resolve(null));
+        }
+    }
+
+    // the layered index must behave as a single registry with the system jdks appended after the user ones
+    @Test
+    public void layeredSameAsLinearScanOfMergedRegistry() {
+        var r = new Random(7);
+        for (int i = 0; i < 500; ++i) {
+            var user = randomConfig(r, "user");
+            var system = randomConfig(r, "system");
+            var merged = new JDKManConfig();
+            merged.getJdks().addAll(user.getJdks());
+            merged.getJdks().addAll(system.getJdks());
+            var index = JDKIndex.of(user, system);
+            for (int q = 0; q < 50; ++q) {
+                var matcher = randomMatcher(r);
+                assertSame(linearFindProperJDK(merged, matcher), index.findProperJDK(matcher), matcher::toString);
+                assertSame(linearResolve(merged, matcher, user.getDefaultJDK(), system.getDefaultJDK()),
+                    index.resolve(matcher), matcher::toString);
+            }
+            assertSame(linearResolve(merged, null, user.getDefaultJDK(), system.getDefaultJDK()), index.resolve(null));
+        }
+    }
+}
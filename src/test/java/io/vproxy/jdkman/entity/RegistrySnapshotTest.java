@@ -0,0 +1,142 @@
+package io.vproxy.jdkman.entity;
+
+import io.vproxy.jdkman.util.Utils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// compares RegistrySnapshot.resolve(user, system, matcher), which is used by the `which` fast path,
+// with JDKIndex.of(user, system).resolve(matcher) on random layered registries (with a fixed seed)
+public class RegistrySnapshotTest {
+    private static final String[] IMPLEMENTORS = {"Eclipse Adoptium", "Oracle Corporation", "BellSoft", null};
+    private static final int[] MAJORS = {8, 11, 17, 21, 22, 23};
+    private static final String[] VERSION_STRINGS = {
+        "21", "17.0.9", "1.8", "1.8.0_392", "1.8.0_392-b08", "11.0.21+9", "21.0.1+12-LTS",
+        "Oracle Corporation:21.0.1+12-29", "Eclipse Adoptium:17.0.9+9",
+    };
+
+    @Test
+    public void layeredSameAsIndex(@TempDir Path dir) throws Exception {
+        var rnd = new Random(42);
+        var userFile = dir.resolve("user").toFile();
+        var systemFile = dir.resolve("system").toFile();
+        Files.writeString(userFile.toPath(), "user");
+        Files.writeString(systemFile.toPath(), "system");
+        for (int i = 0; i < 2000; ++i) {
+            var user = registry(rnd, "user");
+            var system = registry(rnd, "system");
+            system.setDefaultJDK(system.getJdks().isEmpty() ? null : pickDefault(rnd, system, user));
+            user.setDefaultJDK(pickDefault(rnd, user, system));
+
+            RegistrySnapshot.update(userFile, user);
+            RegistrySnapshot.update(systemFile, system);
+            var userSnapshot = RegistrySnapshot.openReadOnly(userFile);
+            var systemSnapshot = RegistrySnapshot.openReadOnly(systemFile);
+            var index = JDKIndex.of(user, system);
+            for (int j = 0; j < 10; ++j) {
+                var matcher = matcher(rnd);
+                var expected = index.resolve(matcher);
+                var actual = RegistrySnapshot.resolve(userSnapshot, systemSnapshot, matcher);
+                assertEquals(id(expected), id(actual), () -> STR."""
+                    \{matcher}
+                    user: \{user.getDefaultJDK()} \{user.getJdks()}
+                    system: \{system.getDefaultJDK()} \{system.getJdks()}""");
+            }
+        }
+    }
+
+    // the `which` fast path doesn't hold the config lock, so it must never write the snapshot
+    @Test
+    public void outdatedNotWrittenByReaders(@TempDir Path dir) throws Exception {
+        var configFile = dir.resolve("jdkman").toFile();
+        Files.writeString(configFile.toPath(), "config");
+        RegistrySnapshot.update(configFile, registry(new Random(42), "user"));
+        assertNotNull(RegistrySnapshot.openMapped(configFile));
+        // up to date, nothing to do
+        assertFalse(RegistrySnapshot.refresh(configFile));
+
+        var snapshotFile = RegistrySnapshot.fileFor(configFile).toPath();
+        var bytes = Files.readAllBytes(snapshotFile);
+        var mtime = Files.getLastModifiedTime(snapshotFile);
+        Files.writeString(configFile.toPath(), "modified config");
+        assertNull(RegistrySnapshot.openMapped(configFile));
+        assertArrayEquals(bytes, Files.readAllBytes(snapshotFile));
+        assertEquals(mtime, Files.getLastModifiedTime(snapshotFile));
+    }
+
+    // sorted the same way as `jdkman add` does
+    private static JDKManConfig registry(Random rnd, String idPrefix) {
+        var jdks = new ArrayList<JDKInfo>();
+        var count = rnd.nextInt(8);
+        for (int i = 0; i < count; ++i) {
+            var jdk = new JDKInfo();
+            var major = MAJORS[rnd.nextInt(MAJORS.length)];
+            var patch = rnd.nextInt(30);
+            var build = String.valueOf(1 + rnd.nextInt(40));
+            jdk.setId(STR."\{idPrefix}-\{i}");
+            if (major == 8) {
+                jdk.setMajorVersion(1);
+                jdk.setMinorVersion(8);
+                jdk.setPatchVersion(0);
+                jdk.setBuildVersion(STR."\{100 + patch * 10}-b\{build}");
+                jdk.setFullVersion(STR."1.8.0_\{jdk.getBuildVersion()}");
+            } else {
+                jdk.setMajorVersion(major);
+                jdk.setMinorVersion(0);
+                jdk.setPatchVersion(patch);
+                jdk.setBuildVersion(build);
+                jdk.setFullVersion(STR."\{major}.0.\{patch}+\{build}");
+            }
+            jdk.setImplementor(IMPLEMENTORS[rnd.nextInt(IMPLEMENTORS.length)]);
+            jdk.setHome(STR."/\{idPrefix}/\{jdk.getId()}");
+            jdks.add(jdk);
+        }
+        jdks.sort(Comparator.reverseOrder());
+        var config = new JDKManConfig();
+        config.setJdks(jdks);
+        return config;
+    }
+
+    // the default might be missing, refer to the other layer, or be a dangling id
+    private static String pickDefault(Random rnd, JDKManConfig config, JDKManConfig other) {
+        return switch (rnd.nextInt(5)) {
+            case 0 -> null;
+            case 1 -> "missing";
+            case 2 -> other.getJdks().isEmpty() ? null : other.getJdks().get(rnd.nextInt(other.getJdks().size())).getId();
+            default -> config.getJdks().isEmpty() ? null : config.getJdks().get(rnd.nextInt(config.getJdks().size())).getId();
+        };
+    }
+
+    private static JDKInfoMatcher matcher(Random rnd) throws Exception {
+        if (rnd.nextInt(10) == 0) {
+            return null;
+        }
+        if (rnd.nextBoolean()) {
+            return Utils.parseVersion(VERSION_STRINGS[rnd.nextInt(VERSION_STRINGS.length)]);
+        }
+        var major = MAJORS[rnd.nextInt(MAJORS.length)];
+        var version = major == 8 ? "1.8" : STR."\{major}";
+        if (rnd.nextBoolean()) {
+            version += STR.".0.\{rnd.nextInt(30)}";
+        }
+        if (rnd.nextBoolean()) {
+            version += STR."+\{1 + rnd.nextInt(40)}";
+        }
+        String[] implementors = {"Eclipse Adoptium", "Oracle Corporation", "BellSoft", "Nobody"};
+        if (rnd.nextInt(3) == 0) {
+            version = STR."\{implementors[rnd.nextInt(implementors.length)]}:\{version}";
+        }
+        return Utils.parseVersion(version);
+    }
+
+    private static String id(JDKInfo jdk) {
+        return jdk == null ? null : jdk.getId();
+    }
+}
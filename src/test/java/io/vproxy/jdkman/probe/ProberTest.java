@@ -0,0 +1,90 @@
+package io.vproxy.jdkman.probe;
+
+import io.vproxy.jdkman.entity.JDKInfoMatcher;
+import io.vproxy.jdkman.ex.ErrorResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// the spawn-free probers must report the same version as `java -version`.
+// the jdk running the tests is always checked, more homes can be listed in JDKMAN_TEST_JDKS (separated by File.pathSeparator)
+public class ProberTest {
+    private static final long TIMEOUT_MILLIS = 30_000;
+
+    private static List<String> javaHomes() {
+        var homes = new ArrayList<String>();
+        homes.add(System.getProperty("java.home"));
+        var env = System.getenv("JDKMAN_TEST_JDKS");
+        if (env != null) {
+            for (var home : env.split(File.pathSeparator)) {
+                if (!home.isBlank() && !homes.contains(home)) {
+                    homes.add(home);
+                }
+            }
+        }
+        return homes;
+    }
+
+    private static void assertSameVersion(JDKInfoMatcher expected, JDKInfoMatcher actual, String message) {
+        assertEquals(expected.majorVersion, actual.majorVersion, message);
+        assertEquals(expected.minorVersion, actual.minorVersion, message);
+        assertEquals(expected.patchVersion, actual.patchVersion, message);
+        assertEquals(expected.buildVersion, actual.buildVersion, message);
+    }
+
+    private static void crossCheck(JDKProber prober) throws Exception {
+        var checked = 0;
+        for (var home : javaHomes()) {
+            JDKInfoMatcher actual;
+            try {
+                actual = prober.probe(home, TIMEOUT_MILLIS);
+            } catch (ErrorResult e) {
+                // e.g. jdk 8 doesn't have the jimage file, the chain falls through to the next prober
+                continue;
+            }
+            var expected = new ProcessProber().probe(home, TIMEOUT_MILLIS);
+            assertSameVersion(expected, actual, STR."\{prober.name()} prober on \{home}");
+            ++checked;
+        }
+        assumeTrue(checked != 0, STR."no jdk can be probed by the \{prober.name()} prober");
+    }
+
+    @Test
+    public void releaseSameAsProcess() throws Exception {
+        crossCheck(new ReleaseFileProber());
+    }
+
+    @Test
+    public void jimageSameAsProcess() throws Exception {
+        crossCheck(new JImageProber());
+    }
+
+    // a home with the jimage file of the running jdk, and a release file for another arch
+    @Test
+    public void foreignPlatformRejected(@TempDir Path dir) throws Exception {
+        var modules = Path.of(System.getProperty("java.home"), "lib", "modules");
+        assumeTrue(Files.isRegularFile(modules));
+        Files.createDirectories(dir.resolve("lib"));
+        Files.createSymbolicLink(dir.resolve("lib").resolve("modules"), modules);
+        var arch = System.getProperty("os.arch").equals("aarch64") ? "x86_64" : "aarch64";
+        Files.writeString(dir.resolve("release"), STR."""
+            JAVA_VERSION="\{Runtime.version().feature()}"
+            OS_ARCH="\{arch}"
+            """);
+
+        var home = dir.toString();
+        assertNotNull(new JImageProber().probe(System.getProperty("java.home"), TIMEOUT_MILLIS));
+        var e = assertThrows(ErrorResult.class, () -> new JImageProber().probe(home, TIMEOUT_MILLIS));
+        assertTrue(e.getMessage().contains(arch), e.getMessage());
+        e = assertThrows(ErrorResult.class, () -> new ReleaseFileProber().probe(home, TIMEOUT_MILLIS));
+        assertTrue(e.getMessage().contains(arch), e.getMessage());
+    }
+}
@@ -0,0 +1,124 @@
+package io.vproxy.jdkman.util;
+
+import io.vproxy.jdkman.entity.JDKInfoMatcher;
+import io.vproxy.jdkman.ex.ErrorResult;
+
+import java.nio.charset.StandardCharsets;
+
+// the version parser and .java-version decoder before VersionParser was introduced,
+// kept as the baseline of the benchmarks and the reference of VersionParserTest
+public class LegacyVersionParser {
+    private LegacyVersionParser() {
+    }
+
+    public static boolean isNonNegativeInteger(String s) {
+        try {
+            var n = Integer.parseInt(s);
+            return n >= 0;
+        } catch (NumberFormatException _) {
+            return false;
+        }
+    }
+
+    public static JDKInfoMatcher parseVersion(final String version) throws ErrorResult {
+        String implementor = null;
+        String versionPart;
+        if (version.contains(":")) {
+            implementor = version.substring(0, version.indexOf(":"));
+            versionPart = version.substring(version.indexOf(":") + 1);
+        } else {
+            versionPart = version;
+        }
+
+        int major;
+        Integer minor = null;
+        Integer patch = null;
+        String buildVersion = null;
+
+        String versionStr;
+        if (versionPart.contains("+")) {
+            versionStr = versionPart.substring(0, versionPart.indexOf("+"));
+            buildVersion = versionPart.substring(versionPart.indexOf("+") + 1);
+        } else if (versionPart.contains("_")) {
+            versionStr = versionPart.substring(0, versionPart.indexOf("_"));
+            buildVersion = versionPart.substring(versionPart.indexOf("_") + 1);
+        } else {
+            versionStr = versionPart;
+        }
+
+        var split = versionStr.split("\\.");
+        if (split.length == 0) {
+            throw new ErrorResult(STR."\{versionStr} is not a valid version: empty string");
+        }
+        if (!isNonNegativeInteger(split[0])) {
+            throw new ErrorResult(STR."\{versionStr} is not a valid version: major version not valid: \{split[0]}");
+        }
+        major = Integer.parseInt(split[0]);
+        if (split.length >= 2) {
+            if (!isNonNegativeInteger(split[1])) {
+                throw new ErrorResult(STR."\{versionStr} is not a valid version: minor version not valid: \{split[1]}");
+            }
+            minor = Integer.parseInt(split[1]);
+        }
+        if (split.length >= 3) {
+            if (!isNonNegativeInteger(split[2])) {
+                throw new ErrorResult(STR."\{versionStr} is not a valid version: patch version not valid: \{split[2]}");
+            }
+            patch = Integer.parseInt(split[2]);
+        }
+
+        return new JDKInfoMatcher(implementor, major, minor, patch, buildVersion, version);
+    }
+
+    private static final String[] TRY_CHARSETS = {"UTF-8", "UTF-16LE", "UTF-16BE", "BOM"};
+
+    private static String decode(String charsetName, byte[] b) {
+        return switch (charsetName) {
+            case "UTF-8" -> new String(b, StandardCharsets.UTF_8);
+            case "UTF-16LE" -> new String(b, StandardCharsets.UTF_16LE);
+            case "UTF-16BE" -> new String(b, StandardCharsets.UTF_16BE);
+            default -> decodeWithBOM(b);
+        };
+    }
+
+    private static String decodeWithBOM(byte[] b) {
+        if (b.length < 2) {
+            return null;
+        }
+        if (b[0] == (byte) 0xFF && b[1] == (byte) 0xFE) {
+            var bb = new byte[b.length - 2];
+            System.arraycopy(b, 2, bb, 0, b.length - 2);
+            return new String(bb, StandardCharsets.UTF_16LE);
+        } else if (b[0] == (byte) 0xFE && b[1] == (byte) 0xFF) {
+            var bb = new byte[b.length - 2];
+            System.arraycopy(b, 2, bb, 0, b.length - 2);
+            return new String(bb, StandardCharsets.UTF_16BE);
+        }
+        if (b.length < 3) {
+            return null;
+        }
+        if (b[0] == (byte) 0xEF && b[1] == (byte) 0xBB && b[2] == (byte) 0xBF) {
+            var bb = new byte[b.length - 3];
+            System.arraycopy(b, 3, bb, 0, b.length - 3);
+            return new String(bb, StandardCharsets.UTF_8);
+        }
+        return null;
+    }
+
+    // the content of the .java-version file, the file reading is not included
+    public static JDKInfoMatcher decodeVersionFile(byte[] contentBytes) {
+        for (var charsetName : TRY_CHARSETS) {
+            var content = decode(charsetName, contentBytes);
+            if (content == null) {
+                continue;
+            }
+            content = content.trim();
+            content = new String(content.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+            try {
+                return parseVersion(content);
+            } catch (ErrorResult _) {
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,151 @@
+package io.vproxy.jdkman.util;
+
+import io.vproxy.jdkman.entity.JDKInfo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResolutionCacheTest {
+    private static JDKInfo jdk() {
+        var jdk = new JDKInfo();
+        jdk.setId("jdk-21");
+        jdk.setHome("/jdk-21");
+        return jdk;
+    }
+
+    // the `which --token` fast path reuses the .java-version walk, which must find the same files
+    private static ResolutionCache.Entry entry(File dir, File configFile) {
+        var walkedDirs = new ArrayList<File>();
+        var files = Utils.findProjectFiles(dir, walkedDirs);
+        var versionWalkedDirs = new ArrayList<File>();
+        var versionFile = Utils.findVersionFile(dir, versionWalkedDirs);
+        assertEquals(walkedDirs, versionWalkedDirs);
+        assertEquals(files, Utils.projectFilesOf(versionFile, versionWalkedDirs));
+        return ResolutionCache.Entry.create(dir, configFile, files, walkedDirs, jdk());
+    }
+
+    private static void touch(Path dir) throws Exception {
+        Files.setLastModifiedTime(dir, FileTime.fromMillis(Files.getLastModifiedTime(dir).toMillis() + 10_000));
+    }
+
+    // <tmp>/outer/.java-options, <tmp>/outer/project/.java-version, <tmp>/outer/project/a/b
+    @Test
+    public void optionsWalkStopsAtVersionFile(@TempDir Path tmp) throws Exception {
+        var config = Files.writeString(tmp.resolve("jdkman"), "{}").toFile();
+        var outer = tmp.resolve("outer");
+        var project = outer.resolve("project");
+        var dir = project.resolve("a").resolve("b");
+        Files.createDirectories(dir);
+        Files.writeString(outer.resolve(".java-options"), "java -Xmx1g\n");
+        Files.writeString(project.resolve(".java-version"), "21\n");
+
+        var walkedDirs = new ArrayList<File>();
+        var files = Utils.findProjectFiles(dir.toFile(), walkedDirs);
+        assertEquals(project.resolve(".java-version").toFile(), files.versionFile());
+        assertNull(files.optionsFile());
+        assertEquals(List.of(dir.toFile(), dir.getParent().toFile()), walkedDirs);
+
+        // the directories above the project don't affect the entry
+        var entry = entry(dir.toFile(), config);
+        assertNotNull(entry);
+        assertTrue(entry.isValid(config));
+        touch(outer);
+        touch(tmp);
+        assertTrue(entry.isValid(config));
+
+        // a .java-options between the directory and the project does
+        Files.writeString(dir.getParent().resolve(".java-options"), "java -Xmx2g\n");
+        assertFalse(entry.isValid(config));
+        entry = entry(dir.toFile(), config);
+        assertNotNull(entry);
+        assertTrue(entry.isValid(config));
+        assertEquals(List.of("-Xmx2g"), entry.toolOptions("java"));
+    }
+
+    // projects usually keep .java-options next to .java-version
+    @Test
+    public void optionsCreatedNextToVersionFile(@TempDir Path tmp) throws Exception {
+        var config = Files.writeString(tmp.resolve("jdkman"), "{}").toFile();
+        var project = Files.createDirectories(tmp.resolve("project"));
+        var dir = Files.createDirectories(project.resolve("src"));
+        Files.writeString(project.resolve(".java-version"), "21\n");
+
+        for (var start : List.of(project, dir)) {
+            var entry = entry(start.toFile(), config);
+            assertNotNull(entry);
+            assertTrue(entry.isValid(config));
+            assertEquals(List.of(), entry.toolOptions("java"));
+
+            Files.writeString(project.resolve(".java-options"), "java -Xmx2g\n");
+            assertFalse(entry.isValid(config));
+            entry = entry(start.toFile(), config);
+            assertNotNull(entry);
+            assertTrue(entry.isValid(config));
+            assertEquals(List.of("-Xmx2g"), entry.toolOptions("java"));
+            Files.delete(project.resolve(".java-options"));
+        }
+    }
+
+    // every directory has its own entry, so caches used by different processes don't overwrite each other
+    @Test
+    public void entryPerDirectory(@TempDir Path tmp) throws Exception {
+        var config = Files.writeString(tmp.resolve("jdkman"), "{}").toFile();
+        // the cache dir is created before the entries, which depend on the mtime of tmp
+        var cacheDir = Files.createDirectories(tmp.resolve("cache"));
+        var a = Files.createDirectories(tmp.resolve("a")).toFile();
+        var b = Files.createDirectories(tmp.resolve("b")).toFile();
+
+        var cache1 = new ResolutionCache(cacheDir, 16);
+        var cache2 = new ResolutionCache(cacheDir, 16);
+        assertNull(cache1.lookup(a, config));
+        cache1.store(entry(a, config));
+        cache2.store(entry(b, config));
+        assertEquals("/jdk-21", cache1.lookup(b, config).home);
+        assertEquals("/jdk-21", cache2.lookup(a, config).home);
+        assertEquals(2, cache1.load().size());
+
+        // the last used time is the mtime of the entry file
+        try (var stream = Files.list(cacheDir)) {
+            for (var f : stream.toList()) {
+                Files.setLastModifiedTime(f, FileTime.fromMillis(1000));
+            }
+        }
+        assertEquals(1000, cache1.load().get(a.getAbsolutePath()).lastUsed);
+        assertTrue(cache1.lookup(a, config).lastUsed > 1000);
+        assertTrue(cache1.load().get(a.getAbsolutePath()).lastUsed > 1000);
+        assertEquals(1000, cache1.load().get(b.getAbsolutePath()).lastUsed);
+
+        assertTrue(cache1.clear());
+        assertNull(cache2.lookup(a, config));
+        assertTrue(cache2.load().isEmpty());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed(@TempDir Path tmp) throws Exception {
+        var config = Files.writeString(tmp.resolve("jdkman"), "{}").toFile();
+        var cacheDir = Files.createDirectories(tmp.resolve("cache"));
+        var writer = new ResolutionCache(cacheDir, 16);
+        var dirs = new ArrayList<File>();
+        for (int i = 0; i < 10; ++i) {
+            var dir = Files.createDirectories(tmp.resolve("d" + i)).toFile();
+            dirs.add(dir);
+            writer.store(entry(dir, config));
+            Files.setLastModifiedTime(writer.entryFile(dir.getAbsolutePath()), FileTime.fromMillis(1000L * (i + 1)));
+        }
+        var cache = new ResolutionCache(cacheDir, 4);
+        cache.evict();
+        var entries = cache.load();
+        assertEquals(4, entries.size());
+        for (int i = 6; i < 10; ++i) {
+            assertTrue(entries.containsKey(dirs.get(i).getAbsolutePath()));
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package io.vproxy.jdkman.util;
+
+import io.vproxy.jdkman.entity.JDKInfoMatcher;
+import io.vproxy.jdkman.ex.ErrorResult;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// compares VersionParser with LegacyVersionParser on random and mutated inputs (with a fixed seed):
+//   Utils.parseVersion: the same matcher, or the same error message
+//   Utils.isNonNegativeInteger: the same result
+//   VersionParser.decodeVersionFile: the same matcher from random bytes in different encodings
+public class VersionParserTest {
+    private static final String[] SEEDS = {
+        "21", "17.0.9", "1.8.0_392-b08", "21.0.1+12-LTS", "Oracle Corporation:21.0.1+12-29",
+        "Eclipse Adoptium:21.0.1+12-LTS", "11.0.21+9", "8", "22-ea", "0.0.0", "2147483647", "2147483648",
+        "-0", "+1", "-1", "+", "-", "", ".", "..", "1..", "1...2", ".1", "a:b:c", ":", "_", "+_", "1_2+3",
+        "\u0661\u0667.\u0660.\u0669", "\uFF11\uFF17", "21.0.1.1.1", "017.00.009", "99999999999",
+    };
+    private static final char[] ALPHABET = {
+        '0', '1', '2', '7', '9', '.', '.', ':', '+', '_', '-', 'a', 'Z', ' ', '\t', '\n', '\r', '\0',
+        '\u0661', '\u0669', '\uFF11', '\u00A0', '\u2007', '\uFEFF', '\uFFFE', '\uD83D', '\uDE00', '\u00E9', '\u4E2D',
+    };
+
+    private static final int ITERATIONS = 20_000;
+
+    @Test
+    public void seeds() {
+        for (var s : SEEDS) {
+            compareString(s);
+            assertEquals(LegacyVersionParser.isNonNegativeInteger(s), Utils.isNonNegativeInteger(s), () -> escape(s));
+        }
+    }
+
+    @Test
+    public void parseVersionSameAsLegacy() {
+        var rnd = new Random(42);
+        var valid = 0;
+        for (int i = 0; i < ITERATIONS; ++i) {
+            var s = randomString(rnd);
+            if (compareString(s)) {
+                ++valid;
+            }
+            assertEquals(LegacyVersionParser.isNonNegativeInteger(s), Utils.isNonNegativeInteger(s), () -> escape(s));
+        }
+        // the mutations must keep a fair share of the inputs valid, otherwise only the error paths are compared
+        assertTrue(valid > ITERATIONS / 10, STR."only \{valid} of \{ITERATIONS} inputs are valid");
+    }
+
+    @Test
+    public void decodeVersionFileSameAsLegacy() {
+        var rnd = new Random(42);
+        var valid = 0;
+        for (int i = 0; i < ITERATIONS; ++i) {
+            var b = randomBytes(rnd, randomString(rnd));
+            var expected = LegacyVersionParser.decodeVersionFile(b);
+            var actual = VersionParser.decodeVersionFile(b);
+            assertTrue(same(expected, actual), () -> STR."decodeVersionFile(\{hex(b)}): expected \{str(expected)}, actual \{str(actual)}");
+            if (expected != null) {
+                ++valid;
+            }
+        }
+        assertTrue(valid > ITERATIONS / 10, STR."only \{valid} of \{ITERATIONS} files are valid");
+    }
+
+    // returns true if the string is a valid version
+    private static boolean compareString(String s) {
+        JDKInfoMatcher expected = null;
+        String expectedErr = null;
+        try {
+            expected = LegacyVersionParser.parseVersion(s);
+        } catch (ErrorResult e) {
+            expectedErr = e.getMessage();
+        }
+        JDKInfoMatcher actual = null;
+        String actualErr = null;
+        try {
+            actual = Utils.parseVersion(s);
+        } catch (ErrorResult e) {
+            actualErr = e.getMessage();
+        }
+        var e1 = expected;
+        var e2 = expectedErr;
+        var a1 = actual;
+        var a2 = actualErr;
+        assertTrue(same(expected, actual) && Objects.equals(expectedErr, actualErr),
+            () -> STR."parseVersion(\{escape(s)}): expected \{str(e1)} / \{e2}, actual \{str(a1)} / \{a2}");
+        return expected != null;
+    }
+
+    private static String randomString(Random rnd) {
+        var sb = new StringBuilder(SEEDS[rnd.nextInt(SEEDS.length)]);
+        var mutations = rnd.nextInt(4);
+        for (int i = 0; i < mutations; ++i) {
+            var c = ALPHABET[rnd.nextInt(ALPHABET.length)];
+            var pos = sb.isEmpty() ? 0 : rnd.nextInt(sb.length() + 1);
+            switch (rnd.nextInt(3)) {
+                case 0 -> sb.insert(pos, c);
+                case 1 -> {
+                    if (pos < sb.length()) {
+                        sb.setCharAt(pos, c);
+                    }
+                }
+                default -> {
+                    if (pos < sb.length()) {
+                        sb.deleteCharAt(pos);
+                    }
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final byte[] UTF16LE_BOM = {(byte) 0xFF, (byte) 0xFE};
+    private static final byte[] UTF16BE_BOM = {(byte) 0xFE, (byte) 0xFF};
+
+    private static byte[] randomBytes(Random rnd, String s) {
+        var padded = switch (rnd.nextInt(4)) {
+            case 0 -> s;
+            case 1 -> s + "\n";
+            case 2 -> " " + s + "\r\n";
+            default -> "\t" + s + " \n\n";
+        };
+        var b = switch (rnd.nextInt(8)) {
+            case 0, 1 -> padded.getBytes(StandardCharsets.UTF_8);
+            case 2 -> concat(UTF8_BOM, padded.getBytes(StandardCharsets.UTF_8));
+            case 3 -> padded.getBytes(StandardCharsets.UTF_16LE);
+            case 4 -> concat(UTF16LE_BOM, padded.getBytes(StandardCharsets.UTF_16LE));
+            case 5 -> padded.getBytes(StandardCharsets.UTF_16BE);
+            case 6 -> concat(UTF16BE_BOM, padded.getBytes(StandardCharsets.UTF_16BE));
+            default -> {
+                var bb = new byte[rnd.nextInt(12)];
+                rnd.nextBytes(bb);
+                yield bb;
+            }
+        };
+        // corrupt some bytes, or make the length odd
+        if (b.length > 0 && rnd.nextInt(4) == 0) {
+            switch (rnd.nextInt(3)) {
+                case 0 -> b[rnd.nextInt(b.length)] = (byte) rnd.nextInt(256);
+                case 1 -> b = Arrays.copyOf(b, b.length - 1);
+                default -> b = concat(b, new byte[]{(byte) rnd.nextInt(256)});
+            }
+        }
+        return b;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        var r = new byte[a.length + b.length];
+        System.arraycopy(a, 0, r, 0, a.length);
+        System.arraycopy(b, 0, r, a.length, b.length);
+        return r;
+    }
+
+    private static boolean same(JDKInfoMatcher a, JDKInfoMatcher b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return Objects.equals(a.implementor, b.implementor)
+               && a.majorVersion == b.majorVersion
+               && Objects.equals(a.minorVersion, b.minorVersion)
+               && Objects.equals(a.patchVersion, b.patchVersion)
+               && Objects.equals(a.buildVersion, b.buildVersion)
+               && a.fullVersion.equals(b.fullVersion);
+    }
+
+    private static String str(JDKInfoMatcher m) {
+        if (m == null) {
+            return "null";
+        }
+        return STR."{implementor=\{escape(m.implementor)}, \{m.majorVersion}.\{m.minorVersion}.\{m.patchVersion}, build=\{escape(m.buildVersion)}, full=\{escape(m.fullVersion)}}";
+    }
+
+    private static String escape(String s) {
+        if (s == null) {
+            return "null";
+        }
+        var sb = new StringBuilder("\"");
+        for (var c : s.toCharArray()) {
+            if (c < 0x20 || c > 0x7e) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String hex(byte[] b) {
+        var sb = new StringBuilder();
+        for (var x : b) {
+            sb.append(String.format("%02x", x & 0xff));
+        }
+        return sb.toString();
+    }
+}